@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody.bench;
+
+import evilwan.nakedbody.BodyExtractor;
+import evilwan.nakedbody.HeadScanner;
+import evilwan.nakedbody.HttpHead;
+import evilwan.nakedbody.HttpMessage;
+import evilwan.nakedbody.MediaTypes;
+import evilwan.nakedbody.PlainHeadParser;
+import evilwan.nakedbody.StdioEncapsulation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per message classification: which file extension does a body get.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class ClassifyBenchmark {
+    /**
+     * Kind of message to classify
+     */
+    @Param({ "SMALL_JSON", "LARGE_IMAGE", "FORM", "MULTIPART", "GZIP_HTML" })
+    public Corpus.Kind kind;
+
+    /**
+     * Bytes of the body to classify (request for uploads and forms, response otherwise)
+     */
+    private byte[] _bar;
+    /**
+     * Parsed head of the body to classify
+     */
+    private HttpHead _head;
+    /**
+     * Value of the Content-Type header
+     */
+    private String _ctype;
+    /**
+     * Extractor under test
+     */
+    private BodyExtractor _extractor;
+
+    /**
+     * Build the message and parse its head
+     */
+    @Setup
+    public void setup() {
+        HttpMessage msg = Corpus.message(kind, 1);
+        HeadScanner parser = new HeadScanner(new PlainHeadParser());
+        if((kind == Corpus.Kind.FORM) || (kind == Corpus.Kind.MULTIPART)) {
+            _bar = msg.getRequest();
+            _head = parser.parseRequest(msg);
+        } else {
+            _bar = msg.getResponse();
+            _head = parser.parseResponse(_bar);
+        }
+        _ctype = _head.header("content-type");
+        final PrintStream nul = new PrintStream(OutputStream.nullOutputStream());
+        _extractor = new BodyExtractor(parser, new StdioEncapsulation() {
+            @Override
+            public PrintStream getStdout() {
+                return nul;
+            }
+
+            @Override
+            public PrintStream getStderr() {
+                return nul;
+            }
+        });
+    }
+
+    /**
+     * Full classification as done for every saved body: header lookup and table/sniff
+     * @return file extension
+     */
+    @Benchmark
+    public String guessFileType() {
+        return _extractor.guessFileType(_head, _bar, _head.getBodyOffset());
+    }
+
+    /**
+     * Media type table and magic byte sniffing only, header value already known
+     * @return file extension
+     */
+    @Benchmark
+    public String guessExtension() {
+        return MediaTypes.guessExtension(_ctype, _bar, _head.getBodyOffset(), _bar.length - _head.getBodyOffset());
+    }
+
+    /**
+     * Magic byte sniffing only, as for bodies without usable Content-Type
+     * @return file extension, <code>null</code> if not recognized
+     */
+    @Benchmark
+    public String sniff() {
+        return MediaTypes.sniff(_bar, _head.getBodyOffset(), _bar.length - _head.getBodyOffset());
+    }
+}
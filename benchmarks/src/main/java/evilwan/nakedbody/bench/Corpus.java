@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody.bench;
+
+import evilwan.nakedbody.HttpMessage;
+import evilwan.nakedbody.RawMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Synthetic but realistic messages for the benchmarks.
+ * <p>
+ * All content comes from a seeded random generator, so every run measures exactly the same bytes.
+ */
+public class Corpus {
+    /**
+     * Kind of message
+     */
+    public enum Kind {
+        /**
+         * GET with a small JSON response, the bulk of any API history
+         */
+        SMALL_JSON,
+        /**
+         * GET with a 2 MB JPEG response
+         */
+        LARGE_IMAGE,
+        /**
+         * URL encoded form POST with an HTML response
+         */
+        FORM,
+        /**
+         * Multipart file upload with a small JSON response
+         */
+        MULTIPART,
+        /**
+         * GET with a gzip compressed, chunked HTML response
+         */
+        GZIP_HTML
+    }
+
+    /**
+     * Seed for all generated content
+     */
+    private final static long SEED = 0x6e616b6564L;
+
+    /**
+     * Not to be instantiated
+     */
+    private Corpus() {
+    }
+
+    /**
+     * Build one message
+     * @param kind kind of message
+     * @param nr number of the message, varies the content
+     * @return the message
+     */
+    public static HttpMessage message(Kind kind, int nr) {
+        Random rnd = new Random(SEED + nr * 31L + kind.ordinal());
+        switch(kind) {
+            case SMALL_JSON:
+                return message(get("/api/v1/items/" + nr),
+                               response("application/json; charset=utf-8", null, json(rnd, 40)));
+            case LARGE_IMAGE:
+                byte[] img = new byte[2 << 20];
+                rnd.nextBytes(img);
+                img[0] = (byte) 0xff;
+                img[1] = (byte) 0xd8;
+                img[2] = (byte) 0xff;
+                img[3] = (byte) 0xe0;
+                return message(get("/static/photo-" + nr + ".jpg"), response("image/jpeg", null, img));
+            case FORM:
+                StringBuilder form = new StringBuilder();
+                for(int i = 0; i < 20; i++) {
+                    form.append((i == 0) ? "" : "&").append("field").append(i).append('=')
+                        .append("value%20with%20%C3%A9scapes%2B").append(rnd.nextInt(100000));
+                }
+                return message(post("/account/update", "application/x-www-form-urlencoded",
+                                    form.toString().getBytes(StandardCharsets.US_ASCII)),
+                               response("text/html; charset=utf-8", null, html(rnd, 200)));
+            case MULTIPART:
+                String boundary = "----WebKitFormBoundary" + Long.toHexString(rnd.nextLong());
+                byte[] file = new byte[256 << 10];
+                rnd.nextBytes(file);
+                file[0] = '%';
+                file[1] = 'P';
+                file[2] = 'D';
+                file[3] = 'F';
+                ByteArrayOutputStream mp = new ByteArrayOutputStream();
+                write(mp, "--" + boundary + "\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\nreport " +
+                          nr + "\r\n--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; " +
+                          "filename=\"report.pdf\"\r\nContent-Type: application/pdf\r\n\r\n");
+                mp.write(file, 0, file.length);
+                write(mp, "\r\n--" + boundary + "--\r\n");
+                return message(post("/upload", "multipart/form-data; boundary=" + boundary, mp.toByteArray()),
+                               response("application/json", null, json(rnd, 2)));
+            default:
+                byte[] page = html(rnd, 4000);
+                ByteArrayOutputStream gz = new ByteArrayOutputStream();
+                try(GZIPOutputStream os = new GZIPOutputStream(gz)) {
+                    os.write(page);
+                } catch (IOException ioe) {
+                    throw new IllegalStateException(ioe);
+                }
+                byte[] body = gz.toByteArray();
+                ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+                for(int ofs = 0; ofs < body.length; ofs += 8192) {
+                    int n = Math.min(8192, body.length - ofs);
+                    write(chunked, Integer.toHexString(n) + "\r\n");
+                    chunked.write(body, ofs, n);
+                    write(chunked, "\r\n");
+                }
+                write(chunked, "0\r\n\r\n");
+                return message(get("/news/" + nr),
+                               response("text/html; charset=utf-8",
+                                        "Content-Encoding: gzip\r\nTransfer-Encoding: chunked\r\n",
+                                        chunked.toByteArray()));
+        }
+    }
+
+    /**
+     * Build a mix of messages, in the proportions of a typical browsing session
+     * @param n number of messages
+     * @return the messages
+     */
+    public static HttpMessage[] mix(int n) {
+        HttpMessage[] msgs = new HttpMessage[n];
+        for(int i = 0; i < n; i++) {
+            Kind kind;
+            switch(i % 20) {
+                case 0:
+                    kind = Kind.LARGE_IMAGE;
+                    break;
+                case 1:
+                case 2:
+                    kind = Kind.FORM;
+                    break;
+                case 3:
+                    kind = Kind.MULTIPART;
+                    break;
+                case 4:
+                case 5:
+                case 6:
+                case 7:
+                    kind = Kind.GZIP_HTML;
+                    break;
+                default:
+                    kind = Kind.SMALL_JSON;
+                    break;
+            }
+            msgs[i] = message(kind, i);
+        }
+        return msgs;
+    }
+
+    /**
+     * @param msgs messages
+     * @return total number of request and response bytes
+     */
+    public static long size(HttpMessage[] msgs) {
+        long n = 0;
+        for(HttpMessage m : msgs) {
+            n += m.getRequest().length + m.getResponse().length;
+        }
+        return n;
+    }
+
+    /**
+     * @param request request bytes
+     * @param response response bytes
+     * @return message to the benchmark target
+     */
+    private static HttpMessage message(byte[] request, byte[] response) {
+        return new RawMessage(request, response, "https", "bench.example.com", 443);
+    }
+
+    /**
+     * @param path request target
+     * @return GET request with browser-like headers
+     */
+    private static byte[] get(String path) {
+        return ("GET " + path + " HTTP/1.1\r\nHost: bench.example.com\r\nUser-Agent: Mozilla/5.0 (X11; Linux x86_64)\r\n" +
+                "Accept: */*\r\nAccept-Encoding: gzip, deflate\r\nCookie: session=0123456789abcdef\r\n\r\n")
+            .getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @param path request target
+     * @param ctype content type of the body
+     * @param body request body
+     * @return POST request with browser-like headers
+     */
+    private static byte[] post(String path, String ctype, byte[] body) {
+        byte[] head = ("POST " + path + " HTTP/1.1\r\nHost: bench.example.com\r\nUser-Agent: Mozilla/5.0 (X11; Linux x86_64)\r\n" +
+                       "Content-Type: " + ctype + "\r\nContent-Length: " + body.length + "\r\n\r\n")
+            .getBytes(StandardCharsets.ISO_8859_1);
+        return concat(head, body);
+    }
+
+    /**
+     * @param ctype content type of the body
+     * @param extra extra header lines instead of Content-Length, <code>null</code> if none
+     * @param body response body
+     * @return 200 response with server-like headers
+     */
+    private static byte[] response(String ctype, String extra, byte[] body) {
+        byte[] head = ("HTTP/1.1 200 OK\r\nDate: Fri, 17 Dec 2021 13:29:03 GMT\r\nServer: nginx\r\n" +
+                       "Content-Type: " + ctype + "\r\n" + ((extra != null) ? extra : "Content-Length: " + body.length + "\r\n") +
+                       "Cache-Control: no-cache\r\n\r\n")
+            .getBytes(StandardCharsets.ISO_8859_1);
+        return concat(head, body);
+    }
+
+    /**
+     * @param rnd source of the content
+     * @param nitems number of items in the list
+     * @return JSON object with a list of items
+     */
+    private static byte[] json(Random rnd, int nitems) {
+        StringBuilder sb = new StringBuilder("{\"items\":[");
+        for(int i = 0; i < nitems; i++) {
+            sb.append((i == 0) ? "" : ",").append("{\"id\":").append(rnd.nextInt(1000000))
+              .append(",\"name\":\"item-").append(Long.toHexString(rnd.nextLong())).append("\",\"active\":")
+              .append(rnd.nextBoolean()).append('}');
+        }
+        return sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param rnd source of the content
+     * @param nparagraphs number of paragraphs
+     * @return HTML page
+     */
+    private static byte[] html(Random rnd, int nparagraphs) {
+        StringBuilder sb = new StringBuilder("<!DOCTYPE html>\n<html><head><title>bench</title></head><body>\n");
+        for(int i = 0; i < nparagraphs; i++) {
+            sb.append("<p class=\"c").append(rnd.nextInt(10)).append("\">Lorem ipsum dolor sit amet ")
+              .append(rnd.nextInt()).append("</p>\n");
+        }
+        return sb.append("</body></html>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param os stream to write to
+     * @param s ASCII text to write
+     */
+    private static void write(ByteArrayOutputStream os, String s) {
+        byte[] bar = s.getBytes(StandardCharsets.ISO_8859_1);
+        os.write(bar, 0, bar.length);
+    }
+
+    /**
+     * @param a first part
+     * @param b second part
+     * @return both parts, one after the other
+     */
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] res = new byte[a.length + b.length];
+        System.arraycopy(a, 0, res, 0, a.length);
+        System.arraycopy(b, 0, res, a.length, b.length);
+        return res;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody.bench;
+
+import burp.BurpExtender;
+import evilwan.nakedbody.HeadParser;
+import evilwan.nakedbody.HeadScanner;
+import evilwan.nakedbody.HttpHead;
+import evilwan.nakedbody.HttpMessage;
+import evilwan.nakedbody.PlainHeadParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Header analysis: splitting a message into head and body and finding the headers that
+ * matter for saving the body.
+ * <p>
+ * "scanner" measures the byte level scanner the extension uses, "plain" the line splitting
+ * parser and "burp" the (stubbed) Burp helpers, which shows the overhead of the helper objects
+ * on top of the parsing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class HeadBenchmark {
+    /**
+     * Kind of message to analyze
+     */
+    @Param({ "SMALL_JSON", "FORM", "GZIP_HTML" })
+    public Corpus.Kind kind;
+    /**
+     * Parser to use
+     */
+    @Param({ "scanner", "plain", "burp" })
+    public String parser;
+
+    /**
+     * Message to analyze
+     */
+    private HttpMessage _msg;
+    /**
+     * Parser under test
+     */
+    private HeadParser _parser;
+
+    /**
+     * Build the message and the parser
+     */
+    @Setup
+    public void setup() {
+        _msg = Corpus.message(kind, 1);
+        if("scanner".equals(parser)) {
+            _parser = new HeadScanner(new PlainHeadParser());
+        } else if("burp".equals(parser)) {
+            BurpExtender ext = new BurpExtender();
+            ext.registerExtenderCallbacks(Stubs.callbacks());
+            _parser = ext;
+        } else {
+            _parser = new PlainHeadParser();
+        }
+    }
+
+    /**
+     * Analyze request and response and look up the headers used when saving
+     * @param bh sink for the results
+     */
+    @Benchmark
+    public void analyze(Blackhole bh) {
+        HttpHead req = _parser.parseRequest(_msg);
+        bh.consume(req.getUrl());
+        bh.consume(req.header("content-type"));
+        HttpHead resp = _parser.parseResponse(_msg.getResponse());
+        bh.consume(resp.getBodyOffset());
+        bh.consume(resp.header("content-type"));
+        bh.consume(resp.header("transfer-encoding"));
+        bh.consume(resp.header("content-encoding"));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody.bench;
+
+import burp.BurpExtender;
+import burp.IHttpRequestResponse;
+import evilwan.nakedbody.SaveJob;
+import evilwan.nakedbody.SaveOptions;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end throughput of <code>saveBodies</code>: a selection of mixed messages is saved
+ * into a fresh directory per operation.
+ * <p>
+ * Besides operations per second, the "bytes" counter gives the saved bytes per second. Run
+ * with "<code>-prof gc</code>" for the allocation rate per operation. The output directory
+ * is taken from the system property "<code>nakedbody.bench.dir</code>" (default: the system
+ * temporary directory); point it to a tmpfs to measure the extension instead of the disk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class SaveBenchmark {
+    /**
+     * Number of messages per save operation
+     */
+    @Param({ "200" })
+    public int messages;
+    /**
+     * Output mode
+     */
+    @Param({ "FILES", "ZIP", "TAR" })
+    public SaveOptions.OutputMode mode;
+    /**
+     * Decode response bodies or not
+     */
+    @Param({ "false", "true" })
+    public boolean decode;
+
+    /**
+     * Extension under test
+     */
+    private BurpExtender _ext;
+    /**
+     * Messages to save, as selected in Burp
+     */
+    private IHttpRequestResponse[] _selection;
+    /**
+     * Output directory of the current operation
+     */
+    private Path _dir;
+
+    /**
+     * Number of body bytes saved, reported per second
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        /**
+         * Bytes written
+         */
+        public long bytes;
+        /**
+         * Files written
+         */
+        public long files;
+    }
+
+    /**
+     * Load the extension and build the messages
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        _selection = Stubs.requestResponses(Corpus.mix(messages));
+        _ext = new BurpExtender();
+        _ext.registerExtenderCallbacks(Stubs.callbacks());
+    }
+
+    /**
+     * Create a fresh output directory
+     * @throws IOException when the directory could not be created
+     */
+    @Setup(Level.Invocation)
+    public void createDirectory() throws IOException {
+        Path base = Paths.get(System.getProperty("nakedbody.bench.dir", System.getProperty("java.io.tmpdir")));
+        _dir = Files.createTempDirectory(base, "nakedbody-bench-");
+    }
+
+    /**
+     * Remove the output directory again
+     * @throws IOException when the directory could not be removed
+     */
+    @TearDown(Level.Invocation)
+    public void removeDirectory() throws IOException {
+        try(Stream<Path> paths = Files.walk(_dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Save the bodies of all selected messages and wait for the job to finish
+     * @param counters receives bytes and files written
+     * @throws InterruptedException when interrupted while waiting
+     */
+    @Benchmark
+    public void saveBodies(Counters counters) throws InterruptedException {
+        SaveOptions opts = new SaveOptions();
+        opts.setDirectory(_dir.toString());
+        opts.setOutputMode(mode);
+        opts.setDecode(decode);
+        SaveJob job = _ext.saveBodies(opts, _selection.clone());
+        job.awaitDone();
+        counters.bytes += job.getBytesWritten();
+        counters.files += job.getFilesWritten();
+    }
+}
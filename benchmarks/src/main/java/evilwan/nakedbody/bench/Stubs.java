@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody.bench;
+
+import burp.*;
+import evilwan.nakedbody.HttpHead;
+import evilwan.nakedbody.HttpMessage;
+import evilwan.nakedbody.PlainHeadParser;
+import evilwan.nakedbody.RawMessage;
+
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Stand-ins for the Burp objects the extension talks to, built with dynamic proxies.
+ * <p>
+ * Only the methods the extension calls are implemented, every other method returns
+ * <code>null</code>, <code>false</code> or 0. The helpers parse messages with
+ * {@link PlainHeadParser}, which builds the same header lists Burp does.
+ */
+public class Stubs {
+    /**
+     * Parser behind the stubbed helpers
+     */
+    private final static PlainHeadParser PARSER = new PlainHeadParser();
+
+    /**
+     * Not to be instantiated
+     */
+    private Stubs() {
+    }
+
+    /**
+     * Build callbacks for {@link IBurpExtender#registerExtenderCallbacks(IBurpExtenderCallbacks)}
+     * @return callbacks that hand out stubbed helpers and discard all output
+     */
+    public static IBurpExtenderCallbacks callbacks() {
+        final IExtensionHelpers helpers = helpers();
+        return stub(IBurpExtenderCallbacks.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                switch(m.getName()) {
+                    case "getHelpers":
+                        return helpers;
+                    case "getStdout":
+                    case "getStderr":
+                        return OutputStream.nullOutputStream();
+                    default:
+                        return defaultValue(m);
+                }
+            }
+        });
+    }
+
+    /**
+     * Build a context menu invocation on the proxy history
+     * @param msgs selected messages
+     * @return the invocation
+     */
+    public static IContextMenuInvocation proxyHistory(HttpMessage[] msgs) {
+        final IHttpRequestResponse[] items = requestResponses(msgs);
+        return stub(IContextMenuInvocation.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                switch(m.getName()) {
+                    case "getInvocationContext":
+                        return IContextMenuInvocation.CONTEXT_PROXY_HISTORY;
+                    case "getSelectedMessages":
+                        return items.clone();
+                    default:
+                        return defaultValue(m);
+                }
+            }
+        });
+    }
+
+    /**
+     * Wrap messages as Burp messages
+     * @param msgs messages to wrap
+     * @return Burp views on the messages
+     */
+    public static IHttpRequestResponse[] requestResponses(HttpMessage[] msgs) {
+        IHttpRequestResponse[] items = new IHttpRequestResponse[msgs.length];
+        for(int i = 0; i < msgs.length; i++) {
+            items[i] = requestResponse(msgs[i]);
+        }
+        return items;
+    }
+
+    /**
+     * Wrap a message as a Burp message
+     * @param msg message to wrap
+     * @return Burp view on the message
+     */
+    public static IHttpRequestResponse requestResponse(final HttpMessage msg) {
+        final IHttpService service = service(msg.getHost(), msg.getPort(), msg.getProtocol());
+        return stub(IHttpRequestResponse.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                switch(m.getName()) {
+                    case "getRequest":
+                        return msg.getRequest();
+                    case "getResponse":
+                        return msg.getResponse();
+                    case "getHttpService":
+                        return service;
+                    default:
+                        return defaultValue(m);
+                }
+            }
+        });
+    }
+
+    /**
+     * Build helpers that analyze messages the way Burp does
+     * @return the helpers
+     */
+    public static IExtensionHelpers helpers() {
+        return stub(IExtensionHelpers.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                switch(m.getName()) {
+                    case "analyzeRequest":
+                        if(args.length == 2) {
+                            IHttpService svc = (IHttpService) args[0];
+                            return requestInfo(PARSER.parseRequest(new RawMessage((byte[]) args[1], null,
+                                                                                   svc.getProtocol(), svc.getHost(),
+                                                                                   svc.getPort())));
+                        }
+                        if(args[0] instanceof byte[]) {
+                            return requestInfo(PARSER.parseRequest(new RawMessage((byte[]) args[0], null,
+                                                                                  null, null, -1)));
+                        }
+                        return defaultValue(m);
+                    case "analyzeResponse":
+                        return responseInfo(PARSER.parseResponse((byte[]) args[0]));
+                    case "buildHttpService":
+                        if(args.length == 3) {
+                            return service((String) args[0], (Integer) args[1],
+                                           (args[2] instanceof Boolean) ? (((Boolean) args[2]) ? "https" : "http")
+                                                                        : (String) args[2]);
+                        }
+                        return defaultValue(m);
+                    default:
+                        return defaultValue(m);
+                }
+            }
+        });
+    }
+
+    /**
+     * Build a target
+     * @param host host name
+     * @param port port
+     * @param protocol protocol
+     * @return the target
+     */
+    public static IHttpService service(final String host, final int port, final String protocol) {
+        return stub(IHttpService.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                switch(m.getName()) {
+                    case "getHost":
+                        return host;
+                    case "getPort":
+                        return port;
+                    case "getProtocol":
+                        return protocol;
+                    default:
+                        return defaultValue(m);
+                }
+            }
+        });
+    }
+
+    /**
+     * Burp view on a parsed request head
+     * @param head parsed head
+     * @return request info
+     */
+    private static IRequestInfo requestInfo(final HttpHead head) {
+        return stub(IRequestInfo.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) throws MalformedURLException {
+                switch(m.getName()) {
+                    case "getBodyOffset":
+                        return head.getBodyOffset();
+                    case "getHeaders":
+                        return head.getHeaders();
+                    case "getMethod":
+                        return head.getMethod();
+                    case "getUrl":
+                        return (head.getUrl() != null) ? new URL(head.getUrl()) : null;
+                    case "getContentType":
+                        return head.isUrlEncoded() ? IRequestInfo.CONTENT_TYPE_URL_ENCODED : IRequestInfo.CONTENT_TYPE_NONE;
+                    case "getParameters":
+                        return Collections.emptyList();
+                    default:
+                        return defaultValue(m);
+                }
+            }
+        });
+    }
+
+    /**
+     * Burp view on a parsed response head
+     * @param head parsed head
+     * @return response info
+     */
+    private static IResponseInfo responseInfo(final HttpHead head) {
+        return stub(IResponseInfo.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                switch(m.getName()) {
+                    case "getBodyOffset":
+                        return head.getBodyOffset();
+                    case "getHeaders":
+                        return head.getHeaders();
+                    case "getStatusCode":
+                        return (short) head.getStatusCode();
+                    case "getCookies":
+                        return new ArrayList<ICookie>();
+                    default:
+                        return defaultValue(m);
+                }
+            }
+        });
+    }
+
+    /**
+     * Create proxy for an interface
+     * @param type the interface
+     * @param handler implementation of its methods
+     * @param <T> type of the interface
+     * @return the proxy
+     */
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    /**
+     * Value returned by methods that are not stubbed
+     * @param m the method
+     * @return <code>null</code>, <code>false</code> or zero, depending on the return type
+     */
+    private static Object defaultValue(Method m) {
+        Class<?> t = m.getReturnType();
+        if(t == boolean.class) {
+            return Boolean.FALSE;
+        } else if(t == byte.class) {
+            return (byte) 0;
+        } else if(t == short.class) {
+            return (short) 0;
+        } else if(t == int.class) {
+            return 0;
+        } else if(t == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
@@ -33,15 +33,19 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import evilwan.nakedbody.*;
 
 /**
  * Burp extension to save request and/or response bodies to separate files.
  */
-public class BurpExtender implements IBurpExtender, IContextMenuFactory, BodySaver, StdioEncapsulation {
+public class BurpExtender implements IBurpExtender, IContextMenuFactory, IHttpListener, IExtensionStateListener, ITab,
+                                     BodySaver, StdioEncapsulation, HeadParser {
     /**
      * Start of title of main Burpsuite frame
      * <p>
@@ -63,52 +67,45 @@ public class BurpExtender implements IBurpExtender, IContextMenuFactory, BodySav
      */
     private final static String SAVE_DIALOG_TITLE = "Save naked body";
     /**
-     * Common mime-types and their corresponding file extension
-     * <p>
-     * Note that the mime type strings below are patterns to be searched for
-     * in the actual content-type headers. E.g. "/xml" covers several variations
-     * for XML that all include this substring.
-     */
-    private final static Map<String, String> MIME2TYPE =
-        Map.ofEntries(
-                      new AbstractMap.SimpleEntry<String, String>("text/plain", ".txt"),
-                      new AbstractMap.SimpleEntry<String, String>("text/html", ".html"),
-                      new AbstractMap.SimpleEntry<String, String>("text/css", ".css"),
-                      new AbstractMap.SimpleEntry<String, String>("javascript", ".js"),
-                      new AbstractMap.SimpleEntry<String, String>("woff2", ".woff2"),
-                      new AbstractMap.SimpleEntry<String, String>("font/ttf", ".ttf"),
-                      new AbstractMap.SimpleEntry<String, String>("image/gif", ".gif"),
-                      new AbstractMap.SimpleEntry<String, String>("image/png", ".png"),
-                      new AbstractMap.SimpleEntry<String, String>("image/jpeg", ".jpg"),
-                      new AbstractMap.SimpleEntry<String, String>("image/x-icon", ".ico"),
-                      new AbstractMap.SimpleEntry<String, String>("image/svg", ".svg"),
-                      new AbstractMap.SimpleEntry<String, String>("application/zip", ".zip"),
-                      new AbstractMap.SimpleEntry<String, String>("font-woff", ".woff"),
-                      new AbstractMap.SimpleEntry<String, String>("application/pdf", ".pdf"),
-                      new AbstractMap.SimpleEntry<String, String>("image/webp", ".webp"),
-                      new AbstractMap.SimpleEntry<String, String>("application/x-pem-file", ".pem"),
-                      new AbstractMap.SimpleEntry<String, String>("video/mp4", ".mp4"),
-                      new AbstractMap.SimpleEntry<String, String>("video/mpeg", ".mpg"),
-                      new AbstractMap.SimpleEntry<String, String>("video/webm", ".webm"),
-                      new AbstractMap.SimpleEntry<String, String>("video/x-msvideo", ".avi"),
-                      new AbstractMap.SimpleEntry<String, String>("image/bmp", ".bmp"),
-                      new AbstractMap.SimpleEntry<String, String>("application/x-bzip", ".bz"),
-                      new AbstractMap.SimpleEntry<String, String>("application/x-bzip2", ".bz2"),
-                      new AbstractMap.SimpleEntry<String, String>("text/csv", ".csv"),
-                      new AbstractMap.SimpleEntry<String, String>("application/epub+zip", ".epub"),
-                      new AbstractMap.SimpleEntry<String, String>("application/gzip", ".gz"),
-                      new AbstractMap.SimpleEntry<String, String>("audio/mpeg", ".mp3"),
-                      new AbstractMap.SimpleEntry<String, String>("/xml", ".xml"),
-                      new AbstractMap.SimpleEntry<String, String>("json", ".json")
-                      );
+     * Label for custom menu item to start auto-capture
+     */
+    private final static String CAPTURE_START_LABEL = "Naked Body auto-capture...";
+    /**
+     * Label for custom menu item to stop auto-capture
+     */
+    private final static String CAPTURE_STOP_LABEL = "Stop Naked Body auto-capture";
+    /**
+     * Title for auto-capture dialog
+     */
+    private final static String CAPTURE_DIALOG_TITLE = "Auto-capture naked bodies";
+    /**
+     * Maximum number of captured messages waiting to be written
+     */
+    private final static int CAPTURE_QUEUE_ITEMS = 1000;
+    /**
+     * Maximum number of bytes in captured messages waiting to be written
+     */
+    private final static long CAPTURE_QUEUE_BYTES = 64L * 1024 * 1024;
+    /**
+     * Number of worker threads for auto-capture
+     */
+    private final static int CAPTURE_THREADS = 2;
+    /**
+     * Number of sequence numbers auto-capture reserves at once
+     */
+    private final static int CAPTURE_SEQUENCE_BLOCK = 256;
+    /**
+     * Selection used when the context menu was invoked without selected messages
+     */
+    private final static IHttpRequestResponse[] NO_SELECTION = new IHttpRequestResponse[0];
     /**
      * Prefix to use for output files.
      */
     private final static String OUTFILE_PREFIX = (new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss-SSS")).format(new Date());;
     /**
-     * Count to use for output files.
+     * Hands out the sequence numbers of the output files to all jobs
      */
-    private static int _outcount = 0;
+    private final SequenceAllocator _sequences = new SequenceAllocator();
     /**
      * Main set of Burp callback methods
      */
@@ -118,13 +115,17 @@ public class BurpExtender implements IBurpExtender, IContextMenuFactory, BodySav
      */
     private IExtensionHelpers _helpers;
     /**
-     * Save body dialog
+     * Saves the bodies of the messages
      */
-    private BodySaveDialog _save_dialog;
+    private BodyExtractor _extractor;
+    /**
+     * Contents of the extension tab
+     */
+    private MetricsPanel _metrics_panel;
     /**
-     * List of selected items in proxy history when right click was done
+     * Save body dialog
      */
-    private IHttpRequestResponse[] _them_proxy_lines = null;
+    private BodySaveDialog _save_dialog;
     /**
      * IO stream do dump regular output on
      */
@@ -133,7 +134,15 @@ public class BurpExtender implements IBurpExtender, IContextMenuFactory, BodySav
      * IO stream do dump error messages on
      */
     private PrintStream _stderr = null;
-    
+    /**
+     * Running auto-capture, <code>null</code> if not capturing
+     */
+    private volatile LiveCapture<HttpMessage> _capture = null;
+    /**
+     * Job that writes the messages of the running auto-capture
+     */
+    private SaveJob _capture_job = null;
+
     /**
      * Main entry point for Burp extension.
      * <p>
@@ -153,8 +162,13 @@ public class BurpExtender implements IBurpExtender, IContextMenuFactory, BodySav
         _helpers = _callbacks.getHelpers();
         _callbacks.setExtensionName(EXTENSION_NAME);
         _callbacks.registerContextMenuFactory(this);
+        _callbacks.registerHttpListener(this);
+        _callbacks.registerExtensionStateListener(this);
         _stdout = new PrintStream(_callbacks.getStdout(), true);
         _stderr = new PrintStream(_callbacks.getStderr(), true);
+        _extractor = new BodyExtractor(new HeadScanner(this), this);
+        _metrics_panel = new MetricsPanel();
+        _callbacks.addSuiteTab(this);
         //_stdout.println("~~~~~ Consider extension loaded and initialized...");
     }
 
@@ -162,31 +176,64 @@ public class BurpExtender implements IBurpExtender, IContextMenuFactory, BodySav
      * Called from various places in Burp to query the extension if one or more additional
      * context menu items need to be added to the list.
      * <p>This particular instance will only return a new <code>JMenuItem</code> if called for the
-     * list of intercepted messages by the proxy</p>
+     * list of intercepted messages by the proxy or for the site map</p>
      * @param iContextMenuInvocation An object that implements the IMessageEditorTabFactory interface, which the extension can
      *                               query to obtain details of the context menu invocation.
      * @return A list of custom menu items (which may include sub-menus, checkbox menu items, etc.) that should be displayed.
      */
     @Override
     public List<JMenuItem> createMenuItems(IContextMenuInvocation iContextMenuInvocation) {
-        if(iContextMenuInvocation.getInvocationContext() == IContextMenuInvocation.CONTEXT_PROXY_HISTORY) {
+        byte context = iContextMenuInvocation.getInvocationContext();
+        if((context == IContextMenuInvocation.CONTEXT_PROXY_HISTORY) ||
+           (context == IContextMenuInvocation.CONTEXT_TARGET_SITE_MAP_TREE) ||
+           (context == IContextMenuInvocation.CONTEXT_TARGET_SITE_MAP_TABLE)) {
             //
-            // Save selected proxy items
+            // Take a private copy of the selected proxy or site map items: the save dialog of
+            // this right click gets its own selection, whatever happens with later right clicks.
+            // The copy is handed over to the job that the dialog starts, after which the dialog
+            // no longer refers to it: the job clears its entries as it goes.
             //
-            _them_proxy_lines = iContextMenuInvocation.getSelectedMessages();
-            //_stdout.println("Number of selected items:" + _them_proxy_lines.length);
+            IHttpRequestResponse[] selected = iContextMenuInvocation.getSelectedMessages();
+            final AtomicReference<IHttpRequestResponse[]> selection =
+                new AtomicReference<IHttpRequestResponse[]>((selected != null) ? selected.clone() : NO_SELECTION);
+            //_stdout.println("Number of selected items:" + selection.length);
             //
             // Return one new menu item that will call back into this extension
             //
-            BodySaver self = this;
+            final BurpExtender self = this;
+            final BodySaver saver = new BodySaver() {
+                @Override
+                public SaveJob saveBodies(SaveOptions opts) {
+                    IHttpRequestResponse[] items = selection.getAndSet(null);
+                    return self.saveBodies(opts, (items != null) ? items : NO_SELECTION);
+                }
+
+                @Override
+                public void startCapture(SaveOptions opts) {
+                    self.startCapture(opts);
+                }
+            };
             ArrayList<JMenuItem> lst = new ArrayList<JMenuItem>();
             lst.add(new JMenuItem(new AbstractAction(MENUITEM_LABEL) {
                 public void actionPerformed(ActionEvent e) {
                     // Button pressed logic goes here
                     //_stdout.println("~~~~~ Selected my menuitem...");
-                    _save_dialog = new BodySaveDialog(findTopFrame(), SAVE_DIALOG_TITLE, self, (StdioEncapsulation) self);
+                    _save_dialog = new BodySaveDialog(findTopFrame(), SAVE_DIALOG_TITLE, saver, self);
                 }
             }));
+            if(_capture == null) {
+                lst.add(new JMenuItem(new AbstractAction(CAPTURE_START_LABEL) {
+                    public void actionPerformed(ActionEvent e) {
+                        _save_dialog = new BodySaveDialog(findTopFrame(), CAPTURE_DIALOG_TITLE, self, self, true);
+                    }
+                }));
+            } else {
+                lst.add(new JMenuItem(new AbstractAction(CAPTURE_STOP_LABEL) {
+                    public void actionPerformed(ActionEvent e) {
+                        stopCapture();
+                    }
+                }));
+            }
             return lst;
         } else {
             return null;
@@ -195,136 +242,238 @@ public class BurpExtender implements IBurpExtender, IContextMenuFactory, BodySav
 
 
     /**
-     * Save selected message bodies
-     * @param directory location where to save the bodies
-     * @param save_req <code>true</code> if request bodies have to be saved
-     * @param save_resp <code>true</code> if response bodies have to be saved
+     * Start saving message bodies in the background, without selected messages
+     * <p>
+     * Only useful for saving the whole proxy history or site map: a save of the selected
+     * messages goes through the saver handed to the dialog of that right click.
+     * @param opts settings for this save operation
+     * @return handle for the running save operation
      */
-    public void saveBodies(String directory, boolean save_req, boolean save_resp) {
+    public SaveJob saveBodies(SaveOptions opts) {
+        return saveBodies(opts, NO_SELECTION);
+    }
+
+    /**
+     * Start saving message bodies in the background
+     * <p>
+     * Besides the selected messages, the whole proxy history or site map can be saved. The job
+     * clears each entry of its array of messages as soon as it is handed to a worker, and never
+     * has more than a few items per worker in flight, so only that window of messages is held on
+     * the heap, however long the history is. The selection that is passed in becomes that array:
+     * the caller hands it over and must not use it again.
+     * </p>
+     * <p>
+     * Any number of jobs can run at the same time: each one reserves its own range of sequence
+     * numbers, so their files never overwrite each other. A job that resumes an earlier export
+     * reserves nothing here: it continues the numbering of that export, see
+     * {@link BodyExtractor#openContext(SaveJob, SaveOptions, String, SequenceAllocator, int)}.
+     * </p>
+     * @param opts settings for this save operation
+     * @param selection messages selected when the context menu was invoked, cleared by the job
+     * @return handle for the running save operation
+     */
+    public SaveJob saveBodies(final SaveOptions opts, IHttpRequestResponse[] selection) {
+        final IHttpRequestResponse[] items;
+        switch(opts.getSelection()) {
+            case PROXY_HISTORY:
+                items = _callbacks.getProxyHistory();
+                break;
+            case SITE_MAP:
+                items = _callbacks.getSiteMap(null);
+                break;
+            default:
+                items = selection;
+                break;
+        }
         //
-        // Loop over all selected items in the proxy request/response list
+        // Reserve the sequence numbers for all items up front: the workers can then
+        // handle the items in any order and still produce the same file names
         //
-        for(IHttpRequestResponse reqresp : _them_proxy_lines) {
-            _outcount += 1;
-            if(save_req) {
-                //_stdout.println("---- saving request for item: " + i);
-                //
-                // Get request info object
-                //
-                byte[] bar = reqresp.getRequest();
-                IRequestInfo info = _helpers.analyzeRequest(bar);
-                int body_ofs = info.getBodyOffset();
-               if (body_ofs < bar.length) {
-                   //
-                   // We need to save the request: provide some halfway useful name for
-                   // the output file (if possible)
-                   //
-                   String filnamreq =  String.format("%s/%s-req-%06d%s",
-                                                     directory, OUTFILE_PREFIX, _outcount,
-                                                     guessFileType(info.getHeaders(), bar, body_ofs));
-                   if(info.getContentType() == IRequestInfo.CONTENT_TYPE_URL_ENCODED) {
-                       byte[] tmpbar = new byte[bar.length - body_ofs];
-                       System.arraycopy(bar, body_ofs, tmpbar, 0, tmpbar.length);
-                       byte[] plain = _helpers.urlDecode(tmpbar);
-                       dumpFile(filnamreq, plain, 0, plain.length);
-                   } else {
-                       dumpFile(filnamreq, bar, body_ofs, bar.length - body_ofs);
-                   }
-               }
-            }
-            if(save_resp) {
+        final SequenceAllocator.Range range = _sequences.reserve(opts.isResume() ? 0 : items.length);
+        SaveJob job = new SaveJob(items.length, SaveJob.defaultThreads(), this);
+        job.start(new SaveJob.Feeder() {
+            @Override
+            public void feed(final SaveJob job) throws InterruptedException, IOException {
+                final ExportContext ctx = _extractor.openContext(job, opts, OUTFILE_PREFIX, _sequences,
+                                                                  range.getFirst());
                 //
-                // We need to save the response
-                //_stdout.println("---- saving response for item: " + i);
+                // Loop over all selected items in the proxy request/response list
                 //
-                // Get response info object
-                //
-                byte[] bar = reqresp.getResponse();
-                IResponseInfo info = _helpers.analyzeResponse(bar);
-                //
-                // Try to provide semi-intelligent guess as to which filetype to use
-                //
-                // Note that Burp does not give the actual content-type header (if present)
-                //
-                // The inferred mimetype is not of much use, unfortunately (that is: not more
-                // than the stated mimetype)
-                //
-                //_stdout.println("---- response: mimetype=" + mimetype + ", filename=" + filnamresp);
-                int body_ofs = info.getBodyOffset();
-                if (body_ofs < bar.length) {
-                    String filnamresp =  String.format("%s/%s-resp-%06d%s",
-                                                     directory, OUTFILE_PREFIX, _outcount,
-                                                     guessFileType(info.getHeaders(), bar, body_ofs));
-                    dumpFile(filnamresp, bar, body_ofs, bar.length - body_ofs);
+                for(int i = 0; i < items.length; i++) {
+                    final IHttpRequestResponse item = items[i];
+                    final int seq = opts.isResume() ? 0 : range.get(i);
+                    items[i] = null;
+                    boolean submitted = job.submit(new SaveJob.ItemTask() {
+                        @Override
+                        public void run() throws IOException {
+                            HttpMessage msg = new BurpMessage(item);
+                            if(opts.isInScopeOnly() && !isInScope(msg)) {
+                                job.addSkipped();
+                                return;
+                            }
+                            _extractor.process(ctx, msg, seq);
+                        }
+                    });
+                    if(!submitted) {
+                        break;
+                    }
                 }
             }
+        });
+        _metrics_panel.addJob(job);
+        return job;
+    }
+
+    /**
+     * Check whether a message falls within the target scope
+     * @param msg the message
+     * @return <code>true</code> if the URL of the request is in scope
+     */
+    private boolean isInScope(HttpMessage msg) {
+        String url = HeadScanner.requestUrl(msg);
+        if(url == null) {
+            return false;
+        }
+        try {
+            return _callbacks.isInScope(new URL(url));
+        } catch (MalformedURLException mue) {
+            return false;
         }
     }
+
     /**
-     * Analyze set of request/response headers and try to determine the
-     * nature of the data being sent/received.
-     *
-     * @param hdrs set of request/response headers as retrieved from Burp
-     * @return file extension that best matches the available information from the headers
+     * Start saving messages as they pass through the proxy
+     * @param opts settings for the capture
      */
-    private String guessFileType(List<String> hdrs, byte[] body, int ofs) {
-        //say("guessFileType() -- entered.");
-        String out = null;
-        //
-        // Plan A: try analysis of actual body bytes
-        //
-        if((body.length > ofs + 4) &&
-           (body[ofs] == 0x00) &&
-           (body[ofs + 1] == (byte) 'a') &&
-           (body[ofs + 2] == (byte) 's') &&
-           (body[ofs + 3] == (byte) 'm')) {
-            //say("guessFileType() -- wasm detected.");
-            return ".wasm";
+    public void startCapture(final SaveOptions opts) {
+        if(_capture != null) {
+            return;
         }
         //
-        // Plan B: no type found based on body content, try mime type header
+        // A resumed capture continues the numbering of the earlier export instead
         //
-        for(String line: hdrs) {
-            String hdr = line.trim().toLowerCase();
-            if(hdr.startsWith("content-type")) {
-                //
-                // Gotcha: provide reasonable set of checks
-                //
-                //say("guessFileType() -- content-type header: " + hdr);
-                for(Map.Entry<String,String> e: MIME2TYPE.entrySet()) {
-                    if(hdr.contains(e.getKey())) {
-                        //say("guessFileType() -- returning: " + e.getValue());
-                        return e.getValue();
+        final SequenceAllocator.Sequence sequence =
+            opts.isResume() ? null : _sequences.sequence(CAPTURE_SEQUENCE_BLOCK);
+        final LiveCapture<HttpMessage> capture = new LiveCapture<HttpMessage>(
+            CAPTURE_QUEUE_ITEMS, CAPTURE_QUEUE_BYTES, new LiveCapture.Writer<HttpMessage>() {
+                /**
+                 * Output for the captured bodies, opened when the first message arrives
+                 */
+                private ExportContext _ctx = null;
+
+                @Override
+                public long size(HttpMessage item) {
+                    byte[] resp = item.getResponse();
+                    return item.getRequest().length + ((resp != null) ? resp.length : 0);
+                }
+
+                @Override
+                public void write(SaveJob job, HttpMessage item) throws IOException {
+                    ExportContext ctx;
+                    synchronized(this) {
+                        if(_ctx == null) {
+                            _ctx = _extractor.openContext(job, opts, OUTFILE_PREFIX, _sequences,
+                                                         (sequence != null) ? sequence.getFirst() : 0);
+                        }
+                        ctx = _ctx;
                     }
+                    _extractor.process(ctx, item, (sequence != null) ? sequence.next() : 0);
                 }
-            }
+            });
+        _capture_job = new SaveJob(-1, CAPTURE_THREADS, this);
+        _capture_job.start(capture);
+        _metrics_panel.addJob(_capture_job);
+        _capture = capture;
+        say("auto-capture started, saving into " + opts.getDirectory());
+    }
+
+    /**
+     * Stop the running auto-capture.
+     * <p>
+     * Messages that are still queued are written in the background.
+     */
+    private void stopCapture() {
+        LiveCapture<HttpMessage> capture = _capture;
+        if(capture == null) {
+            return;
         }
-        //
-        // Last chance: provide default ".dat" extension
-        //
-        //say("guessFileType() -- nothing found. returning: .dat");
-        return ".dat";
+        _capture = null;
+        capture.stop();
+        say("auto-capture stopped: " + capture.getOffered() + " messages captured, " +
+            capture.getDropped() + " dropped, " + _capture_job.getFilesWritten() + " files written so far");
     }
 
     /**
-     * Dump byte array into file with specified name
-     * @param filnam is the name of the output file to create
-     * @param bar contains the bytes to dump into the file
-     * @param ofs start dumping bytes from this zero based offset
-     * @param len is the number of bytes to dump
+     * @return caption of the extension tab
      */
-    private void dumpFile(String filnam, byte[] bar, int ofs, int len) {
-        try {
-            FileOutputStream fos = new FileOutputStream(filnam);
-                fos.write(bar, ofs, len);
-            fos.close();
-        } catch (IOException ioe) {
-            //
-            // Ignore for now
-            //
-            _stderr.println("~~~~~~ caught: " + ioe);
-            ioe.printStackTrace();
+    @Override
+    public String getTabCaption() {
+        return EXTENSION_NAME;
+    }
+
+    /**
+     * @return contents of the extension tab
+     */
+    @Override
+    public Component getUiComponent() {
+        return _metrics_panel;
+    }
+
+    /**
+     * Called by Burp for every HTTP message of any Burp tool.
+     * <p>
+     * While auto-capture runs, completed proxy messages are queued for saving. This runs on
+     * the proxy thread: a snapshot of the message is queued and nothing else.
+     * @param toolFlag indicates the Burp tool that issued the request
+     * @param messageIsRequest <code>true</code> for a request, <code>false</code> for a response
+     * @param messageInfo details of the request / response
+     */
+    @Override
+    public void processHttpMessage(int toolFlag, boolean messageIsRequest, IHttpRequestResponse messageInfo) {
+        LiveCapture<HttpMessage> capture = _capture;
+        if((capture != null) && !messageIsRequest && (toolFlag == IBurpExtenderCallbacks.TOOL_PROXY)) {
+            IHttpService service = messageInfo.getHttpService();
+            capture.offer(new RawMessage(messageInfo.getRequest(), messageInfo.getResponse(),
+                                         service.getProtocol(), service.getHost(), service.getPort()));
+        }
+    }
+
+    /**
+     * Called by Burp when the extension is unloaded: stop the auto-capture, if any, and the
+     * refreshing of the extension tab
+     */
+    @Override
+    public void extensionUnloaded() {
+        stopCapture();
+        _metrics_panel.dispose();
+    }
+
+    /**
+     * Parse request head with the Burp helpers
+     * @param msg message holding the request
+     * @return request head, including method and URL
+     */
+    @Override
+    public HttpHead parseRequest(HttpMessage msg) {
+        byte[] bar = msg.getRequest();
+        if(msg.getHost() == null) {
+            IRequestInfo info = _helpers.analyzeRequest(bar);
+            return new HttpHead(info.getBodyOffset(), info.getHeaders(), info.getMethod(), null, 0);
         }
+        IHttpService service = _helpers.buildHttpService(msg.getHost(), msg.getPort(), msg.getProtocol());
+        IRequestInfo info = _helpers.analyzeRequest(service, bar);
+        return new HttpHead(info.getBodyOffset(), info.getHeaders(), info.getMethod(), info.getUrl().toString(), 0);
+    }
+
+    /**
+     * Parse response head with the Burp helpers
+     * @param response response bytes
+     * @return response head, including status code
+     */
+    @Override
+    public HttpHead parseResponse(byte[] response) {
+        IResponseInfo info = _helpers.analyzeResponse(response);
+        return new HttpHead(info.getBodyOffset(), info.getHeaders(), null, null, info.getStatusCode());
     }
 
     /**
@@ -369,4 +518,50 @@ public class BurpExtender implements IBurpExtender, IContextMenuFactory, BodySav
     private void say(String s) {
         _stdout.println("BurpExtender -- " + s);
     }
+
+    /**
+     * Message from one of the Burp tools, as seen by the body extractor.
+     */
+    private static class BurpMessage implements HttpMessage {
+        /**
+         * The Burp message
+         */
+        private final IHttpRequestResponse _reqresp;
+
+        /**
+         * Wrap Burp message
+         * @param reqresp the Burp message
+         */
+        BurpMessage(IHttpRequestResponse reqresp) {
+            _reqresp = reqresp;
+        }
+
+        @Override
+        public byte[] getRequest() {
+            return _reqresp.getRequest();
+        }
+
+        @Override
+        public byte[] getResponse() {
+            return _reqresp.getResponse();
+        }
+
+        @Override
+        public String getProtocol() {
+            IHttpService service = _reqresp.getHttpService();
+            return (service != null) ? service.getProtocol() : null;
+        }
+
+        @Override
+        public String getHost() {
+            IHttpService service = _reqresp.getHttpService();
+            return (service != null) ? service.getHost() : null;
+        }
+
+        @Override
+        public int getPort() {
+            IHttpService service = _reqresp.getHttpService();
+            return (service != null) ? service.getPort() : -1;
+        }
+    }
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.util.Arrays;
+
+/**
+ * Incremental base64 decoder.
+ * <p>
+ * Text is fed in chunks of any size, as a streaming parser delivers it, and decoded right away,
+ * so the encoded text never has to be held in memory as a whole. Both the standard and the
+ * URL safe alphabet are accepted; line breaks, other white space and padding are skipped.
+ * Text that is not base64 encoded can be collected in the same buffer with {@link #write(int)}.
+ */
+class Base64Decoder implements JsonReader.ByteCollector {
+    /**
+     * Value of every base64 character, -1 for characters to skip
+     */
+    private final static byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for(int i = 0; i < alphabet.length(); i++) {
+            VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+        VALUES['-'] = 62;
+        VALUES['_'] = 63;
+    }
+
+    /**
+     * Decoded bytes
+     */
+    private byte[] _buf;
+    /**
+     * Number of decoded bytes
+     */
+    private int _len = 0;
+    /**
+     * Bits of the characters that did not make up a full byte yet
+     */
+    private int _bits = 0;
+    /**
+     * Number of characters in {@link #_bits}
+     */
+    private int _nchars = 0;
+
+    /**
+     * Create new decoder
+     * @param capacity expected number of decoded bytes
+     */
+    Base64Decoder(int capacity) {
+        _buf = new byte[Math.max(16, capacity)];
+    }
+
+    /**
+     * Decode one character
+     * @param c character to decode
+     */
+    void feed(char c) {
+        int v = (c < 128) ? VALUES[c] : -1;
+        if(v < 0) {
+            return;
+        }
+        _bits = (_bits << 6) | v;
+        _nchars += 1;
+        if(_nchars == 4) {
+            ensure(3);
+            _buf[_len++] = (byte) (_bits >> 16);
+            _buf[_len++] = (byte) (_bits >> 8);
+            _buf[_len++] = (byte) _bits;
+            _bits = 0;
+            _nchars = 0;
+        }
+    }
+
+    @Override
+    public void base64(char c) {
+        feed(c);
+    }
+
+    @Override
+    public void write(int b) {
+        ensure(1);
+        _buf[_len++] = (byte) b;
+    }
+
+    /**
+     * Decode a chunk of characters
+     * @param cbuf contains the characters
+     * @param ofs zero based offset of the first character
+     * @param len number of characters
+     */
+    void feed(char[] cbuf, int ofs, int len) {
+        ensure((len / 4 + 1) * 3);
+        for(int i = ofs; i < ofs + len; i++) {
+            feed(cbuf[i]);
+        }
+    }
+
+    /**
+     * Base64 decode the bytes collected with {@link #write(int)}, in place
+     */
+    void decodeCollected() {
+        int n = _len;
+        _len = 0;
+        _bits = 0;
+        _nchars = 0;
+        //
+        // Output never overtakes input: 4 characters in, at most 3 bytes out
+        //
+        for(int i = 0; i < n; i++) {
+            feed((char) (_buf[i] & 0xff));
+        }
+    }
+
+    /**
+     * Finish decoding
+     * @return all decoded bytes
+     */
+    byte[] toByteArray() {
+        //
+        // Trailing characters of an unpadded final quantum
+        //
+        if(_nchars == 2) {
+            ensure(1);
+            _buf[_len++] = (byte) (_bits >> 4);
+        } else if(_nchars == 3) {
+            ensure(2);
+            _buf[_len++] = (byte) (_bits >> 10);
+            _buf[_len++] = (byte) (_bits >> 2);
+        }
+        byte[] res = Arrays.copyOf(_buf, _len);
+        reset();
+        return res;
+    }
+
+    /**
+     * @return buffer holding the bytes decoded so far, see {@link #size()}
+     */
+    byte[] buffer() {
+        return _buf;
+    }
+
+    /**
+     * @return number of bytes decoded so far
+     */
+    int size() {
+        return _len;
+    }
+
+    /**
+     * Forget everything decoded so far
+     */
+    void reset() {
+        _len = 0;
+        _bits = 0;
+        _nchars = 0;
+    }
+
+    /**
+     * Make room for more decoded bytes
+     * @param n number of bytes that will be added
+     */
+    private void ensure(int n) {
+        if(_len + n > _buf.length) {
+            _buf = Arrays.copyOf(_buf, Math.max(_buf.length * 2, _len + n));
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Command line tool to save the bodies from exported files, without Burp.
+ * <p>
+ * Reads the XML files written by the "Save items" action of Burp, or HAR files, and saves the
+ * bodies with the same options as the extension. The input is streamed, so files of any size
+ * are handled in constant memory, and the bodies are written by a pool of worker threads.
+ * </p>
+ * <pre>
+ *   java -cp NakedBody-2.0.jar evilwan.nakedbody.BatchExtractor [options] input-file output-directory
+ * </pre>
+ */
+public class BatchExtractor implements StdioEncapsulation {
+    /**
+     * Usage text
+     */
+    private final static String USAGE =
+        "usage: BatchExtractor [options] <Burp XML or HAR file> <output directory>\n" +
+        "options:\n" +
+        "  --no-requests      do not save request bodies\n" +
+        "  --no-responses     do not save response bodies\n" +
+        "  --zip | --tar      write all bodies into one archive\n" +
+        "  --store URL        upload the bodies to an object store (s3://bucket/prefix,\n" +
+        "                     s3+http://host:port/bucket/prefix) instead of the output directory\n" +
+        "  --layout L         flat (default), host (per host and URL path), sequence (1000 messages\n" +
+        "                     per directory) or hash (256 hashed directories)\n" +
+        "  --dedup            store identical bodies only once\n" +
+        "  --decode           decode chunked and gzip/deflate response bodies\n" +
+        "  --gzip             compress saved files with gzip (not for --zip)\n" +
+        "  --delta            store repeated bodies of the same endpoint as delta\n" +
+        "  --index            build a trigram index for searching the saved bodies\n" +
+        "  --no-multipart     do not split multipart request bodies\n" +
+        "  --embedded         save data: URIs and base64 files embedded in text bodies separately\n" +
+        "  --ndjson           save JSON arrays in response bodies as NDJSON, one element per line\n" +
+        "  --ndjson-path P    same, for the array at member path P (e.g. data.items)\n" +
+        "  --resume           skip messages already exported to the output directory\n" +
+        "  --metrics          print timing figures and write them into the output directory\n" +
+        "  --host REGEX       only messages to hosts matching REGEX\n" +
+        "  --url REGEX        only messages with URLs matching REGEX\n" +
+        "  --method M,...     only messages with one of these methods\n" +
+        "  --status S,...     only responses with one of these status codes (200, 200-299, 2xx)\n" +
+        "  --type T,...       only responses of these media types (application/json, image/*, json)\n" +
+        "  --min-size N       only response bodies of at least N bytes\n" +
+        "  --max-size N       only response bodies of at most N bytes\n" +
+        "  --threads N        number of worker threads (default: number of cores)\n" +
+        "  --prefix P         prefix for output file names (default: current time)";
+
+    /**
+     * Print usage and exit
+     * @param msg reason, <code>null</code> if none
+     */
+    private static void usage(String msg) {
+        if(msg != null) {
+            System.err.println(msg);
+        }
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+
+    /**
+     * Parse layout option
+     * @param s value of the option
+     * @return the layout
+     */
+    private static SaveOptions.Layout layout(String s) {
+        switch(s) {
+            case "flat":
+                return SaveOptions.Layout.FLAT;
+            case "host":
+                return SaveOptions.Layout.HOST_PATH;
+            case "sequence":
+                return SaveOptions.Layout.SEQUENCE;
+            case "hash":
+                return SaveOptions.Layout.HASH;
+            default:
+                usage("unknown layout: " + s);
+                return null;
+        }
+    }
+
+    /**
+     * Main entry point
+     * @param args command line arguments
+     * @throws Exception when something unexpected goes wrong
+     */
+    public static void main(String[] args) throws Exception {
+        SaveOptions opts = new SaveOptions();
+        int threads = SaveJob.defaultThreads();
+        String prefix = (new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss-SSS")).format(new Date());
+        int i = 0;
+        for(; (i < args.length) && args[i].startsWith("--"); i++) {
+            String arg = args[i];
+            if("--no-requests".equals(arg)) {
+                opts.setSaveRequests(false);
+            } else if("--no-responses".equals(arg)) {
+                opts.setSaveResponses(false);
+            } else if("--zip".equals(arg)) {
+                opts.setOutputMode(SaveOptions.OutputMode.ZIP);
+            } else if("--tar".equals(arg)) {
+                opts.setOutputMode(SaveOptions.OutputMode.TAR);
+            } else if("--layout".equals(arg) && (i + 1 < args.length)) {
+                opts.setLayout(layout(args[++i]));
+            } else if("--store".equals(arg) && (i + 1 < args.length)) {
+                opts.setDestination(args[++i]);
+            } else if("--dedup".equals(arg)) {
+                opts.setDedup(true);
+            } else if("--decode".equals(arg)) {
+                opts.setDecode(true);
+            } else if("--gzip".equals(arg)) {
+                opts.setCompress(true);
+            } else if("--delta".equals(arg)) {
+                opts.setDelta(true);
+            } else if("--index".equals(arg)) {
+                opts.setIndex(true);
+            } else if("--no-multipart".equals(arg)) {
+                opts.setSplitMultipart(false);
+            } else if("--embedded".equals(arg)) {
+                opts.setExtractEmbedded(true);
+            } else if("--ndjson".equals(arg)) {
+                opts.setSplitJson(true);
+            } else if("--ndjson-path".equals(arg) && (i + 1 < args.length)) {
+                opts.setSplitJson(true);
+                opts.setJsonPath(args[++i]);
+            } else if("--resume".equals(arg)) {
+                opts.setResume(true);
+            } else if("--metrics".equals(arg)) {
+                opts.setWriteMetrics(true);
+            } else if("--host".equals(arg) && (i + 1 < args.length)) {
+                opts.setHostPattern(args[++i]);
+            } else if("--url".equals(arg) && (i + 1 < args.length)) {
+                opts.setUrlPattern(args[++i]);
+            } else if("--method".equals(arg) && (i + 1 < args.length)) {
+                opts.setMethods(args[++i]);
+            } else if("--status".equals(arg) && (i + 1 < args.length)) {
+                opts.setStatusCodes(args[++i]);
+            } else if("--type".equals(arg) && (i + 1 < args.length)) {
+                opts.setMediaTypes(args[++i]);
+            } else if("--min-size".equals(arg) && (i + 1 < args.length)) {
+                opts.setMinSize(Long.parseLong(args[++i]));
+            } else if("--max-size".equals(arg) && (i + 1 < args.length)) {
+                opts.setMaxSize(Long.parseLong(args[++i]));
+            } else if("--threads".equals(arg) && (i + 1 < args.length)) {
+                threads = Integer.parseInt(args[++i]);
+            } else if("--prefix".equals(arg) && (i + 1 < args.length)) {
+                prefix = args[++i];
+            } else {
+                usage("unknown option: " + arg);
+            }
+        }
+        if(args.length - i != 2) {
+            usage(null);
+        }
+        try {
+            MessageFilter.compile(opts);
+        } catch (IllegalArgumentException iae) {
+            usage(iae.getMessage());
+        }
+        Path input = Paths.get(args[i]);
+        Path outdir = Paths.get(args[i + 1]);
+        Files.createDirectories(outdir);
+        opts.setDirectory(outdir.toString());
+        BatchExtractor me = new BatchExtractor();
+        SaveJob job = me.run(input, opts, prefix, threads);
+        job.awaitDone();
+        System.out.println(String.format("%d messages, %d skipped, %d files, %d bytes, %d failures in %d ms",
+                                         job.getCompleted(), job.getSkipped(), job.getFilesWritten(),
+                                         job.getBytesWritten(), job.getFailed(), job.getElapsedMillis()));
+        if(opts.isWriteMetrics()) {
+            System.out.println();
+            System.out.print(job.getMetrics().toText(job));
+        }
+        System.exit((job.getFailed() > 0) ? 1 : 0);
+    }
+
+    /**
+     * Start saving the bodies of all messages in a file
+     * @param input Burp XML or HAR file
+     * @param opts settings for the save operation
+     * @param prefix prefix for the output file names
+     * @param threads number of worker threads
+     * @return handle for the running save operation
+     */
+    public SaveJob run(final Path input, final SaveOptions opts, final String prefix, int threads) {
+        final BodyExtractor extractor = new BodyExtractor(new HeadScanner(new PlainHeadParser()), this);
+        SaveJob job = new SaveJob(-1, threads, this);
+        job.start(new SaveJob.Feeder() {
+            @Override
+            public void feed(SaveJob job) throws InterruptedException, IOException {
+                final ExportContext ctx = extractor.openContext(job, opts, prefix, new SequenceAllocator(), 1);
+                MessageSource src = open(input);
+                try {
+                    int seq = 0;
+                    HttpMessage msg;
+                    while((msg = src.next()) != null) {
+                        final HttpMessage item = msg;
+                        final int itemseq = ++seq;
+                        boolean submitted = job.submit(new SaveJob.ItemTask() {
+                            @Override
+                            public void run() throws IOException {
+                                extractor.process(ctx, item, itemseq);
+                            }
+                        });
+                        if(!submitted) {
+                            break;
+                        }
+                    }
+                } finally {
+                    src.close();
+                }
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Open input file with the reader that fits its format
+     * <p>
+     * Files ending in "<code>.har</code>" or starting with "<code>{</code>" are HAR files, all
+     * others are taken to be Burp XML files.
+     * @param input file to open
+     * @return source of the messages in the file
+     * @throws IOException when the file could not be opened
+     */
+    public static MessageSource open(Path input) throws IOException {
+        boolean har = input.getFileName().toString().toLowerCase().endsWith(".har");
+        if(!har) {
+            InputStream in = Files.newInputStream(input);
+            try {
+                int c;
+                do {
+                    c = in.read();
+                } while((c == ' ') || (c == '\t') || (c == '\r') || (c == '\n') || (c == 0xef) || (c == 0xbb) ||
+                        (c == 0xbf));
+                har = (c == '{');
+            } finally {
+                in.close();
+            }
+        }
+        return har ? new HarSource(input) : new BurpXmlSource(input);
+    }
+
+    @Override
+    public PrintStream getStdout() {
+        return System.out;
+    }
+
+    @Override
+    public PrintStream getStderr() {
+        return System.err;
+    }
+}
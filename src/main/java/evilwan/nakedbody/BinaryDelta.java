@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Copy/insert delta encoding of one byte sequence against another.
+ * <p>
+ * The encoder indexes the base in blocks of {@link #BLOCK} bytes and slides a rolling hash
+ * over the target, as rsync does. Every match is verified and then extended in both
+ * directions, so shifted content (an extra field, a longer timestamp) is found as well.
+ * The delta is a list of instructions:
+ * </p>
+ * <ul>
+ *     <li><code>0x01</code> offset length: copy <i>length</i> bytes from the base, starting at <i>offset</i></li>
+ *     <li><code>0x02</code> length bytes: insert the next <i>length</i> bytes of the delta</li>
+ * </ul>
+ * <p>
+ * All numbers are unsigned LEB128 varints.
+ * </p>
+ */
+class BinaryDelta {
+    /**
+     * Instruction: copy bytes from the base
+     */
+    private final static int COPY = 0x01;
+    /**
+     * Instruction: insert literal bytes
+     */
+    private final static int ADD = 0x02;
+    /**
+     * Size of the blocks in which the base is indexed
+     */
+    private final static int BLOCK = 16;
+    /**
+     * Multiplier of the rolling hash
+     */
+    private final static int PRIME = 0x01000193;
+
+    /**
+     * Not to be instantiated
+     */
+    private BinaryDelta() {
+    }
+
+    /**
+     * Encode a target against a base
+     * @param base the base
+     * @param t contains the target
+     * @param ofs zero based offset of the target
+     * @param len number of target bytes
+     * @return the delta instructions
+     */
+    static byte[] encode(byte[] base, byte[] t, int ofs, int len) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, len / 8));
+        int end = ofs + len;
+        if((base.length < BLOCK) || (len < BLOCK)) {
+            add(out, t, ofs, len);
+            return out.toByteArray();
+        }
+        //
+        // Index the base: first occurrence of every block wins
+        //
+        int nblocks = base.length / BLOCK;
+        int bits = 32 - Integer.numberOfLeadingZeros(nblocks * 2 - 1);
+        int[] table = new int[1 << bits];
+        int shift = 32 - bits;
+        for(int p = (nblocks - 1) * BLOCK; p >= 0; p -= BLOCK) {
+            table[(hash(base, p) * 0x9e3779b1) >>> shift] = p + 1;
+        }
+        //
+        // PRIME ^ (BLOCK - 1), to remove the oldest byte from the rolling hash
+        //
+        int top = 1;
+        for(int k = 1; k < BLOCK; k++) {
+            top *= PRIME;
+        }
+        int add_start = ofs;
+        int i = ofs;
+        int h = hash(t, i);
+        while(i + BLOCK <= end) {
+            int cand = table[(h * 0x9e3779b1) >>> shift] - 1;
+            if((cand >= 0) && equal(base, cand, t, i)) {
+                int bs = cand;
+                int ts = i;
+                while((bs > 0) && (ts > add_start) && (base[bs - 1] == t[ts - 1])) {
+                    bs--;
+                    ts--;
+                }
+                int be = cand + BLOCK;
+                int te = i + BLOCK;
+                while((be < base.length) && (te < end) && (base[be] == t[te])) {
+                    be++;
+                    te++;
+                }
+                if(ts > add_start) {
+                    add(out, t, add_start, ts - add_start);
+                }
+                out.write(COPY);
+                varint(out, bs);
+                varint(out, te - ts);
+                i = te;
+                add_start = te;
+                if(i + BLOCK <= end) {
+                    h = hash(t, i);
+                }
+            } else {
+                if(i + BLOCK < end) {
+                    h = (h - (t[i] & 0xff) * top) * PRIME + (t[i + BLOCK] & 0xff);
+                }
+                i++;
+            }
+        }
+        if(end > add_start) {
+            add(out, t, add_start, end - add_start);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuild a target from its base and delta instructions
+     * @param base the base
+     * @param delta contains the delta instructions
+     * @param ofs zero based offset of the first instruction
+     * @param target_len length of the target
+     * @return the target
+     * @throws IOException when the delta is corrupt
+     */
+    static byte[] apply(byte[] base, byte[] delta, int ofs, int target_len) throws IOException {
+        byte[] res = new byte[target_len];
+        int n = 0;
+        int[] pos = { ofs };
+        try {
+            while(pos[0] < delta.length) {
+                int op = delta[pos[0]++];
+                if(op == COPY) {
+                    int from = (int) readVarint(delta, pos);
+                    int cnt = (int) readVarint(delta, pos);
+                    System.arraycopy(base, from, res, n, cnt);
+                    n += cnt;
+                } else if(op == ADD) {
+                    int cnt = (int) readVarint(delta, pos);
+                    System.arraycopy(delta, pos[0], res, n, cnt);
+                    pos[0] += cnt;
+                    n += cnt;
+                } else {
+                    throw new IOException("corrupt delta: unknown instruction " + op);
+                }
+            }
+        } catch (IndexOutOfBoundsException ioobe) {
+            throw new IOException("corrupt delta", ioobe);
+        }
+        if(n != target_len) {
+            throw new IOException("corrupt delta: " + n + " bytes instead of " + target_len);
+        }
+        return res;
+    }
+
+    /**
+     * Write an unsigned LEB128 varint
+     * @param out destination
+     * @param v value, not negative
+     */
+    static void varint(ByteArrayOutputStream out, long v) {
+        while(v >= 0x80) {
+            out.write((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /**
+     * Read an unsigned LEB128 varint
+     * @param b bytes to read from
+     * @param pos zero based offset to read from, advanced past the varint
+     * @return the value
+     * @throws IOException when the varint is too long
+     */
+    static long readVarint(byte[] b, int[] pos) throws IOException {
+        long v = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            int c = b[pos[0]++];
+            v |= (long) (c & 0x7f) << shift;
+            if((c & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("corrupt delta: varint too long");
+    }
+
+    /**
+     * Write an insert instruction
+     * @param out destination
+     * @param b contains the bytes to insert
+     * @param ofs zero based offset of the first byte
+     * @param len number of bytes
+     */
+    private static void add(ByteArrayOutputStream out, byte[] b, int ofs, int len) {
+        out.write(ADD);
+        varint(out, len);
+        out.write(b, ofs, len);
+    }
+
+    /**
+     * @param b bytes
+     * @param ofs zero based offset of a block
+     * @return hash of the block, the same value the rolling hash produces
+     */
+    private static int hash(byte[] b, int ofs) {
+        int h = 0;
+        for(int k = 0; k < BLOCK; k++) {
+            h = h * PRIME + (b[ofs + k] & 0xff);
+        }
+        return h;
+    }
+
+    /**
+     * @param a first array
+     * @param aofs zero based offset in the first array
+     * @param b second array
+     * @param bofs zero based offset in the second array
+     * @return <code>true</code> if both hold the same block
+     */
+    private static boolean equal(byte[] a, int aofs, byte[] b, int bofs) {
+        for(int k = 0; k < BLOCK; k++) {
+            if(a[aofs + k] != b[bofs + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
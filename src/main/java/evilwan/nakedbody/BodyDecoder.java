@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Undo transfer and content encodings of a message body while it is being read.
+ * <p>
+ * Supports chunked transfer encoding and the gzip, x-gzip and deflate content
+ * encodings. All decoding is done with small fixed size buffers, so even huge
+ * compressed bodies are never inflated in memory as a whole.
+ * </p>
+ * <p>
+ * Brotli ("br") and other encodings are not available in the Java platform: bodies
+ * using those are left encoded.
+ * </p>
+ */
+public class BodyDecoder {
+    /**
+     * Size of the buffer for the decompressors
+     */
+    private final static int BUFFER_SIZE = 1 << 14;
+
+    /**
+     * Utility class, no instances
+     */
+    private BodyDecoder() {
+    }
+
+    /**
+     * Check if a body has any encoding that can be undone
+     * @param transfer_encoding value of the Transfer-Encoding header, <code>null</code> if absent
+     * @param content_encoding value of the Content-Encoding header, <code>null</code> if absent
+     * @return <code>true</code> if {@link #decode} would return a decoding stream
+     */
+    public static boolean canDecode(String transfer_encoding, String content_encoding) {
+        boolean any = false;
+        if(transfer_encoding != null) {
+            for(String enc : transfer_encoding.split(",")) {
+                enc = enc.trim().toLowerCase(Locale.ROOT);
+                if(enc.equals("chunked")) {
+                    any = true;
+                } else if(!enc.isEmpty() && !enc.equals("identity")) {
+                    return false;
+                }
+            }
+        }
+        if(content_encoding != null) {
+            for(String enc : content_encoding.split(",")) {
+                enc = enc.trim().toLowerCase(Locale.ROOT);
+                if(enc.equals("gzip") || enc.equals("x-gzip") || enc.equals("deflate")) {
+                    any = true;
+                } else if(!enc.isEmpty() && !enc.equals("identity")) {
+                    return false;
+                }
+            }
+        }
+        return any;
+    }
+
+    /**
+     * Build stream that yields the decoded body
+     * @param bar contains the encoded body
+     * @param ofs zero based offset of the body in <code>bar</code>
+     * @param len number of body bytes
+     * @param transfer_encoding value of the Transfer-Encoding header, <code>null</code> if absent
+     * @param content_encoding value of the Content-Encoding header, <code>null</code> if absent
+     * @return stream with the decoded body, or <code>null</code> if there is nothing to decode or
+     *         an encoding is not supported
+     * @throws IOException when the start of the compressed data is invalid
+     */
+    public static InputStream decode(byte[] bar, int ofs, int len,
+                                     String transfer_encoding, String content_encoding) throws IOException {
+        if(!canDecode(transfer_encoding, content_encoding)) {
+            return null;
+        }
+        InputStream in = new ByteArrayInputStream(bar, ofs, len);
+        if((transfer_encoding != null) && transfer_encoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+            in = new ChunkedInputStream(bar, ofs, len);
+        }
+        if(content_encoding != null) {
+            //
+            // Encodings are listed in the order they were applied: undo them from last to first
+            //
+            String[] encs = content_encoding.split(",");
+            for(int i = encs.length - 1; i >= 0; i--) {
+                String enc = encs[i].trim().toLowerCase(Locale.ROOT);
+                if(enc.equals("gzip") || enc.equals("x-gzip")) {
+                    in = new GZIPInputStream(in, BUFFER_SIZE);
+                } else if(enc.equals("deflate")) {
+                    in = inflate(in);
+                }
+            }
+        }
+        return in;
+    }
+
+    /**
+     * Wrap stream for "deflate" content encoding
+     * <p>
+     * The standard says zlib format, but quite some servers send raw deflate data: look at
+     * the first two bytes to find out which one it is.
+     * @param in stream with deflated data
+     * @return stream with inflated data
+     * @throws IOException when reading the start of the data failed
+     */
+    private static InputStream inflate(InputStream in) throws IOException {
+        PushbackInputStream pin = new PushbackInputStream(in, 2);
+        int b0 = pin.read();
+        int b1 = (b0 < 0) ? -1 : pin.read();
+        if(b1 >= 0) {
+            pin.unread(b1);
+        }
+        if(b0 >= 0) {
+            pin.unread(b0);
+        }
+        boolean zlib = (b0 >= 0) && (b1 >= 0) && ((b0 & 0x0f) == 8) && (((b0 << 8) | b1) % 31 == 0);
+        return new InflaterInputStream(pin, new Inflater(!zlib), BUFFER_SIZE);
+    }
+
+    /**
+     * Stream that removes the chunk framing of a body sent with chunked transfer encoding
+     * <p>
+     * Works directly on the byte array of the message. A truncated body simply ends
+     * the stream, whatever has been received is returned. A chunk size that does not fit
+     * in 15 hex digits cannot be real and makes reading fail, so the body is saved as it is.
+     */
+    private static class ChunkedInputStream extends InputStream {
+        /**
+         * Message bytes
+         */
+        private final byte[] _bar;
+        /**
+         * Current position in <code>_bar</code>
+         */
+        private int _pos;
+        /**
+         * End of body in <code>_bar</code>
+         */
+        private final int _end;
+        /**
+         * Bytes left in the current chunk
+         */
+        private int _left = 0;
+        /**
+         * Set when the last chunk has been seen
+         */
+        private boolean _eof = false;
+        /**
+         * Set when the data of a chunk have been read, but not the line end after it
+         */
+        private boolean _after_data = false;
+
+        ChunkedInputStream(byte[] bar, int ofs, int len) {
+            _bar = bar;
+            _pos = ofs;
+            _end = ofs + len;
+        }
+
+        /**
+         * Position on the start of the next chunk with data
+         * @return <code>false</code> if there are no more data
+         * @throws IOException when the chunk size is too large
+         */
+        private boolean nextChunk() throws IOException {
+            while(!_eof && (_left == 0)) {
+                if(_after_data) {
+                    //
+                    // Skip CRLF at end of previous chunk data
+                    //
+                    skipLine();
+                    _after_data = false;
+                }
+                long size = 0;
+                int digits = 0;
+                while((_pos < _end) && (Character.digit(_bar[_pos], 16) >= 0)) {
+                    if(digits == 15) {
+                        //
+                        // Would overflow into a negative size
+                        //
+                        throw new IOException("chunk size of more than 15 hex digits");
+                    }
+                    size = (size << 4) | Character.digit(_bar[_pos], 16);
+                    digits++;
+                    _pos++;
+                }
+                //
+                // Skip chunk extensions and the line end
+                //
+                skipLine();
+                if((digits == 0) || (size == 0) || (_pos >= _end)) {
+                    _eof = true;
+                } else {
+                    _left = (int) Math.min(size, _end - _pos);
+                    _after_data = true;
+                }
+            }
+            return !_eof;
+        }
+
+        /**
+         * Move to the start of the next line
+         */
+        private void skipLine() {
+            while((_pos < _end) && (_bar[_pos] != '\n')) {
+                _pos++;
+            }
+            _pos++;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(!nextChunk()) {
+                return -1;
+            }
+            _left--;
+            return _bar[_pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) {
+                return 0;
+            }
+            if(!nextChunk()) {
+                return -1;
+            }
+            int n = Math.min(len, _left);
+            System.arraycopy(_bar, _pos, b, off, n);
+            _pos += n;
+            _left -= n;
+            return n;
+        }
+    }
+}
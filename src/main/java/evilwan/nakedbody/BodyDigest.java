@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Checksum of a saved body that also feeds the body to a trigram index document.
+ * <p>
+ * Passed wherever the saved bytes are checksummed, so every way of saving a body (as-is,
+ * decoded or streamed) feeds the index with exactly the bytes that were written. Not
+ * thread safe, one digest belongs to one worker thread.
+ */
+class BodyDigest implements Checksum {
+    /**
+     * CRC-32C of the body
+     */
+    private final CRC32C _crc = new CRC32C();
+    /**
+     * Index document to feed as well, <code>null</code> if no index is built
+     */
+    private final TrigramIndexWriter.Document _doc;
+
+    /**
+     * Create new digest
+     * @param doc index document to feed as well, <code>null</code> if no index is built
+     */
+    BodyDigest(TrigramIndexWriter.Document doc) {
+        _doc = doc;
+    }
+
+    @Override
+    public void update(int b) {
+        _crc.update(b);
+        if(_doc != null) {
+            _doc.update(b);
+        }
+    }
+
+    @Override
+    public void update(byte[] bar, int ofs, int len) {
+        _crc.update(bar, ofs, len);
+        if(_doc != null) {
+            _doc.update(bar, ofs, len);
+        }
+    }
+
+    @Override
+    public void update(ByteBuffer buf) {
+        if(_doc != null) {
+            _doc.update(buf.duplicate());
+        }
+        _crc.update(buf);
+    }
+
+    @Override
+    public long getValue() {
+        return _crc.getValue();
+    }
+
+    @Override
+    public void reset() {
+        _crc.reset();
+        if(_doc != null) {
+            _doc.reset();
+        }
+    }
+
+    /**
+     * @return the index document fed by this digest, <code>null</code> if no index is built
+     */
+    TrigramIndexWriter.Document getDocument() {
+        return _doc;
+    }
+}
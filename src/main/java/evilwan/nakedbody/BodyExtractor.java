@@ -0,0 +1,881 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Saves the bodies of messages.
+ * <p>
+ * This is the part of the extension that does not depend on Burp: the Burp extension feeds it
+ * the selected or captured messages, {@link BatchExtractor} feeds it messages read from
+ * exported files. All methods may be called from several worker threads at once.
+ */
+public class BodyExtractor {
+    /**
+     * Number of consecutive messages per subdirectory in the sequence layout
+     */
+    private final static int SEQUENCE_BUCKET = 1000;
+    /**
+     * Maximum number of URL path segments mirrored in the host and path layout
+     */
+    private final static int MAX_PATH_DEPTH = 8;
+    /**
+     * Maximum size of a decoded body that is scanned for embedded payloads
+     */
+    private final static int MAX_EMBEDDED_SCAN = 64 << 20;
+    /**
+     * Number of sequence numbers a resumed export reserves at once
+     */
+    private final static int RESUME_SEQUENCE_BLOCK = 256;
+    /**
+     * File extension of JSON array elements written one per line
+     */
+    private final static String NDJSON_EXTENSION = ".ndjson";
+    /**
+     * Per worker thread buffer for copying decoded bodies
+     */
+    private final static ThreadLocal<byte[]> COPY_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[1 << 16];
+        }
+    };
+    /**
+     * Per worker thread buffer for URL decoding request bodies
+     */
+    private final static ThreadLocal<ByteBuffer> DECODE_BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(1 << 16);
+        }
+    };
+
+    /**
+     * Splits messages into head and body
+     */
+    private final HeadParser _parser;
+    /**
+     * Encapsulation of standard output and standard error
+     */
+    private final StdioEncapsulation _stdio;
+
+    /**
+     * Create new extractor
+     * @param parser splits messages into head and body
+     * @param stdio encapsulation of standard output and standard error
+     */
+    public BodyExtractor(HeadParser parser, StdioEncapsulation stdio) {
+        _parser = parser;
+        _stdio = stdio;
+    }
+
+    /**
+     * Open the destination for the bodies of one save operation, together with its manifest
+     * <p>
+     * Both are closed automatically when the job finishes.
+     * @param job save operation that will use the output
+     * @param opts settings for this save operation
+     * @param prefix prefix for the output file names, unless the export resumes an earlier one
+     * @param sequences source of the sequence numbers of all save operations, numbers messages when the
+     *                  export resumes an earlier one
+     * @param first_seq first sequence number of this operation, used to name archives and manifest (ignored
+     *                  when resuming)
+     * @return the output to write the bodies to
+     * @throws IOException when the output could not be opened
+     * @throws IllegalArgumentException when the filter criteria are not valid
+     */
+    public ExportContext openContext(final SaveJob job, SaveOptions opts, String prefix, SequenceAllocator sequences,
+                                     int first_seq)
+        throws IOException {
+        //
+        // Compile the filter first: invalid criteria should not leave empty output behind
+        //
+        MessageFilter filter = MessageFilter.compile(opts);
+        FingerprintStore store = null;
+        SequenceAllocator.Sequence sequence = null;
+        if(opts.isResume()) {
+            //
+            // Continue naming where the earlier exports into this directory stopped. The numbers
+            // still come from the shared allocator, so exports that resume into the same directory
+            // at the same time never use the same ones.
+            //
+            store = new FingerprintStore(Paths.get(opts.getDirectory()), prefix);
+            prefix = store.getPrefix();
+            sequences.advance(store.getSequence());
+            sequence = sequences.sequence(RESUME_SEQUENCE_BLOCK);
+            first_seq = sequence.getFirst();
+        }
+        String archive = String.format("%s-%06d", prefix, first_seq);
+        BodySink sink;
+        try {
+            if(opts.getDestination() != null) {
+                sink = SinkProvider.find(opts.getDestination()).open(opts.getDestination());
+            } else {
+                switch(opts.getOutputMode()) {
+                    case ZIP:
+                        sink = new ZipSink(Paths.get(opts.getDirectory(), archive + ".zip"));
+                        break;
+                    case TAR:
+                        sink = new TarSink(Paths.get(opts.getDirectory(), archive + ".tar"));
+                        break;
+                    default:
+                        sink = new FileSink(opts.getDirectory());
+                        break;
+                }
+            }
+        } catch (IOException ioe) {
+            if(store != null) {
+                store.close();
+            }
+            throw ioe;
+        }
+        if(opts.isDedup()) {
+            sink = new DedupSink(sink);
+        }
+        boolean zip = (opts.getDestination() == null) && (opts.getOutputMode() == SaveOptions.OutputMode.ZIP);
+        if(opts.isCompress() && !zip) {
+            //
+            // Outside the dedup sink: gzip output is deterministic, so identical bodies still match.
+            // ZIP archives are compressed already.
+            //
+            sink = new GzipSink(sink);
+        }
+        //
+        // Uploads to a destination can fail after the body was recorded: count them as failures of the job
+        //
+        sink.setFailureListener(new BodySink.FailureListener() {
+            @Override
+            public void failed(String name, IOException ioe) {
+                job.addFailure();
+                job.getMetrics().failure(ExportMetrics.Phase.WRITE, name, ioe);
+                _stdio.getStderr().println("~~~~~~ caught while storing " + name + ": " + ioe);
+            }
+        });
+        ManifestWriter manifest;
+        try {
+            manifest = new ManifestWriter(Paths.get(opts.getDirectory(), archive + ManifestWriter.SUFFIX));
+        } catch (IOException ioe) {
+            sink.close();
+            if(store != null) {
+                store.close();
+            }
+            throw ioe;
+        }
+        TrigramIndexWriter index = null;
+        if(opts.isIndex()) {
+            index = new TrigramIndexWriter(Paths.get(opts.getDirectory(), archive + TrigramIndexWriter.SUFFIX));
+        }
+        //
+        // A delta names its base by the regular name. With dedup over an archive or a destination
+        // that name is only an entry in the dedup manifest, so the base could never be found.
+        //
+        boolean files = (opts.getDestination() == null) && (opts.getOutputMode() == SaveOptions.OutputMode.FILES);
+        boolean delta = opts.isDelta() && (files || !opts.isDedup());
+        final ExportContext ctx = new ExportContext(job, opts, prefix, sink, manifest, store, sequence, filter,
+                                                    delta ? new DeltaStore() : null, index);
+        final String summary = opts.isWriteMetrics() ? archive + ExportMetrics.SUFFIX : null;
+        job.onFinish(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ctx.close();
+                    if(summary != null) {
+                        Files.write(Paths.get(ctx.getOptions().getDirectory(), summary),
+                                    job.getMetrics().toJson(job).getBytes(StandardCharsets.UTF_8));
+                    }
+                } catch (IOException ioe) {
+                    job.addFailure();
+                    _stdio.getStderr().println("~~~~~~ caught: " + ioe);
+                    ioe.printStackTrace(_stdio.getStderr());
+                }
+            }
+        });
+        return ctx;
+    }
+
+    /**
+     * Save the bodies of one message, unless it does not pass the filter or a resumed export already has it
+     * @param ctx output of the save operation this message belongs to
+     * @param msg message to save
+     * @param seq sequence number to use in the output file names (ignored when resuming)
+     * @throws IOException when the message could not be recorded as exported
+     */
+    public void process(ExportContext ctx, HttpMessage msg, int seq) throws IOException {
+        MessageFilter filter = ctx.getFilter();
+        if((filter != null) && !filter.accept(msg)) {
+            ctx.getJob().addSkipped();
+            return;
+        }
+        FingerprintStore store = ctx.getFingerprints();
+        if(store == null) {
+            saveItem(ctx, msg, seq);
+            return;
+        }
+        //
+        // Resumable export: only new messages, numbered after the earlier ones
+        //
+        long fp = FingerprintStore.fingerprint(msg.getRequest(), msg.getResponse());
+        if(!store.claim(fp)) {
+            ctx.getJob().addSkipped();
+            return;
+        }
+        int newseq = ctx.getSequence().next();
+        if(saveItem(ctx, msg, newseq)) {
+            store.commit(fp, newseq);
+        }
+    }
+
+    /**
+     * Save request and/or response body of a single message
+     * @param ctx output of the save operation this message belongs to
+     * @param msg message to save
+     * @param seq sequence number to use in the output file names
+     * @return <code>false</code> if saving (part of) the message failed
+     */
+    public boolean saveItem(ExportContext ctx, HttpMessage msg, int seq) {
+        SaveOptions opts = ctx.getOptions();
+        ExportMetrics metrics = ctx.getJob().getMetrics();
+        boolean ok = true;
+        //
+        // Request is always needed: URL and method go into the manifest
+        //
+        long start = System.nanoTime();
+        HttpHead reqinfo = _parser.parseRequest(msg);
+        metrics.time(ExportMetrics.Phase.ANALYZE, start);
+        String url = reqinfo.getUrl();
+        String method = reqinfo.getMethod();
+        String dir = directory(opts.getLayout(), url, seq);
+        if(opts.isSaveRequests()) {
+            byte[] bar = msg.getRequest();
+            HttpHead info = reqinfo;
+            int body_ofs = info.getBodyOffset();
+            if (body_ofs < bar.length) {
+                //
+                // We need to save the request: provide some halfway useful name for
+                // the output file (if possible)
+                //
+                String ctype = info.header("content-type");
+                ManifestEntry entry = new ManifestEntry(seq, "req", url, method, 0, MediaTypes.normalize(ctype));
+                String boundary = opts.isSplitMultipart() ? MultipartSplitter.boundary(ctype) : null;
+                if(boundary != null) {
+                    ok &= dumpParts(ctx, entry, dir + String.format("%s-req-%06d", ctx.getPrefix(), seq),
+                                    bar, body_ofs, bar.length - body_ofs, boundary);
+                } else {
+                    String filnamreq = dir + String.format("%s-req-%06d", ctx.getPrefix(), seq);
+                    String ext = classify(ctx, info, bar, body_ofs, bar.length - body_ofs);
+                    if(info.isUrlEncoded()) {
+                        ok &= dumpUrlDecoded(ctx, entry, filnamreq + ext, bar, body_ofs, bar.length - body_ofs);
+                    } else {
+                        ok &= dumpFile(ctx, entry, filnamreq + ext, bar, body_ofs, bar.length - body_ofs);
+                        ok &= dumpEmbedded(ctx, entry, filnamreq, ext, bar, body_ofs, bar.length - body_ofs);
+                    }
+                }
+            }
+        }
+        if(opts.isSaveResponses()) {
+            byte[] bar = msg.getResponse();
+            if(bar == null) {
+                //
+                // No response received (yet)
+                //
+                return ok;
+            }
+            start = System.nanoTime();
+            HttpHead info = _parser.parseResponse(bar);
+            metrics.time(ExportMetrics.Phase.ANALYZE, start);
+            int body_ofs = info.getBodyOffset();
+            if (body_ofs < bar.length) {
+                ManifestEntry entry = new ManifestEntry(seq, "resp", url, method, info.getStatusCode(),
+                                                        MediaTypes.normalize(info.header("content-type")));
+                String filnamresp = dir + String.format("%s-resp-%06d", ctx.getPrefix(), seq);
+                if(opts.isDecode() && BodyDecoder.canDecode(info.header("transfer-encoding"),
+                                                            info.header("content-encoding"))) {
+                    ok &= dumpDecoded(ctx, entry, filnamresp, info, bar, body_ofs, bar.length - body_ofs);
+                } else {
+                    String ext = classify(ctx, info, bar, body_ofs, bar.length - body_ofs);
+                    ok &= dumpJson(ctx, entry, filnamresp, ext, ByteBuffer.wrap(bar, body_ofs, bar.length - body_ofs));
+                    ok &= dumpEmbedded(ctx, entry, filnamresp, ext, bar, body_ofs, bar.length - body_ofs);
+                }
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Find the subdirectory for the files of a message
+     * @param layout how to spread the files over subdirectories
+     * @param url request URL, <code>null</code> if not known
+     * @param seq sequence number of the message
+     * @return subdirectory followed by a slash, empty for the flat layout
+     */
+    private static String directory(SaveOptions.Layout layout, String url, int seq) {
+        switch(layout) {
+            case SEQUENCE:
+                return String.format("%06d/", (seq / SEQUENCE_BUCKET) * SEQUENCE_BUCKET);
+            case HASH:
+                //
+                // Fibonacci hashing: consecutive numbers end up far apart
+                //
+                return String.format("%02x/", (seq * 0x9e3779b1) >>> 24);
+            case HOST_PATH:
+                return hostPath(url);
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Mirror host and path of an URL as subdirectories
+     * <p>
+     * "<code>https://example.com:443/api/v1/items?id=1</code>" becomes "<code>example.com/api/v1/</code>":
+     * the port is only kept when it is not the default one and the last path segment, query
+     * and fragment are dropped.
+     * @param url request URL, <code>null</code> if not known
+     * @return subdirectory followed by a slash
+     */
+    private static String hostPath(String url) {
+        if(url == null) {
+            return "_unknown/";
+        }
+        int start = url.indexOf("://");
+        start = (start < 0) ? 0 : start + 3;
+        int end = start;
+        while((end < url.length()) && ("/?#".indexOf(url.charAt(end)) < 0)) {
+            end++;
+        }
+        String host = url.substring(start, end);
+        if((host.endsWith(":80") && url.startsWith("http:")) || (host.endsWith(":443") && url.startsWith("https:"))) {
+            host = host.substring(0, host.lastIndexOf(':'));
+        }
+        StringBuilder sb = new StringBuilder(sanitize(host)).append('/');
+        int depth = 0;
+        int seg = end + 1;
+        while((seg < url.length()) && (url.charAt(seg - 1) == '/') && (depth < MAX_PATH_DEPTH)) {
+            int stop = seg;
+            while((stop < url.length()) && ("/?#".indexOf(url.charAt(stop)) < 0)) {
+                stop++;
+            }
+            if((stop == url.length()) || (url.charAt(stop) != '/')) {
+                //
+                // Last segment: that is the resource itself
+                //
+                break;
+            }
+            String name = url.substring(seg, stop);
+            if(!name.isEmpty() && !".".equals(name) && !"..".equals(name)) {
+                sb.append(sanitize(name)).append('/');
+                depth++;
+            }
+            seg = stop + 1;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Analyze request/response headers and try to determine the
+     * nature of the data being sent/received.
+     *
+     * @param head message head
+     * @param body contains the body bytes (possibly preceded by the message headers)
+     * @param ofs zero based offset of the body
+     * @return file extension that best matches the available information from the headers
+     */
+    public String guessFileType(HttpHead head, byte[] body, int ofs) {
+        return guessFileType(head, body, ofs, body.length - ofs);
+    }
+
+    /**
+     * Analyze request/response headers and try to determine the
+     * nature of the data being sent/received.
+     *
+     * @param head message head
+     * @param body contains the body bytes
+     * @param ofs zero based offset of the body
+     * @param len number of body bytes
+     * @return file extension that best matches the available information from the headers
+     */
+    public String guessFileType(HttpHead head, byte[] body, int ofs, int len) {
+        return MediaTypes.guessExtension(head.header("content-type"), body, ofs, len);
+    }
+
+    /**
+     * Guess file type, accounting for the time it takes
+     * @param ctx output of the save operation
+     * @param head message head
+     * @param body contains the body bytes
+     * @param ofs zero based offset of the body
+     * @param len number of body bytes
+     * @return file extension that best matches the available information from the headers
+     */
+    private String classify(ExportContext ctx, HttpHead head, byte[] body, int ofs, int len) {
+        long start = System.nanoTime();
+        String ext = guessFileType(head, body, ofs, len);
+        ctx.getJob().getMetrics().time(ExportMetrics.Phase.CLASSIFY, start);
+        return ext;
+    }
+
+    /**
+     * Dump byte array into file with specified name
+     * @param ctx output of the save operation
+     * @param entry manifest entry for the body, without file details
+     * @param filnam is the name of the output file to create, relative to the sink
+     * @param bar contains the bytes to dump into the file
+     * @param ofs start dumping bytes from this zero based offset
+     * @param len is the number of bytes to dump
+     * @return <code>false</code> if the file could not be written
+     */
+    public boolean dumpFile(ExportContext ctx, ManifestEntry entry, String filnam, byte[] bar, int ofs, int len) {
+        long start = System.nanoTime();
+        try {
+            BodyDigest crc = digest(ctx);
+            crc.update(bar, ofs, len);
+            DeltaStore deltas = ctx.getDeltas();
+            String key = (deltas != null) ? DeltaStore.key(entry, filnam) : null;
+            DeltaStore.Encoding enc = (key != null) ? deltas.encode(key, filnam, bar, ofs, len) : null;
+            byte[] delta = (enc != null) ? enc.getDelta() : null;
+            if(delta != null) {
+                //
+                // The manifest describes the body itself, only the file name tells it is a delta
+                //
+                filnam += DeltaStore.SUFFIX;
+                long pos = ctx.getSink().write(filnam, delta, 0, delta.length);
+                record(ctx, entry, filnam, len, crc, pos);
+            } else {
+                long pos = ctx.getSink().write(filnam, bar, ofs, len);
+                record(ctx, entry, filnam, len, crc, pos);
+            }
+            if(enc != null) {
+                //
+                // Only a body that was written can be the base of the next one
+                //
+                deltas.commit(enc);
+            }
+            ctx.getJob().getMetrics().time(ExportMetrics.Phase.WRITE, start);
+            return true;
+        } catch (IOException ioe) {
+            ctx.getJob().addFailure();
+            ctx.getJob().getMetrics().failure(ExportMetrics.Phase.WRITE, filnam, ioe);
+            //
+            // Ignore for now
+            //
+            _stdio.getStderr().println("~~~~~~ caught: " + ioe);
+            ioe.printStackTrace(_stdio.getStderr());
+            return false;
+        }
+    }
+
+    /**
+     * Account for a saved body: update the job counters and add it to the manifest and the trigram index
+     * @param ctx output of the save operation
+     * @param entry manifest entry for the body, without file details
+     * @param filnam is the name the body was written as, before any suffix added by the sink
+     * @param len number of bytes saved, before compression
+     * @param crc checksum of the saved bytes, see {@link #digest(ExportContext)}
+     * @param pos offset of the body data in the output archive, -1 if not applicable
+     * @throws IOException when the manifest or the index could not be written
+     */
+    private void record(ExportContext ctx, ManifestEntry entry, String filnam, long len, BodyDigest crc, long pos)
+        throws IOException {
+        ctx.getJob().addWritten(len);
+        ctx.getJob().getMetrics().saved(entry.getMediaType(), len);
+        String stored = ctx.getSink().storedName(filnam);
+        ctx.getManifest().append(entry.written(stored, len, String.format("%08x", crc.getValue()), pos));
+        if(ctx.getIndex() != null) {
+            ctx.getIndex().add(stored, stored.equals(filnam + GzipSink.SUFFIX), crc.getDocument());
+        }
+    }
+
+    /**
+     * Create the checksum for a body to save
+     * <p>
+     * When building a trigram index, the checksum also feeds a new index document: it sees
+     * exactly the bytes that are saved, whichever way the body is written.
+     * @param ctx output of the save operation
+     * @return new checksum
+     */
+    private static BodyDigest digest(ExportContext ctx) {
+        return new BodyDigest((ctx.getIndex() != null) ? ctx.getIndex().newDocument() : null);
+    }
+
+    /**
+     * Dump every part of a multipart body into a separate file
+     * <p>
+     * Parts are named after the body, followed by "<code>-part-NN</code>" and, if the part has one,
+     * its (sanitized) file or field name. The file extension comes from the uploaded file
+     * name or else from the part content.
+     * @param ctx output of the save operation
+     * @param entry manifest entry for the body, without file details
+     * @param filnam is the name of the body, without file extension
+     * @param bar contains the multipart body
+     * @param ofs zero based offset of the body
+     * @param len is the number of body bytes
+     * @param boundary boundary of the multipart body
+     * @return <code>false</code> if any part could not be written
+     */
+    private boolean dumpParts(final ExportContext ctx, final ManifestEntry entry, final String filnam,
+                              byte[] bar, int ofs, int len, String boundary) {
+        final boolean[] ok = { true };
+        int nparts = MultipartSplitter.split(bar, ofs, len, boundary, new MultipartSplitter.PartHandler() {
+            @Override
+            public void part(int index, String name, String filename, String content_type,
+                             byte[] bar, int ofs, int len) {
+                if(len == 0) {
+                    return;
+                }
+                String label = (filename != null && !filename.isEmpty()) ? filename : name;
+                String ext = null;
+                if(filename != null) {
+                    int dot = filename.lastIndexOf('.');
+                    if((dot > 0) && (filename.length() - dot <= 6)) {
+                        ext = sanitize(filename.substring(dot)).toLowerCase();
+                        label = filename.substring(0, dot);
+                    }
+                }
+                if(ext == null) {
+                    ext = MediaTypes.guessExtension(content_type, bar, ofs, len);
+                }
+                String partnam = String.format("%s-part-%02d%s%s", filnam, index + 1,
+                                               (label == null || label.isEmpty()) ? "" : "-" + sanitize(label),
+                                               ext);
+                ManifestEntry part = new ManifestEntry(entry.getSeq(), entry.getDirection(), entry.getUrl(),
+                                                       entry.getMethod(), entry.getStatus(),
+                                                       MediaTypes.normalize(content_type));
+                ok[0] &= dumpFile(ctx, part, partnam, bar, ofs, len);
+            }
+        });
+        if(nparts == 0) {
+            //
+            // Not a well formed multipart body after all: keep it as a whole
+            //
+            return dumpFile(ctx, entry, filnam + ".dat", bar, ofs, len);
+        }
+        return ok[0];
+    }
+
+    /**
+     * Dump a response body into a file, as NDJSON if asked for and possible
+     * <p>
+     * When the body is a JSON array (or holds one at the configured path), its elements are
+     * written one per line into a file named after the body with "<code>.ndjson</code>" as
+     * extension. An array at the top level replaces the body; for an array further down, the
+     * body is saved as well, so the members around the array are not lost. Bodies without
+     * such an array are saved as they are.
+     * @param ctx output of the save operation
+     * @param entry manifest entry for the body, without file details
+     * @param filnam is the name of the body, without file extension
+     * @param ext file extension of the body
+     * @param body the body, from its position up to its limit
+     * @return <code>false</code> if a file could not be written
+     */
+    private boolean dumpJson(ExportContext ctx, ManifestEntry entry, String filnam, String ext, ByteBuffer body) {
+        SaveOptions opts = ctx.getOptions();
+        int array = -1;
+        if(opts.isSplitJson() && ".json".equals(ext)) {
+            array = JsonArraySplitter.find(body, opts.getJsonPath());
+        }
+        if(array < 0) {
+            return dumpBuffer(ctx, entry, filnam + ext, body);
+        }
+        boolean ok = (opts.getJsonPath() == null) || dumpBuffer(ctx, entry, filnam + ext, body);
+        String recnam = filnam + NDJSON_EXTENSION;
+        long start = System.nanoTime();
+        try {
+            BodyDigest crc = digest(ctx);
+            CountingOutputStream os = new CountingOutputStream(new CheckedOutputStream(ctx.getSink().open(recnam),
+                                                                                       crc));
+            try {
+                JsonArraySplitter.split(body, array, os);
+            } finally {
+                os.close();
+            }
+            record(ctx, entry, recnam, os.getCount(), crc, -1);
+            ctx.getJob().getMetrics().time(ExportMetrics.Phase.WRITE, start);
+            return ok;
+        } catch (IOException ioe) {
+            ctx.getJob().addFailure();
+            ctx.getJob().getMetrics().failure(ExportMetrics.Phase.WRITE, recnam, ioe);
+            _stdio.getStderr().println("~~~~~~ caught: " + ioe);
+            ioe.printStackTrace(_stdio.getStderr());
+            return false;
+        }
+    }
+
+    /**
+     * Dump the base64 payloads embedded in a text body into separate files, if asked for
+     * <p>
+     * Payloads are named after the body, followed by "<code>-embed-NN</code>" and the file
+     * extension of the payload. Their manifest entries have the sequence number of the body,
+     * so they can be traced back to it.
+     * @param ctx output of the save operation
+     * @param entry manifest entry for the body, without file details
+     * @param filnam is the name of the body, without file extension
+     * @param ext file extension of the body
+     * @param bar contains the body
+     * @param ofs zero based offset of the body
+     * @param len is the number of body bytes
+     * @return <code>false</code> if any payload could not be written
+     */
+    private boolean dumpEmbedded(final ExportContext ctx, final ManifestEntry entry, final String filnam, String ext,
+                                 byte[] bar, int ofs, int len) {
+        if(!ctx.getOptions().isExtractEmbedded() || !EmbeddedPayloadScanner.isText(ext)) {
+            return true;
+        }
+        final boolean[] ok = { true };
+        long start = System.nanoTime();
+        EmbeddedPayloadScanner.scan(bar, ofs, len, new EmbeddedPayloadScanner.PayloadHandler() {
+            @Override
+            public void payload(int index, String media_type, byte[] bar, int ofs, int len) {
+                String ext = MediaTypes.guessExtension(media_type, bar, ofs, len);
+                ManifestEntry child = new ManifestEntry(entry.getSeq(), entry.getDirection(), entry.getUrl(),
+                                                        entry.getMethod(), entry.getStatus(), media_type);
+                ok[0] &= dumpFile(ctx, child, String.format("%s-embed-%02d%s", filnam, index + 1, ext), bar, ofs, len);
+            }
+        });
+        ctx.getJob().getMetrics().time(ExportMetrics.Phase.EXTRACT, start);
+        return ok[0];
+    }
+
+    /**
+     * Turn a client supplied name into something safe to use in a file name
+     * @param s name to sanitize
+     * @return name with only letters, digits, dots, dashes and underscores, at most 40 characters
+     */
+    private static String sanitize(String s) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; (i < s.length()) && (sb.length() < 40); i++) {
+            char c = s.charAt(i);
+            if(((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')) ||
+               (c == '.') || (c == '-') || (c == '_')) {
+                sb.append(c);
+            } else {
+                sb.append('_');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Dump URL encoded body into file with specified name, decoding it on the way
+     * @param ctx output of the save operation
+     * @param entry manifest entry for the body, without file details
+     * @param filnam is the name of the output file to create, relative to the sink
+     * @param bar contains the encoded body
+     * @param ofs zero based offset of the body
+     * @param len is the number of body bytes
+     * @return <code>false</code> if the file could not be written
+     */
+    private boolean dumpUrlDecoded(ExportContext ctx, ManifestEntry entry, String filnam, byte[] bar, int ofs, int len) {
+        long start = System.nanoTime();
+        try {
+            BodyDigest crc = digest(ctx);
+            long total;
+            WritableByteChannel ch = ctx.getSink().openChannel(filnam);
+            try {
+                total = UrlDecoder.decode(bar, ofs, len, DECODE_BUFFER.get(), ch, crc);
+            } finally {
+                ch.close();
+            }
+            record(ctx, entry, filnam, total, crc, -1);
+            ctx.getJob().getMetrics().time(ExportMetrics.Phase.DECODE, start);
+            return true;
+        } catch (IOException ioe) {
+            ctx.getJob().addFailure();
+            ctx.getJob().getMetrics().failure(ExportMetrics.Phase.DECODE, filnam, ioe);
+            _stdio.getStderr().println("~~~~~~ caught: " + ioe);
+            ioe.printStackTrace(_stdio.getStderr());
+            return false;
+        }
+    }
+
+    /**
+     * Dump body into file with specified name, undoing its transfer and content encodings first
+     * <p>
+     * The body is decoded completely before anything is written, into memory or (for large
+     * bodies) a temporary file. If the body turns out to be corrupt, nothing but the encoded
+     * body is saved, with "<code>.raw</code>" added to its name.
+     * @param ctx output of the save operation
+     * @param entry manifest entry for the body, without file details
+     * @param filnam is the name of the output file to create, without file extension
+     * @param head message head, provides the encodings and content type
+     * @param bar contains the encoded body
+     * @param ofs zero based offset of the body
+     * @param len is the number of body bytes
+     * @return <code>false</code> if the file could not be written
+     */
+    private boolean dumpDecoded(ExportContext ctx, ManifestEntry entry, String filnam, HttpHead head,
+                                byte[] bar, int ofs, int len) {
+        String ext = null;
+        long start = System.nanoTime();
+        BodySpool spool = new BodySpool();
+        try {
+            ByteBuffer body;
+            try {
+                InputStream in = BodyDecoder.decode(bar, ofs, len,
+                                                    head.header("transfer-encoding"),
+                                                    head.header("content-encoding"));
+                //
+                // Peek at the first decoded bytes, so the file type can be guessed from them
+                //
+                byte[] buf = COPY_BUFFER.get();
+                int n = in.readNBytes(buf, 0, MediaTypes.SNIFF_SIZE);
+                if(n <= 0) {
+                    //
+                    // Decoded body is empty: no empty files
+                    //
+                    return true;
+                }
+                ext = classify(ctx, head, buf, 0, n);
+                while(n > 0) {
+                    spool.write(buf, 0, n);
+                    n = in.read(buf, 0, buf.length);
+                }
+                body = spool.buffer();
+            } catch (IOException ioe) {
+                ctx.getJob().addFailure();
+                ctx.getJob().getMetrics().failure(ExportMetrics.Phase.DECODE, filnam, ioe);
+                _stdio.getStderr().println("~~~~~~ caught while decoding " + filnam + ": " + ioe);
+                //
+                // Keep the original body, so nothing gets lost
+                //
+                if(ext == null) {
+                    ext = guessFileType(head, bar, ofs);
+                }
+                dumpFile(ctx, entry, filnam + ext + ".raw", bar, ofs, len);
+                return false;
+            }
+            ctx.getJob().getMetrics().time(ExportMetrics.Phase.DECODE, start);
+            if(body == null) {
+                //
+                // Over 2 GB: no splitting or scanning, just copy it
+                //
+                return dumpSpool(ctx, entry, filnam + ext, spool);
+            }
+            boolean ok = dumpJson(ctx, entry, filnam, ext, body);
+            int size = body.remaining();
+            if(!ctx.getOptions().isExtractEmbedded() || !EmbeddedPayloadScanner.isText(ext) ||
+               (size > MAX_EMBEDDED_SCAN)) {
+                return ok;
+            }
+            byte[] text;
+            int text_ofs;
+            if(body.hasArray()) {
+                text = body.array();
+                text_ofs = body.arrayOffset() + body.position();
+            } else {
+                text = new byte[size];
+                text_ofs = 0;
+                body.duplicate().get(text);
+            }
+            return dumpEmbedded(ctx, entry, filnam, ext, text, text_ofs, size) && ok;
+        } finally {
+            try {
+                spool.close();
+            } catch (IOException ioe) {
+                _stdio.getStderr().println("~~~~~~ caught: " + ioe);
+            }
+        }
+    }
+
+    /**
+     * Dump a body held in a buffer, e.g. mapped from a temporary file, into file with specified name
+     * @param ctx output of the save operation
+     * @param entry manifest entry for the body, without file details
+     * @param filnam is the name of the output file to create, relative to the sink
+     * @param body the body, from its position up to its limit
+     * @return <code>false</code> if the file could not be written
+     */
+    private boolean dumpBuffer(ExportContext ctx, ManifestEntry entry, String filnam, ByteBuffer body) {
+        if(body.hasArray()) {
+            return dumpFile(ctx, entry, filnam, body.array(), body.arrayOffset() + body.position(), body.remaining());
+        }
+        long start = System.nanoTime();
+        try {
+            BodyDigest crc = digest(ctx);
+            crc.update(body.duplicate());
+            WritableByteChannel ch = ctx.getSink().openChannel(filnam);
+            try {
+                ByteBuffer b = body.duplicate();
+                while(b.hasRemaining()) {
+                    ch.write(b);
+                }
+            } finally {
+                ch.close();
+            }
+            record(ctx, entry, filnam, body.remaining(), crc, -1);
+            ctx.getJob().getMetrics().time(ExportMetrics.Phase.WRITE, start);
+            return true;
+        } catch (IOException ioe) {
+            ctx.getJob().addFailure();
+            ctx.getJob().getMetrics().failure(ExportMetrics.Phase.WRITE, filnam, ioe);
+            _stdio.getStderr().println("~~~~~~ caught: " + ioe);
+            ioe.printStackTrace(_stdio.getStderr());
+            return false;
+        }
+    }
+
+    /**
+     * Dump a decoded body that is too large to map into file with specified name
+     * @param ctx output of the save operation
+     * @param entry manifest entry for the body, without file details
+     * @param filnam is the name of the output file to create, relative to the sink
+     * @param spool holds the decoded body
+     * @return <code>false</code> if the file could not be written
+     */
+    private boolean dumpSpool(ExportContext ctx, ManifestEntry entry, String filnam, BodySpool spool) {
+        long start = System.nanoTime();
+        try {
+            BodyDigest crc = digest(ctx);
+            OutputStream os = new CheckedOutputStream(ctx.getSink().open(filnam), crc);
+            try {
+                spool.copyTo(os);
+            } finally {
+                os.close();
+            }
+            record(ctx, entry, filnam, spool.size(), crc, -1);
+            ctx.getJob().getMetrics().time(ExportMetrics.Phase.WRITE, start);
+            return true;
+        } catch (IOException ioe) {
+            ctx.getJob().addFailure();
+            ctx.getJob().getMetrics().failure(ExportMetrics.Phase.WRITE, filnam, ioe);
+            _stdio.getStderr().println("~~~~~~ caught: " + ioe);
+            ioe.printStackTrace(_stdio.getStderr());
+            return false;
+        }
+    }
+}
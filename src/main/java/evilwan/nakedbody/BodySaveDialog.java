@@ -34,6 +34,8 @@ import java.io.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 /**
  * This class implements the save messages dialog that is popped up when selecting
@@ -55,6 +57,14 @@ public class BodySaveDialog extends JDialog implements ActionListener {
      * Object to use for saving the message bodies
      */
     private BodySaver _mom;
+    /**
+     * Selection of the messages to save (selected ones, proxy history or site map)
+     */
+    private JComboBox<SaveOptions.Selection> _selection;
+    /**
+     * Checkbox to tick for saving messages within the target scope only
+     */
+    private JCheckBox _in_scope_only;
     /**
      * Checkbox to tick for saving request bodies
      */
@@ -63,10 +73,94 @@ public class BodySaveDialog extends JDialog implements ActionListener {
      * Checkbox to tick for saving response bodies
      */
     private JCheckBox _save_resp;
+    /**
+     * Selection of output mode (separate files or one archive)
+     */
+    private JComboBox<SaveOptions.OutputMode> _output_mode;
+    /**
+     * Selection of the directory layout
+     */
+    private JComboBox<SaveOptions.Layout> _layout;
+    /**
+     * Checkbox to tick for storing identical bodies only once
+     */
+    private JCheckBox _dedup;
+    /**
+     * Checkbox to tick for decoding response bodies
+     */
+    private JCheckBox _decode;
+    /**
+     * Checkbox to tick for gzip compressing the saved files
+     */
+    private JCheckBox _compress;
+    /**
+     * Checkbox to tick for storing repeated bodies of the same endpoint as delta
+     */
+    private JCheckBox _delta;
+    /**
+     * Checkbox to tick for building a trigram index of the saved bodies
+     */
+    private JCheckBox _index;
+    /**
+     * Checkbox to tick for saving the parts of multipart request bodies separately
+     */
+    private JCheckBox _split_multipart;
+    /**
+     * Checkbox to tick for saving base64 payloads embedded in text bodies separately
+     */
+    private JCheckBox _extract_embedded;
+    /**
+     * Checkbox to tick for saving JSON arrays in response bodies as NDJSON
+     */
+    private JCheckBox _split_json;
+    /**
+     * Text field for the path of the array to save as NDJSON
+     */
+    private JTextField _json_path_txt;
+    /**
+     * Checkbox to tick for skipping messages that were exported to the directory before
+     */
+    private JCheckBox _resume;
+    /**
+     * Checkbox to tick for writing a timing summary next to the bodies
+     */
+    private JCheckBox _write_metrics;
+    /**
+     * Filter: regular expression the host name has to contain
+     */
+    private JTextField _host_pattern;
+    /**
+     * Filter: regular expression the URL has to contain
+     */
+    private JTextField _url_pattern;
+    /**
+     * Filter: accepted request methods
+     */
+    private JTextField _methods;
+    /**
+     * Filter: accepted response status codes
+     */
+    private JTextField _status_codes;
+    /**
+     * Filter: accepted response media types
+     */
+    private JTextField _media_types;
+    /**
+     * Filter: smallest response body size in bytes
+     */
+    private JTextField _min_size;
+    /**
+     * Filter: largest response body size in bytes
+     */
+    private JTextField _max_size;
     /**
      * Text field for directory where to save the body files
      */
     private JTextField _directory_txt;
+    /**
+     * Text field for the destination of the bodies, if not the output directory
+     */
+    private JTextField _destination_txt;
     /**
      * Actual output directory name.
      * <p>
@@ -77,6 +171,30 @@ public class BodySaveDialog extends JDialog implements ActionListener {
      * Encapsulation of standard output and standard error provided by Burp for its extensions
      */
     private StdioEncapsulation _stdio;
+    /**
+     * <code>true</code> if this dialog starts an auto-capture instead of saving selected messages
+     */
+    private boolean _capture;
+    /**
+     * Running save operation (<code>null</code> until the save button has been clicked)
+     */
+    private SaveJob _job = null;
+    /**
+     * Progress bar for the running save operation
+     */
+    private JProgressBar _progress;
+    /**
+     * Label showing throughput and estimated time left
+     */
+    private JLabel _status;
+    /**
+     * Button to cancel the running save operation, or close the dialog when done
+     */
+    private JButton _cancel;
+    /**
+     * Timer to periodically poll the running save operation
+     */
+    private Timer _poller;
 
     /**
      * Build and show the extension save dialog
@@ -86,10 +204,23 @@ public class BodySaveDialog extends JDialog implements ActionListener {
      * @param stdio encapsulation of standard output and standard error provided by Burp for its extensions
      */
     public BodySaveDialog(JFrame dad, String title, BodySaver mom, StdioEncapsulation stdio) {
+        this(dad, title, mom, stdio, false);
+    }
+
+    /**
+     * Build and show the extension save dialog
+     * @param dad parent frame for this dialog
+     * @param title for save bodies dialog
+     * @param mom object to use for saving the message bodies
+     * @param stdio encapsulation of standard output and standard error provided by Burp for its extensions
+     * @param capture <code>true</code> to start an auto-capture instead of saving selected messages
+     */
+    public BodySaveDialog(JFrame dad, String title, BodySaver mom, StdioEncapsulation stdio, boolean capture) {
         super(dad, title, true);
         _dad = dad;
         _mom = mom;
         _stdio = stdio;
+        _capture = capture;
         if (dad != null) {
             Dimension parentSize = dad.getSize();
             Point p = dad.getLocation();
@@ -131,11 +262,73 @@ public class BodySaveDialog extends JDialog implements ActionListener {
             }
         });
         messagePane.add(dirpane);
+        JPanel destpane = new JPanel();
+        destpane.add(new JLabel("Upload bodies to (optional):"));
+        _destination_txt = new JTextField("", 30);
+        _destination_txt.setToolTipText("s3://bucket/prefix or s3+http://host:port/bucket/prefix; " +
+                                        "manifest and index stay in the directory above");
+        destpane.add(_destination_txt);
+        messagePane.add(destpane);
+        _selection = new JComboBox<SaveOptions.Selection>(SaveOptions.Selection.values());
+        _in_scope_only = new JCheckBox("In-scope messages only", false);
+        if(!capture) {
+            JPanel selpane = new JPanel();
+            selpane.add(new JLabel("Messages:"));
+            selpane.add(_selection);
+            selpane.add(_in_scope_only);
+            messagePane.add(selpane);
+        }
         _save_req = new JCheckBox("Save request bodies", true);
         _save_resp = new JCheckBox("Save response bodies", true);
         messagePane.add(_save_req);
         messagePane.add(_save_resp);
-        JButton button = new JButton("Save");
+        JPanel modepane = new JPanel();
+        modepane.add(new JLabel("Output:"));
+        _output_mode = new JComboBox<SaveOptions.OutputMode>(SaveOptions.OutputMode.values());
+        modepane.add(_output_mode);
+        modepane.add(new JLabel("Layout:"));
+        _layout = new JComboBox<SaveOptions.Layout>(SaveOptions.Layout.values());
+        modepane.add(_layout);
+        messagePane.add(modepane);
+        _dedup = new JCheckBox("Store identical bodies only once", false);
+        messagePane.add(_dedup);
+        _decode = new JCheckBox("Decode response bodies (chunked, gzip, deflate)", false);
+        messagePane.add(_decode);
+        _compress = new JCheckBox("Compress saved files with gzip (.gz, not for ZIP archives)", false);
+        messagePane.add(_compress);
+        _delta = new JCheckBox("Store repeated bodies of the same endpoint as delta to the previous one", false);
+        messagePane.add(_delta);
+        _index = new JCheckBox("Build a search index of the saved bodies", false);
+        messagePane.add(_index);
+        _split_multipart = new JCheckBox("Save multipart request bodies as one file per part", true);
+        messagePane.add(_split_multipart);
+        _extract_embedded = new JCheckBox("Save data: URIs and base64 files embedded in text bodies separately", false);
+        messagePane.add(_extract_embedded);
+        JPanel jsonpane = new JPanel();
+        _split_json = new JCheckBox("Save JSON arrays in responses as NDJSON, array at path (optional):", false);
+        jsonpane.add(_split_json);
+        _json_path_txt = new JTextField("", 15);
+        _json_path_txt.setToolTipText("member names separated by dots, e.g. data.items; empty for the top level");
+        jsonpane.add(_json_path_txt);
+        messagePane.add(jsonpane);
+        _resume = new JCheckBox("Resume: skip messages already exported to this directory", false);
+        messagePane.add(_resume);
+        _write_metrics = new JCheckBox("Write timing summary (JSON) into the output directory", false);
+        messagePane.add(_write_metrics);
+        //
+        // Filter criteria: empty fields accept everything
+        //
+        JPanel filterpane = new JPanel(new GridLayout(0, 2, 4, 2));
+        filterpane.setBorder(BorderFactory.createTitledBorder("Only save messages matching (empty: all)"));
+        _host_pattern = addFilterField(filterpane, "Host (regex):");
+        _url_pattern = addFilterField(filterpane, "URL (regex):");
+        _methods = addFilterField(filterpane, "Methods (GET, POST):");
+        _status_codes = addFilterField(filterpane, "Response status (200, 3xx):");
+        _media_types = addFilterField(filterpane, "Response type (application/json, image/*):");
+        _min_size = addFilterField(filterpane, "Minimum response body size (bytes):");
+        _max_size = addFilterField(filterpane, "Maximum response body size (bytes):");
+        messagePane.add(filterpane);
+        JButton button = new JButton(capture ? "Start capture" : "Save");
         button.setAlignmentX(Component.CENTER_ALIGNMENT);
         messagePane.add(button);
         button.addActionListener(this);
@@ -147,12 +340,232 @@ public class BodySaveDialog extends JDialog implements ActionListener {
 
     /**
      * Called when user wants to start saving the bodies
+     * <p>
+     * The actual saving is done in the background: this dialog then turns into a
+     * non-modal progress window, so Burp stays usable during large exports.
      * @param e is the event that triggers this call
      */
     public void actionPerformed(ActionEvent e) {
+        SaveOptions opts;
+        try {
+            opts = buildOptions();
+            MessageFilter.compile(opts);
+        } catch (IllegalArgumentException iae) {
+            JOptionPane.showMessageDialog(this, iae.getMessage(), "Invalid filter", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
         setVisible(false);
-        dispose();
-        _mom.saveBodies(_directory_txt.getText(), _save_req.isSelected(), _save_resp.isSelected());
+        if(_capture) {
+            dispose();
+            _mom.startCapture(opts);
+            return;
+        }
+        _job = _mom.saveBodies(opts);
+        showProgress();
+    }
+
+    /**
+     * Add labelled text field for a filter criterium
+     * @param pane panel to add the field to
+     * @param label label in front of the field
+     * @return the text field
+     */
+    private JTextField addFilterField(JPanel pane, String label) {
+        JTextField field = new JTextField("", 20);
+        pane.add(new JLabel(label));
+        pane.add(field);
+        return field;
+    }
+
+    /**
+     * Read size from a filter field
+     * @param field the text field
+     * @param what name of the field for the error message
+     * @return the size in bytes, -1 if the field is empty
+     * @throws IllegalArgumentException when the field does not hold a valid size
+     */
+    private static long parseSize(JTextField field, String what) {
+        String s = field.getText().trim();
+        if(s.isEmpty()) {
+            return -1;
+        }
+        try {
+            long n = Long.parseLong(s);
+            if(n >= 0) {
+                return n;
+            }
+        } catch (NumberFormatException nfe) {
+            //
+            // Reported below
+            //
+        }
+        throw new IllegalArgumentException("invalid " + what + ": " + s);
+    }
+
+    /**
+     * Collect the settings from the dialog
+     * @return settings as chosen by the user
+     * @throws IllegalArgumentException when a size filter is not a valid number or the destination is not supported
+     */
+    private SaveOptions buildOptions() {
+        SaveOptions opts = new SaveOptions();
+        opts.setDirectory(_directory_txt.getText());
+        opts.setDestination(_destination_txt.getText());
+        if(opts.getDestination() != null) {
+            try {
+                SinkProvider.find(opts.getDestination());
+            } catch (IOException ioe) {
+                throw new IllegalArgumentException(ioe.getMessage());
+            }
+        }
+        opts.setSaveRequests(_save_req.isSelected());
+        opts.setSaveResponses(_save_resp.isSelected());
+        opts.setOutputMode((SaveOptions.OutputMode) _output_mode.getSelectedItem());
+        opts.setLayout((SaveOptions.Layout) _layout.getSelectedItem());
+        opts.setDedup(_dedup.isSelected());
+        opts.setDecode(_decode.isSelected());
+        opts.setCompress(_compress.isSelected());
+        opts.setDelta(_delta.isSelected());
+        opts.setIndex(_index.isSelected());
+        opts.setSplitMultipart(_split_multipart.isSelected());
+        opts.setExtractEmbedded(_extract_embedded.isSelected());
+        opts.setSplitJson(_split_json.isSelected());
+        opts.setJsonPath(_json_path_txt.getText());
+        opts.setResume(_resume.isSelected());
+        opts.setWriteMetrics(_write_metrics.isSelected());
+        opts.setSelection((SaveOptions.Selection) _selection.getSelectedItem());
+        opts.setInScopeOnly(_in_scope_only.isSelected());
+        opts.setHostPattern(_host_pattern.getText());
+        opts.setUrlPattern(_url_pattern.getText());
+        opts.setMethods(_methods.getText());
+        opts.setStatusCodes(_status_codes.getText());
+        opts.setMediaTypes(_media_types.getText());
+        opts.setMinSize(parseSize(_min_size, "minimum size"));
+        opts.setMaxSize(parseSize(_max_size, "maximum size"));
+        return opts;
+    }
+
+    /**
+     * Replace the dialog content with a progress bar and cancel button for the running job
+     */
+    private void showProgress() {
+        getContentPane().removeAll();
+        JPanel progpane = new JPanel();
+        progpane.setLayout(new BoxLayout(progpane, BoxLayout.Y_AXIS));
+        progpane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        _progress = new JProgressBar(0, Math.max(1, _job.getTotal()));
+        _progress.setStringPainted(true);
+        progpane.add(_progress);
+        _status = new JLabel(" ");
+        _status.setAlignmentX(Component.CENTER_ALIGNMENT);
+        progpane.add(_status);
+        _cancel = new JButton("Cancel");
+        _cancel.setAlignmentX(Component.CENTER_ALIGNMENT);
+        _cancel.addActionListener(new ActionListener() {
+            /**
+             * Called when the cancel (or close) button has been clicked
+             * @param actionEvent is the event that triggers this call
+             */
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                if(_job.isDone()) {
+                    _poller.stop();
+                    dispose();
+                } else {
+                    _job.cancel();
+                    _cancel.setEnabled(false);
+                }
+            }
+        });
+        progpane.add(_cancel);
+        getContentPane().add(progpane);
+        //
+        // Cancel the job as well when the dialog is closed while still busy
+        //
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent windowEvent) {
+                _poller.stop();
+                _job.cancel();
+            }
+        });
+        setModalityType(ModalityType.MODELESS);
+        _poller = new Timer(250, new ActionListener() {
+            /**
+             * Called periodically to update the progress of the running job
+             * @param actionEvent is the event that triggers this call
+             */
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                updateProgress();
+            }
+        });
+        updateProgress();
+        pack();
+        setSize(Math.max(getWidth(), 450), getHeight());
+        _poller.start();
+        setVisible(true);
+    }
+
+    /**
+     * Show current state of the running job
+     */
+    private void updateProgress() {
+        int done = _job.getCompleted();
+        _progress.setValue(done);
+        _progress.setString(done + " / " + _job.getTotal());
+        String speed = String.format("%d files, %s (%s/s)",
+                                     _job.getFilesWritten(),
+                                     formatBytes(_job.getBytesWritten()),
+                                     formatBytes((long) _job.getBytesPerSecond()));
+        if(_job.getSkipped() > 0) {
+            speed += ", " + _job.getSkipped() + " skipped";
+        }
+        if(_job.getFailed() > 0) {
+            speed += ", " + _job.getFailed() + " errors";
+        }
+        if(_job.isDone()) {
+            _poller.stop();
+            _status.setText((_job.isCancelled() ? "Cancelled: " : "Done: ") + speed +
+                            " in " + formatMillis(_job.getElapsedMillis()));
+            _cancel.setText("Close");
+            _cancel.setEnabled(true);
+        } else {
+            long eta = _job.getEtaMillis();
+            _status.setText(speed + ((eta < 0) ? "" : ", " + formatMillis(eta) + " left"));
+        }
+    }
+
+    /**
+     * Format a number of bytes in human readable form
+     * @param n number of bytes
+     * @return formatted string, e.g. "12.3 MB"
+     */
+    private static String formatBytes(long n) {
+        if(n < 1024) {
+            return n + " B";
+        }
+        String units = "KMGT";
+        double v = n;
+        int u = -1;
+        while((v >= 1024) && (u < units.length() - 1)) {
+            v /= 1024;
+            u += 1;
+        }
+        return String.format("%.1f %cB", v, units.charAt(u));
+    }
+
+    /**
+     * Format a duration in human readable form
+     * @param ms number of milliseconds
+     * @return formatted string, e.g. "1:02:03" or "2:03"
+     */
+    private static String formatMillis(long ms) {
+        long s = ms / 1000;
+        if(s >= 3600) {
+            return String.format("%d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+        }
+        return String.format("%d:%02d", s / 60, s % 60);
     }
 
 }
@@ -31,10 +31,15 @@ package evilwan.nakedbody;
 
 public interface BodySaver {
     /**
-     * Save selected message bodies
-     * @param directory location where to save the bodies
-     * @param save_req <code>true</code> if request bodies have to be saved
-     * @param save_resp <code>true</code> if response bodies have to be saved
+     * Start saving the selected message bodies in the background
+     * @param opts settings for this save operation
+     * @return handle for following up (or cancelling) the running save operation
      */
-    void saveBodies(String directory, boolean save_req, boolean save_resp);
+    SaveJob saveBodies(SaveOptions opts);
+
+    /**
+     * Start saving message bodies as they pass through the proxy
+     * @param opts settings for the capture
+     */
+    void startCapture(SaveOptions opts);
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Destination for saved bodies.
+ * <p>
+ * Implementations must allow {@link #write(String, byte[], int, int)} to be called
+ * concurrently from several worker threads.
+ */
+public interface BodySink extends Closeable {
+    /**
+     * Receives the failures of bodies that a sink stores in the background
+     */
+    interface FailureListener {
+        /**
+         * Called when a body that was accepted earlier could not be stored after all
+         * @param name name the body was written as, to the sink that failed
+         * @param ioe why the body could not be stored
+         */
+        void failed(String name, IOException ioe);
+    }
+
+    /**
+     * Write one body
+     * <p>
+     * Sinks that store bodies in the background may still read the bytes after this method
+     * returned, until the sink is closed: callers must not change them.
+     * @param name name of the body, relative to the output location (e.g. "prefix-resp-000001.html")
+     * @param bar contains the bytes to write
+     * @param ofs start writing bytes from this zero based offset
+     * @param len is the number of bytes to write
+     * @return offset of the body data within the output archive, -1 if the body is a separate file
+     * @throws IOException when the body could not be written
+     */
+    long write(String name, byte[] bar, int ofs, int len) throws IOException;
+
+    /**
+     * Open a stream to write one body of unknown length
+     * <p>
+     * The body is complete once the returned stream is closed. Callers must always close
+     * the stream, also when an error occurs: some sinks cannot write anything else until then.
+     * @param name name of the body, relative to the output location
+     * @return stream to write the body into
+     * @throws IOException when the body could not be opened
+     */
+    OutputStream open(String name) throws IOException;
+
+    /**
+     * Open a channel to write one body of unknown length
+     * <p>
+     * Same as {@link #open(String)}, for callers that produce the body in a <code>ByteBuffer</code>.
+     * @param name name of the body, relative to the output location
+     * @return channel to write the body into, must always be closed
+     * @throws IOException when the body could not be opened
+     */
+    default WritableByteChannel openChannel(String name) throws IOException {
+        return Channels.newChannel(open(name));
+    }
+
+    /**
+     * Make a body available under a second name, without writing its content again
+     * @param name new name for the body
+     * @param existing name of a body that was written before
+     * @return <code>false</code> if this sink does not support links
+     * @throws IOException when the link could not be created
+     */
+    default boolean link(String name, String existing) throws IOException {
+        return false;
+    }
+
+    /**
+     * Set who hears about bodies that fail after they were accepted
+     * <p>
+     * Sinks that store every body before {@link #write(String, byte[], int, int)} returns or
+     * the stream of {@link #open(String)} is closed report failures by throwing, and ignore the
+     * listener. Sinks that store in the background call it from their own threads; until a
+     * listener is set, they report those failures when closed.
+     * @param listener receives the failures
+     */
+    default void setFailureListener(FailureListener listener) {
+    }
+
+    /**
+     * Name under which a body ends up in the output location
+     * @param name name the body was written as
+     * @return the stored name, e.g. with the suffix of a compressing sink appended
+     */
+    default String storedName(String name) {
+        return name;
+    }
+}
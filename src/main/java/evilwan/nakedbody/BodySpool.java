@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+
+package evilwan.nakedbody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Output stream that collects a body of unknown length: in memory while it is small, in a
+ * temporary file once it grows beyond {@link #MEMORY_LIMIT}.
+ * <p>
+ * Decoded bodies are collected here completely before anything is handed to the sink, so a
+ * body that turns out to be corrupt halfway never leaves a partial file behind. Memory use
+ * stays bounded no matter how large the decoded body is: large bodies are read back through
+ * a memory mapping of the temporary file, which is removed when the spool is closed.
+ * </p>
+ */
+class BodySpool extends OutputStream {
+    /**
+     * Maximum number of bytes kept in memory
+     */
+    final static int MEMORY_LIMIT = 1 << 20;
+
+    /**
+     * Collected bytes while in memory
+     */
+    private byte[] _buf = new byte[8192];
+    /**
+     * Number of bytes collected so far
+     */
+    private long _size = 0;
+    /**
+     * Temporary file, <code>null</code> while in memory
+     */
+    private Path _tmp = null;
+    /**
+     * Stream onto the temporary file, <code>null</code> while in memory or once finished
+     */
+    private OutputStream _out = null;
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bar, int ofs, int len) throws IOException {
+        if((_tmp == null) && (_size + len > MEMORY_LIMIT)) {
+            //
+            // Too large for memory: move to a temporary file
+            //
+            _tmp = Files.createTempFile("naked-body-", ".spool");
+            _out = new BufferedOutputStream(Files.newOutputStream(_tmp), 1 << 16);
+            _out.write(_buf, 0, (int) _size);
+            _buf = null;
+        }
+        if(_tmp != null) {
+            _out.write(bar, ofs, len);
+        } else {
+            if(_size + len > _buf.length) {
+                _buf = Arrays.copyOf(_buf, (int) Math.min(MEMORY_LIMIT, Math.max(_buf.length * 2L, _size + len)));
+            }
+            System.arraycopy(bar, ofs, _buf, (int) _size, len);
+        }
+        _size += len;
+    }
+
+    /**
+     * @return number of bytes collected
+     */
+    long size() {
+        return _size;
+    }
+
+    /**
+     * Stop collecting and get the whole body
+     * @return the collected bytes, from position 0 up to the limit; <code>null</code> if the body
+     *         is too large for one buffer (2 GB)
+     * @throws IOException when the temporary file could not be mapped
+     */
+    ByteBuffer buffer() throws IOException {
+        if(_tmp == null) {
+            return ByteBuffer.wrap(_buf, 0, (int) _size).slice();
+        }
+        if(_out != null) {
+            _out.close();
+            _out = null;
+        }
+        if(_size > Integer.MAX_VALUE) {
+            return null;
+        }
+        try(FileChannel ch = FileChannel.open(_tmp, StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, _size);
+        }
+    }
+
+    /**
+     * Copy the whole body to a stream
+     * @param os stream to copy to
+     * @throws IOException when copying failed
+     */
+    void copyTo(OutputStream os) throws IOException {
+        if(_tmp == null) {
+            os.write(_buf, 0, (int) _size);
+            return;
+        }
+        if(_out != null) {
+            _out.close();
+            _out = null;
+        }
+        Files.copy(_tmp, os);
+    }
+
+    /**
+     * Release the collected bytes and remove the temporary file, if any
+     * @throws IOException when the temporary file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        _buf = null;
+        if(_tmp == null) {
+            return;
+        }
+        try {
+            if(_out != null) {
+                _out.close();
+                _out = null;
+            }
+        } finally {
+            try {
+                Files.deleteIfExists(_tmp);
+            } catch (IOException ioe) {
+                //
+                // Still mapped (Windows): remove it when the JVM exits
+                //
+                _tmp.toFile().deleteOnExit();
+            }
+            _tmp = null;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the messages from a file written by the "Save items" action of Burp.
+ * <p>
+ * The file is read with a StAX parser and the base64 encoded requests and responses are
+ * decoded chunk by chunk while the parser delivers them. Items look like this:
+ * </p>
+ * <pre>
+ *   &lt;item&gt;
+ *     &lt;host ip="93.184.216.34"&gt;example.com&lt;/host&gt;
+ *     &lt;port&gt;443&lt;/port&gt;
+ *     &lt;protocol&gt;https&lt;/protocol&gt;
+ *     &lt;request base64="true"&gt;&lt;![CDATA[R0VUIC8gSFRUUC8xLjEN...]]&gt;&lt;/request&gt;
+ *     &lt;response base64="true"&gt;&lt;![CDATA[SFRUUC8xLjEgMjAwIE9L...]]&gt;&lt;/response&gt;
+ *     ...
+ *   &lt;/item&gt;
+ * </pre>
+ */
+public class BurpXmlSource implements MessageSource {
+    /**
+     * Underlying file
+     */
+    private final InputStream _in;
+    /**
+     * StAX parser on the file
+     */
+    private final XMLStreamReader _xml;
+    /**
+     * Decoder for base64 encoded requests and responses, reused for every message
+     */
+    private final Base64Decoder _base64 = new Base64Decoder(1 << 16);
+    /**
+     * Collects text content of elements that are not base64 encoded
+     */
+    private final StringBuilder _text = new StringBuilder();
+
+    /**
+     * Open file
+     * @param file Burp XML file
+     * @throws IOException when the file could not be opened
+     */
+    public BurpXmlSource(Path file) throws IOException {
+        _in = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        //
+        // Burp includes an internal DTD; never resolve anything from outside the file
+        //
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        try {
+            _xml = factory.createXMLStreamReader(_in);
+        } catch (XMLStreamException xse) {
+            _in.close();
+            throw new IOException("cannot parse " + file, xse);
+        }
+    }
+
+    @Override
+    public HttpMessage next() throws IOException {
+        try {
+            byte[] request = null;
+            byte[] response = null;
+            String protocol = null;
+            String host = null;
+            int port = -1;
+            boolean in_item = false;
+            while(_xml.hasNext()) {
+                int event = _xml.next();
+                if(event == XMLStreamConstants.START_ELEMENT) {
+                    String name = _xml.getLocalName();
+                    if("item".equals(name)) {
+                        in_item = true;
+                    } else if(!in_item) {
+                        continue;
+                    } else if("request".equals(name)) {
+                        request = content();
+                    } else if("response".equals(name)) {
+                        response = content();
+                    } else if("protocol".equals(name)) {
+                        protocol = _xml.getElementText().trim();
+                    } else if("host".equals(name)) {
+                        host = _xml.getElementText().trim();
+                    } else if("port".equals(name)) {
+                        try {
+                            port = Integer.parseInt(_xml.getElementText().trim());
+                        } catch (NumberFormatException nfe) {
+                            port = -1;
+                        }
+                    }
+                } else if((event == XMLStreamConstants.END_ELEMENT) && in_item && "item".equals(_xml.getLocalName())) {
+                    if(request == null) {
+                        //
+                        // Nothing to save for this item
+                        //
+                        in_item = false;
+                        continue;
+                    }
+                    return new RawMessage(request, response, protocol, host, port);
+                }
+            }
+            return null;
+        } catch (XMLStreamException xse) {
+            throw new IOException("malformed Burp XML file", xse);
+        }
+    }
+
+    /**
+     * Read content of a request or response element
+     * <p>
+     * The parser is positioned on the start tag and is left on the end tag.
+     * @return message bytes, <code>null</code> if the element is empty
+     * @throws XMLStreamException when the file is not well formed
+     */
+    private byte[] content() throws XMLStreamException {
+        boolean base64 = "true".equals(_xml.getAttributeValue(null, "base64"));
+        _base64.reset();
+        _text.setLength(0);
+        int event;
+        while((event = _xml.next()) != XMLStreamConstants.END_ELEMENT) {
+            if((event == XMLStreamConstants.CHARACTERS) || (event == XMLStreamConstants.CDATA) ||
+               (event == XMLStreamConstants.SPACE)) {
+                if(base64) {
+                    _base64.feed(_xml.getTextCharacters(), _xml.getTextStart(), _xml.getTextLength());
+                } else {
+                    _text.append(_xml.getTextCharacters(), _xml.getTextStart(), _xml.getTextLength());
+                }
+            }
+        }
+        byte[] bar = base64 ? _base64.toByteArray() : _text.toString().getBytes(StandardCharsets.ISO_8859_1);
+        _text.setLength(0);
+        return (bar.length > 0) ? bar : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            _xml.close();
+        } catch (XMLStreamException xse) {
+            //
+            // Ignore: the file itself is closed below
+            //
+        } finally {
+            _in.close();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sink that stores every distinct body only once.
+ * <p>
+ * Each body is hashed (SHA-256) straight from the original byte array. The first body with
+ * a given hash is written once, as "<code>blobs/&lt;hash&gt;&lt;extension&gt;</code>". The regular name of
+ * every body, including the first, then becomes a hard link to that blob. When the underlying
+ * sink does not support links (e.g. archives), the name is recorded in a manifest instead,
+ * written as "<code>dedup-manifest.tsv</code>" when the sink is closed.
+ * </p>
+ */
+public class DedupSink implements BodySink {
+    /**
+     * Subdirectory for the unique bodies
+     */
+    private final static String BLOB_DIR = "blobs/";
+    /**
+     * Name of manifest for bodies that could not be linked
+     */
+    final static String MANIFEST_NAME = "dedup-manifest.tsv";
+    /**
+     * Hexadecimal digits
+     */
+    private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * State of one unique body
+     */
+    private static class Blob {
+        /**
+         * Name under which the body is stored
+         */
+        final String name;
+        /**
+         * Set once the body has been written successfully
+         */
+        boolean written = false;
+        /**
+         * Offset of the body data in the output archive, -1 if not applicable
+         */
+        long offset = -1;
+
+        Blob(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Writes a unique body to the underlying sink
+     */
+    private interface BlobWriter {
+        /**
+         * Write the body
+         * @param blob name of the blob
+         * @return offset of the body data in the output archive, -1 if not applicable
+         * @throws IOException when the body could not be written
+         */
+        long write(String blob) throws IOException;
+    }
+
+    /**
+     * Sink that does the actual writing
+     */
+    private final BodySink _sink;
+    /**
+     * Unique bodies written so far, by hash
+     */
+    private final ConcurrentHashMap<String, Blob> _blobs = new ConcurrentHashMap<String, Blob>();
+    /**
+     * Manifest lines for bodies that could not be linked
+     */
+    private final StringBuilder _manifest = new StringBuilder();
+
+    /**
+     * Create new deduplicating sink
+     * @param sink sink that does the actual writing
+     */
+    public DedupSink(BodySink sink) {
+        _sink = sink;
+    }
+
+    @Override
+    public long write(String name, final byte[] bar, final int ofs, final int len) throws IOException {
+        MessageDigest md = newDigest();
+        md.update(bar, ofs, len);
+        String hash = hex(md.digest());
+        Blob blob = store(name, hash, new BlobWriter() {
+            @Override
+            public long write(String blob) throws IOException {
+                return _sink.write(blob, bar, ofs, len);
+            }
+        });
+        record(name, hash, blob);
+        return blob.offset;
+    }
+
+    /**
+     * Find the written blob with a hash, writing it if nobody has done so yet
+     * @param name regular name of the body
+     * @param hash hash of the body
+     * @param writer writes the body when needed
+     * @return blob that has been written
+     * @throws IOException when the body had to be written here and that failed
+     */
+    private Blob store(String name, String hash, BlobWriter writer) throws IOException {
+        for(;;) {
+            Blob mine = new Blob(blobName(name, hash));
+            Blob blob;
+            //
+            // Hold the lock on our own blob while it is published: anybody finding it in
+            // the map then waits until it has been written
+            //
+            synchronized(mine) {
+                blob = _blobs.putIfAbsent(hash, mine);
+                if(blob == null) {
+                    try {
+                        mine.offset = writer.write(mine.name);
+                        mine.written = true;
+                    } finally {
+                        if(!mine.written) {
+                            //
+                            // Let the next body with this hash try again
+                            //
+                            _blobs.remove(hash, mine);
+                        }
+                    }
+                    return mine;
+                }
+            }
+            synchronized(blob) {
+                if(blob.written) {
+                    return blob;
+                }
+            }
+            //
+            // Writing failed for the body that published the blob, which is withdrawn by now:
+            // this body takes over
+            //
+        }
+    }
+
+    /**
+     * Build name under which a unique body is stored
+     * @param name regular name of the body, provides the file extension
+     * @param hash hash of the body
+     * @return name of the blob
+     */
+    private static String blobName(String name, String hash) {
+        int dot = name.lastIndexOf('.');
+        return BLOB_DIR + hash + ((dot >= 0) ? name.substring(dot) : "");
+    }
+
+    /**
+     * Make body available under its regular name
+     * @param name regular name of the body
+     * @param hash hash of the body
+     * @param blob unique body with this hash
+     * @throws IOException when the blob could not be linked
+     */
+    private void record(String name, String hash, Blob blob) throws IOException {
+        if(!_sink.link(name, blob.name)) {
+            synchronized(_manifest) {
+                _manifest.append(name).append('\t').append(hash).append('\t').append(blob.name).append('\n');
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The hash is only known once the whole body has been seen, so the body is collected
+     * in a temporary file and handled like {@link #write} when the stream is closed.
+     */
+    @Override
+    public OutputStream open(final String name) throws IOException {
+        final MessageDigest md = newDigest();
+        return new DigestOutputStream(new SpoolOutputStream() {
+            @Override
+            protected void spooled(final Path tmp, long size) throws IOException {
+                String hash = hex(md.digest());
+                Blob blob = store(name, hash, new BlobWriter() {
+                    @Override
+                    public long write(String blob) throws IOException {
+                        OutputStream os = _sink.open(blob);
+                        try {
+                            Files.copy(tmp, os);
+                        } finally {
+                            os.close();
+                        }
+                        return -1;
+                    }
+                });
+                record(name, hash, blob);
+            }
+        }, md);
+    }
+
+    /**
+     * Create SHA-256 message digest
+     * @return new digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            //
+            // Every Java platform is required to support SHA-256
+            //
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * Format hash as hexadecimal string
+     * @param dig hash value
+     * @return hash as lowercase hexadecimal string
+     */
+    private static String hex(byte[] dig) {
+        char[] out = new char[dig.length * 2];
+        for(int i = 0; i < dig.length; i++) {
+            out[2 * i] = HEX[(dig[i] >> 4) & 0x0f];
+            out[2 * i + 1] = HEX[dig[i] & 0x0f];
+        }
+        return new String(out);
+    }
+
+    @Override
+    public boolean link(String name, String existing) throws IOException {
+        return _sink.link(name, existing);
+    }
+
+    @Override
+    public String storedName(String name) {
+        return _sink.storedName(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Failures name the blob, the regular names of the body are in the dedup manifest.
+     */
+    @Override
+    public void setFailureListener(FailureListener listener) {
+        _sink.setFailureListener(listener);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized(_manifest) {
+            if(_manifest.length() > 0) {
+                byte[] bar = _manifest.toString().getBytes(StandardCharsets.UTF_8);
+                _sink.write(MANIFEST_NAME, bar, 0, bar.length);
+            }
+        }
+        _sink.close();
+    }
+}
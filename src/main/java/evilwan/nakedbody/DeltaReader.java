@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Rebuilds bodies that were saved as delta by {@link DeltaStore}.
+ * <p>
+ * Works on an output directory of separate files (with or without gzip compression). Bodies
+ * that were stored in full are returned as they are, so any name from the manifest can be
+ * passed in. Names that {@link DedupSink} could not link are looked up in its manifest. Can also be
+ * run from the command line:
+ * </p>
+ * <pre>
+ *     java -cp NakedBody-2.0.jar evilwan.nakedbody.DeltaReader &lt;output directory&gt; &lt;name&gt; [&lt;destination file&gt;]
+ * </pre>
+ */
+public class DeltaReader {
+    /**
+     * Output directory of the export
+     */
+    private final Path _dir;
+    /**
+     * Blob per name from the dedup manifest, <code>null</code> until needed
+     */
+    private Map<String, String> _blobs;
+
+    /**
+     * Create reader
+     * @param dir output directory of the export
+     */
+    public DeltaReader(Path dir) {
+        _dir = dir;
+    }
+
+    /**
+     * Rebuild a body
+     * @param name name of the body as listed in the manifest, relative to the output directory, without
+     *             "{@value GzipSink#SUFFIX}" if the export was compressed; the name it would have had without
+     *             delta storage works as well
+     * @return the body
+     * @throws IOException when the body or one of its bases could not be read, or is corrupt
+     */
+    public byte[] read(String name) throws IOException {
+        if(!exists(name) && exists(name + DeltaStore.SUFFIX)) {
+            name += DeltaStore.SUFFIX;
+        }
+        byte[] bar = load(name);
+        if(!name.endsWith(DeltaStore.SUFFIX) || (name.endsWith(GzipSink.SUFFIX))) {
+            return bar;
+        }
+        for(int i = 0; i < DeltaStore.MAGIC.length; i++) {
+            if((bar.length <= i) || (bar[i] != DeltaStore.MAGIC[i])) {
+                throw new IOException(name + ": not a delta file");
+            }
+        }
+        try {
+            int[] pos = { DeltaStore.MAGIC.length };
+            int namlen = (int) BinaryDelta.readVarint(bar, pos);
+            String base_name = new String(bar, pos[0], namlen, StandardCharsets.UTF_8);
+            pos[0] += namlen;
+            int len = (int) BinaryDelta.readVarint(bar, pos);
+            long expected = ((bar[pos[0]] & 0xffL) << 24) | ((bar[pos[0] + 1] & 0xffL) << 16) |
+                ((bar[pos[0] + 2] & 0xffL) << 8) | (bar[pos[0] + 3] & 0xffL);
+            pos[0] += 4;
+            byte[] body = BinaryDelta.apply(read(base_name), bar, pos[0], len);
+            CRC32C crc = new CRC32C();
+            crc.update(body, 0, body.length);
+            if(crc.getValue() != expected) {
+                throw new IOException(name + ": checksum mismatch");
+            }
+            return body;
+        } catch (IndexOutOfBoundsException ioobe) {
+            throw new IOException(name + ": corrupt delta file", ioobe);
+        }
+    }
+
+    /**
+     * Check if a file was stored, with or without gzip compression
+     * @param name name of the file, without "{@value GzipSink#SUFFIX}"
+     * @return <code>true</code> if the file exists
+     * @throws IOException when the dedup manifest could not be read
+     */
+    private boolean exists(String name) throws IOException {
+        return (locate(name) != null) || (locate(name + GzipSink.SUFFIX) != null);
+    }
+
+    /**
+     * Find a stored file, either under its own name or as the blob it was deduplicated to
+     * @param name name of the file
+     * @return path of the file, <code>null</code> if it does not exist
+     * @throws IOException when the dedup manifest could not be read
+     */
+    private Path locate(String name) throws IOException {
+        Path p = _dir.resolve(name);
+        if(Files.exists(p)) {
+            return p;
+        }
+        if(_blobs == null) {
+            _blobs = new HashMap<>();
+            Path manifest = _dir.resolve(DedupSink.MANIFEST_NAME);
+            if(Files.exists(manifest)) {
+                for(String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                    String[] fields = line.split("\t");
+                    if(fields.length == 3) {
+                        _blobs.put(fields[0], fields[2]);
+                    }
+                }
+            }
+        }
+        String blob = _blobs.get(name);
+        if((blob != null) && Files.exists(_dir.resolve(blob))) {
+            return _dir.resolve(blob);
+        }
+        return null;
+    }
+
+    /**
+     * Read a stored file, decompressing it if it was saved with gzip
+     * @param name name of the body, without "{@value GzipSink#SUFFIX}"
+     * @return contents of the file
+     * @throws IOException when the file could not be read
+     */
+    private byte[] load(String name) throws IOException {
+        Path p = locate(name);
+        if(p != null) {
+            return Files.readAllBytes(p);
+        }
+        Path gz = locate(name + GzipSink.SUFFIX);
+        if(gz != null) {
+            try(InputStream in = new GZIPInputStream(Files.newInputStream(gz), 1 << 16)) {
+                return in.readAllBytes();
+            }
+        }
+        throw new IOException(name + ": not found in " + _dir);
+    }
+
+    /**
+     * Command line entry point
+     * @param args output directory, name of the body and optional destination file
+     * @throws IOException when the body could not be rebuilt or written
+     */
+    public static void main(String[] args) throws IOException {
+        if((args.length < 2) || (args.length > 3)) {
+            System.err.println("usage: DeltaReader <output directory> <name> [<destination file>]");
+            System.exit(2);
+        }
+        String name = args[1];
+        if(name.endsWith(DeltaStore.SUFFIX + GzipSink.SUFFIX)) {
+            name = name.substring(0, name.length() - GzipSink.SUFFIX.length());
+        }
+        byte[] body = new DeltaReader(Paths.get(args[0])).read(name);
+        if(args.length == 3) {
+            Files.write(Paths.get(args[2]), body);
+        } else {
+            OutputStream os = System.out;
+            os.write(body);
+            os.flush();
+        }
+    }
+}
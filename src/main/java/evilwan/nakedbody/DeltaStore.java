@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps the latest body per endpoint, so that the next body for the same endpoint can be
+ * stored as a delta against it.
+ * <p>
+ * Bodies are grouped by direction, method and URL without query string, so polling an
+ * endpoint or paging through an API ends up in one group. The first body of a group is
+ * stored in full; every later one is encoded against the previous version with
+ * {@link BinaryDelta} and stored with "{@value #SUFFIX}" appended to its name, unless the delta
+ * would not be at least half the size of the body. After {@link #MAX_CHAIN} deltas in a row
+ * the body is stored in full again, which bounds the work of rebuilding a version.
+ * </p>
+ * <p>
+ * A delta file starts with "<code>NBD1</code>", followed by the name of its base (varint length
+ * and UTF-8 bytes, relative to the output location), the length of the body (varint), the
+ * CRC-32C of the body (4 bytes, big endian) and the delta instructions. Use {@link DeltaReader}
+ * to rebuild a body.
+ * </p>
+ * <p>
+ * The previous versions are kept in memory, least recently used groups are forgotten once
+ * they take more than {@link #MAX_MEMORY} bytes.
+ * </p>
+ */
+public class DeltaStore {
+    /**
+     * Appended to the name of bodies stored as delta
+     */
+    public final static String SUFFIX = ".delta";
+    /**
+     * First bytes of every delta file
+     */
+    final static byte[] MAGIC = { 'N', 'B', 'D', '1' };
+    /**
+     * Largest body that takes part in delta storage
+     */
+    private final static int MAX_BODY = 8 << 20;
+    /**
+     * Maximum number of bytes of previous versions kept in memory
+     */
+    private final static long MAX_MEMORY = 64L << 20;
+    /**
+     * Maximum number of deltas in a row before a body is stored in full again
+     */
+    private final static int MAX_CHAIN = 32;
+
+    /**
+     * Latest version of a group
+     */
+    private static class Version {
+        /**
+         * Name it was stored under
+         */
+        final String name;
+        /**
+         * The body
+         */
+        final byte[] body;
+        /**
+         * Number of deltas between this version and the last full one
+         */
+        final int chain;
+
+        /**
+         * Create version
+         * @param name name it was stored under
+         * @param body the body
+         * @param chain number of deltas between this version and the last full one
+         */
+        Version(String name, byte[] body, int chain) {
+            this.name = name;
+            this.body = body;
+            this.chain = chain;
+        }
+    }
+
+    /**
+     * A body encoded against the latest version of its group, not yet the latest version itself
+     */
+    public static class Encoding {
+        /**
+         * Group of the body
+         */
+        private final String _key;
+        /**
+         * Version the body becomes once it is stored
+         */
+        private final Version _version;
+        /**
+         * Contents of the delta file, <code>null</code> if the body has to be stored in full
+         */
+        private final byte[] _delta;
+
+        /**
+         * Create encoding
+         * @param key group of the body
+         * @param version version the body becomes once it is stored
+         * @param delta contents of the delta file, <code>null</code> if the body has to be stored in full
+         */
+        private Encoding(String key, Version version, byte[] delta) {
+            _key = key;
+            _version = version;
+            _delta = delta;
+        }
+
+        /**
+         * @return contents of the delta file, <code>null</code> if the body has to be stored in full
+         */
+        public byte[] getDelta() {
+            return _delta;
+        }
+    }
+
+    /**
+     * Latest version per group, least recently used first
+     */
+    private final LinkedHashMap<String, Version> _latest = new LinkedHashMap<String, Version>(256, 0.75f, true);
+    /**
+     * Number of body bytes in {@link #_latest}
+     */
+    private long _memory = 0;
+
+    /**
+     * Build the group key of a body
+     * <p>
+     * Besides direction, method and URL, the key holds whatever follows the sequence number
+     * in the file name (the part number and file extension), so that the parts of a multipart
+     * body and bodies of different types are not mixed.
+     * @param entry manifest entry of the body
+     * @param filnam name the body is stored under
+     * @return the key, <code>null</code> if the body cannot be grouped
+     */
+    public static String key(ManifestEntry entry, String filnam) {
+        String url = entry.getUrl();
+        if(url == null) {
+            return null;
+        }
+        int q = url.indexOf('?');
+        String seq = String.format("-%06d", entry.getSeq());
+        int pos = filnam.lastIndexOf(seq);
+        return entry.getDirection() + ' ' + entry.getMethod() + ' ' + ((q < 0) ? url : url.substring(0, q)) + ' ' +
+            ((pos < 0) ? "" : filnam.substring(pos + seq.length()));
+    }
+
+    /**
+     * Encode a body against the previous version of its group
+     * <p>
+     * The body only becomes the version later bodies are encoded against once it is stored
+     * and {@link #commit(Encoding)} is called: a body that could not be written is never used
+     * as a base. Safe to call from several worker threads at once. When two bodies of the same
+     * group are saved at the same time, both may be encoded against the same earlier version.
+     * @param key group of the body, see {@link #key(ManifestEntry, String)}
+     * @param name name the body is stored under when stored in full
+     * @param bar contains the body
+     * @param ofs zero based offset of the body
+     * @param len number of body bytes
+     * @return the encoding, <code>null</code> if the body is too large to take part in delta storage
+     */
+    public Encoding encode(String key, String name, byte[] bar, int ofs, int len) {
+        if(len > MAX_BODY) {
+            return null;
+        }
+        Version prev;
+        synchronized(this) {
+            prev = _latest.get(key);
+        }
+        byte[] res = null;
+        if((prev != null) && (prev.chain < MAX_CHAIN)) {
+            byte[] ops = BinaryDelta.encode(prev.body, bar, ofs, len);
+            if(ops.length < len / 2) {
+                res = file(prev.name, bar, ofs, len, ops);
+            }
+        }
+        byte[] body = new byte[len];
+        System.arraycopy(bar, ofs, body, 0, len);
+        Version cur = (res != null) ? new Version(name + SUFFIX, body, prev.chain + 1) : new Version(name, body, 0);
+        return new Encoding(key, cur, res);
+    }
+
+    /**
+     * Make a body that has been stored the latest version of its group
+     * @param enc encoding of the body, as returned by {@link #encode(String, String, byte[], int, int)}
+     */
+    public void commit(Encoding enc) {
+        Version cur = enc._version;
+        synchronized(this) {
+            Version old = _latest.put(enc._key, cur);
+            _memory += cur.body.length - ((old != null) ? old.body.length : 0);
+            Iterator<Map.Entry<String, Version>> it = _latest.entrySet().iterator();
+            while((_memory > MAX_MEMORY) && it.hasNext()) {
+                _memory -= it.next().getValue().body.length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Build the contents of a delta file
+     * @param base_name name of the base
+     * @param bar contains the body
+     * @param ofs zero based offset of the body
+     * @param len number of body bytes
+     * @param ops delta instructions
+     * @return contents of the delta file
+     */
+    private static byte[] file(String base_name, byte[] bar, int ofs, int len, byte[] ops) {
+        byte[] nam = base_name.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(ops.length + nam.length + 32);
+        out.write(MAGIC, 0, MAGIC.length);
+        BinaryDelta.varint(out, nam.length);
+        out.write(nam, 0, nam.length);
+        BinaryDelta.varint(out, len);
+        CRC32C crc = new CRC32C();
+        crc.update(bar, ofs, len);
+        long v = crc.getValue();
+        out.write((int) (v >>> 24));
+        out.write((int) (v >>> 16));
+        out.write((int) (v >>> 8));
+        out.write((int) v);
+        out.write(ops, 0, ops.length);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+
+package evilwan.nakedbody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Finds base64 encoded payloads inside text bodies: <code>data:</code> URIs in HTML and CSS,
+ * base64 file blobs in JSON and inlined WebAssembly in JavaScript.
+ * <p>
+ * The body is scanned once, in place. Only runs of at least {@link #MIN_RUN} base64 characters
+ * are of interest, and every such run covers the last byte of any window of that size it
+ * starts in: the scanner only looks at every {@link #MIN_RUN}th byte until it hits a base64
+ * character, and then grows the run in both directions. Plain text, markup and minified code
+ * are mostly skipped without being looked at.
+ * </p>
+ * <p>
+ * A run right after "<code>data:</code><i>media type</i><code>;base64,</code>" is always reported,
+ * with the media type of the URI. Any other run is only reported when its first decoded bytes
+ * have the signature of a known file type (see {@link MediaTypes#sniff(byte[], int, int)}), so
+ * tokens, hashes and long identifiers are dropped after decoding a few bytes. Runs are decoded
+ * with {@link Base64Decoder} as they are found; JSON escaped slashes ("<code>\/</code>") are
+ * accepted inside a run.
+ * </p>
+ */
+public class EmbeddedPayloadScanner {
+    /**
+     * Receives the payloads found in a body
+     */
+    public interface PayloadHandler {
+        /**
+         * Called for every payload, in body order
+         * @param index zero based index of the payload
+         * @param media_type media type of a <code>data:</code> URI, <code>null</code> for other payloads
+         * @param bar byte array holding the decoded payload
+         * @param ofs zero based offset of the decoded payload
+         * @param len number of bytes in the decoded payload
+         */
+        void payload(int index, String media_type, byte[] bar, int ofs, int len);
+    }
+
+    /**
+     * Minimum number of characters in a base64 run (24 decoded bytes)
+     */
+    public final static int MIN_RUN = 32;
+    /**
+     * Maximum number of payloads reported per body
+     */
+    public final static int MAX_PAYLOADS = 1000;
+    /**
+     * Maximum number of bytes between "<code>data:</code>" and "<code>;base64,</code>"
+     */
+    private final static int MAX_DATA_PREFIX = 128;
+    /**
+     * Marker between the media type of a <code>data:</code> URI and its payload
+     */
+    private final static byte[] BASE64_MARKER = ";base64,".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Start of a <code>data:</code> URI
+     */
+    private final static byte[] DATA_SCHEME = "data:".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Number of characters decoded to recognize a payload that is not a <code>data:</code> URI
+     */
+    private final static int SNIFF_CHARS = (MediaTypes.SNIFF_SIZE + 2) / 3 * 4;
+    /**
+     * File extensions of the bodies worth scanning
+     */
+    private final static String[] TEXT_EXTENSIONS = { ".html", ".css", ".js", ".json", ".xml", ".svg", ".txt" };
+    /**
+     * Class of every byte value: 1 for base64 characters, 2 for a backslash, 0 for anything else
+     */
+    private final static byte[] CLASSES = new byte[256];
+
+    static {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/-_";
+        for(int i = 0; i < alphabet.length(); i++) {
+            CLASSES[alphabet.charAt(i)] = 1;
+        }
+        CLASSES['\\'] = 2;
+    }
+
+    /**
+     * Utility class, no instances
+     */
+    private EmbeddedPayloadScanner() {
+    }
+
+    /**
+     * Check whether bodies of a file type can hold embedded payloads
+     * @param ext file extension of the body, as guessed by {@link MediaTypes}
+     * @return <code>true</code> for text formats
+     */
+    public static boolean isText(String ext) {
+        return Arrays.asList(TEXT_EXTENSIONS).contains(ext);
+    }
+
+    /**
+     * Find and decode all payloads in a body
+     * @param bar contains the body
+     * @param ofs zero based offset of the body
+     * @param len number of body bytes
+     * @param handler receives the decoded payloads
+     * @return number of payloads found
+     */
+    public static int scan(byte[] bar, int ofs, int len, PayloadHandler handler) {
+        int end = ofs + len;
+        int pos = ofs;
+        int count = 0;
+        Base64Decoder dec = null;
+        while((pos + MIN_RUN <= end) && (count < MAX_PAYLOADS)) {
+            int probe = pos + MIN_RUN - 1;
+            if(!inRun(bar, probe, end)) {
+                //
+                // No run of MIN_RUN characters can start anywhere up to the probe
+                //
+                pos = probe + 1;
+                continue;
+            }
+            int start = probe;
+            while((start > pos) && inRun(bar, start - 1, end)) {
+                start--;
+            }
+            int stop = probe + 1;
+            while((stop < end) && inRun(bar, stop, end)) {
+                stop++;
+            }
+            pos = stop;
+            if(stop - start < MIN_RUN) {
+                continue;
+            }
+            if(dec == null) {
+                dec = new Base64Decoder(4096);
+            }
+            String media_type = dataMediaType(bar, ofs, start);
+            int i = start;
+            if(media_type == null) {
+                //
+                // Decode just enough to see what it is
+                //
+                for(; i < start + SNIFF_CHARS; i++) {
+                    dec.feed((char) bar[i]);
+                }
+                if(MediaTypes.sniff(dec.buffer(), 0, dec.size()) == null) {
+                    dec.reset();
+                    continue;
+                }
+            }
+            for(; i < stop; i++) {
+                dec.feed((char) bar[i]);
+            }
+            byte[] payload = dec.toByteArray();
+            if(payload.length > 0) {
+                handler.payload(count++, media_type, payload, 0, payload.length);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check whether a byte belongs to a base64 run
+     * @param bar contains the body
+     * @param i zero based offset of the byte
+     * @param end offset just after the body
+     * @return <code>true</code> for a base64 character or the backslash of an escaped slash
+     */
+    private static boolean inRun(byte[] bar, int i, int end) {
+        int c = CLASSES[bar[i] & 0xff];
+        return (c == 1) || ((c == 2) && (i + 1 < end) && (bar[i + 1] == '/'));
+    }
+
+    /**
+     * Get the media type of the <code>data:</code> URI a base64 run belongs to
+     * @param bar contains the body
+     * @param ofs zero based offset of the body
+     * @param start zero based offset of the base64 run
+     * @return normalized media type ("<code>text/plain</code>" if the URI has none),
+     *         <code>null</code> if the run is not the payload of a <code>data:</code> URI
+     */
+    private static String dataMediaType(byte[] bar, int ofs, int start) {
+        int marker = start - BASE64_MARKER.length;
+        if((marker < ofs) || !matches(bar, marker, BASE64_MARKER)) {
+            return null;
+        }
+        for(int i = marker - DATA_SCHEME.length; (i >= ofs) && (i >= marker - MAX_DATA_PREFIX); i--) {
+            if(matches(bar, i, DATA_SCHEME)) {
+                int mt = i + DATA_SCHEME.length;
+                int semi = mt;
+                while((semi < marker) && (bar[semi] != ';')) {
+                    semi++;
+                }
+                String type = new String(bar, mt, semi - mt, StandardCharsets.ISO_8859_1);
+                String norm = MediaTypes.normalize(type);
+                return ((norm != null) && !norm.isEmpty()) ? norm : "text/plain";
+            }
+            byte b = bar[i + DATA_SCHEME.length - 1];
+            if((b == '"') || (b == '\'') || (b == '(') || (b == '<') || (b == '>') || (b == ' ')) {
+                //
+                // Left the URI without finding its scheme
+                //
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compare bytes without case
+     * @param bar contains the body
+     * @param i zero based offset to compare at
+     * @param what lowercase ASCII bytes to look for
+     * @return <code>true</code> if the body has those bytes at that offset
+     */
+    private static boolean matches(byte[] bar, int i, byte[] what) {
+        for(int j = 0; j < what.length; j++) {
+            int b = bar[i + j];
+            if((b >= 'A') && (b <= 'Z')) {
+                b += 'a' - 'A';
+            }
+            if(b != what[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.IOException;
+
+/**
+ * Everything the worker threads of one save operation write to: the body sink and
+ * the manifest, together with the job that keeps track of progress.
+ * <p>
+ * For resumable exports, the context also holds the fingerprints of the messages that were
+ * exported before.
+ */
+public class ExportContext {
+    /**
+     * Job this output belongs to
+     */
+    private final SaveJob _job;
+    /**
+     * Settings for the save operation
+     */
+    private final SaveOptions _opts;
+    /**
+     * Destination for the bodies
+     */
+    private final BodySink _sink;
+    /**
+     * Manifest describing every saved body
+     */
+    private final ManifestWriter _manifest;
+    /**
+     * Prefix for all output file names
+     */
+    private final String _prefix;
+    /**
+     * Messages exported before, <code>null</code> if the export is not resumable
+     */
+    private final FingerprintStore _fingerprints;
+    /**
+     * Sequence numbers for new messages, past the ones in use; <code>null</code> if the export is not resumable
+     */
+    private final SequenceAllocator.Sequence _sequence;
+    /**
+     * Criteria a message has to meet to be saved, <code>null</code> if every message has to be saved
+     */
+    private final MessageFilter _filter;
+    /**
+     * Previous versions of bodies, <code>null</code> if bodies are always stored in full
+     */
+    private final DeltaStore _deltas;
+    /**
+     * Trigram index of the saved bodies, <code>null</code> if no index has to be built
+     */
+    private final TrigramIndexWriter _index;
+
+    /**
+     * Create new context
+     * @param job job this output belongs to
+     * @param opts settings for the save operation
+     * @param prefix prefix for all output file names
+     * @param sink destination for the bodies
+     * @param manifest manifest describing every saved body
+     * @param fingerprints messages exported before, <code>null</code> if the export is not resumable
+     * @param sequence sequence numbers for new messages, <code>null</code> if the export is not resumable
+     * @param filter criteria a message has to meet to be saved, <code>null</code> if every message has to be saved
+     * @param deltas previous versions of bodies, <code>null</code> if bodies are always stored in full
+     * @param index trigram index of the saved bodies, <code>null</code> if no index has to be built
+     */
+    public ExportContext(SaveJob job, SaveOptions opts, String prefix, BodySink sink, ManifestWriter manifest,
+                         FingerprintStore fingerprints, SequenceAllocator.Sequence sequence, MessageFilter filter,
+                         DeltaStore deltas, TrigramIndexWriter index) {
+        _job = job;
+        _opts = opts;
+        _prefix = prefix;
+        _sink = sink;
+        _manifest = manifest;
+        _fingerprints = fingerprints;
+        _sequence = sequence;
+        _filter = filter;
+        _deltas = deltas;
+        _index = index;
+    }
+
+    /**
+     * @return job this output belongs to
+     */
+    public SaveJob getJob() {
+        return _job;
+    }
+
+    /**
+     * @return settings for the save operation
+     */
+    public SaveOptions getOptions() {
+        return _opts;
+    }
+
+    /**
+     * @return prefix for all output file names
+     */
+    public String getPrefix() {
+        return _prefix;
+    }
+
+    /**
+     * @return messages exported before, <code>null</code> if the export is not resumable
+     */
+    public FingerprintStore getFingerprints() {
+        return _fingerprints;
+    }
+
+    /**
+     * @return sequence numbers for new messages, past the ones in use; <code>null</code> if the export is not
+     *         resumable
+     */
+    public SequenceAllocator.Sequence getSequence() {
+        return _sequence;
+    }
+
+    /**
+     * @return criteria a message has to meet to be saved, <code>null</code> if every message has to be saved
+     */
+    public MessageFilter getFilter() {
+        return _filter;
+    }
+
+    /**
+     * @return previous versions of bodies, <code>null</code> if bodies are always stored in full
+     */
+    public DeltaStore getDeltas() {
+        return _deltas;
+    }
+
+    /**
+     * @return trigram index of the saved bodies, <code>null</code> if no index has to be built
+     */
+    public TrigramIndexWriter getIndex() {
+        return _index;
+    }
+
+    /**
+     * @return destination for the bodies
+     */
+    public BodySink getSink() {
+        return _sink;
+    }
+
+    /**
+     * @return manifest describing every saved body
+     */
+    public ManifestWriter getManifest() {
+        return _manifest;
+    }
+
+    /**
+     * Close sink, manifest, fingerprints and index
+     * @throws IOException when closing any of them failed
+     */
+    public void close() throws IOException {
+        try {
+            _sink.close();
+        } finally {
+            try {
+                _manifest.close();
+            } finally {
+                try {
+                    if(_fingerprints != null) {
+                        _fingerprints.close();
+                    }
+                } finally {
+                    if(_index != null) {
+                        _index.close();
+                    }
+                }
+            }
+        }
+    }
+}
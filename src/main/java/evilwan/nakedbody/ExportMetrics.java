@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timing and volume figures of one save job, updated by all worker threads at once.
+ * <p>
+ * For every phase of saving a body, the number of calls, the total time and a latency
+ * histogram with power of two buckets (1 ns, 2 ns, 4 ns, ...) are kept. Percentiles are read
+ * from the histogram, so they are accurate within a factor of two, which is plenty to see
+ * where the time goes. Saved files and bytes are also broken down per media type.
+ * </p>
+ */
+public class ExportMetrics {
+    /**
+     * Phases of saving a message
+     */
+    public enum Phase {
+        /**
+         * Splitting messages into head and body
+         */
+        ANALYZE("analyze"),
+        /**
+         * Guessing the file type of a body
+         */
+        CLASSIFY("classify"),
+        /**
+         * Decoding a body (URL decoding, transfer and content encodings) while it is written
+         */
+        DECODE("decode"),
+        /**
+         * Finding and decoding payloads embedded in text bodies
+         */
+        EXTRACT("extract"),
+        /**
+         * Writing a body as-is
+         */
+        WRITE("write");
+
+        /**
+         * Name used in reports
+         */
+        private final String _label;
+
+        /**
+         * Create phase
+         * @param label name used in reports
+         */
+        Phase(String label) {
+            _label = label;
+        }
+
+        /**
+         * @return name used in reports
+         */
+        public String getLabel() {
+            return _label;
+        }
+    }
+
+    /**
+     * File name suffix for the JSON summary
+     */
+    public final static String SUFFIX = ".metrics.json";
+    /**
+     * Number of histogram buckets per phase: bucket <i>i</i> counts durations below 2<sup>i</sup> ns
+     */
+    private final static int BUCKETS = 40;
+    /**
+     * Number of error messages kept
+     */
+    private final static int MAX_ERRORS = 20;
+
+    /**
+     * Calls per phase
+     */
+    private final AtomicLongArray _calls = new AtomicLongArray(Phase.values().length);
+    /**
+     * Total nanoseconds per phase
+     */
+    private final AtomicLongArray _nanos = new AtomicLongArray(Phase.values().length);
+    /**
+     * Longest call per phase, in nanoseconds
+     */
+    private final AtomicLongArray _max = new AtomicLongArray(Phase.values().length);
+    /**
+     * Failures per phase
+     */
+    private final AtomicLongArray _failures = new AtomicLongArray(Phase.values().length);
+    /**
+     * Latency histograms of all phases, one after the other
+     */
+    private final AtomicLongArray _histogram = new AtomicLongArray(Phase.values().length * BUCKETS);
+    /**
+     * Files and bytes saved per media type
+     */
+    private final Map<String, AtomicLong[]> _media = new ConcurrentHashMap<String, AtomicLong[]>();
+    /**
+     * Most recent error messages
+     */
+    private final Deque<String> _errors = new ArrayDeque<String>();
+
+    /**
+     * Account for one call of a phase
+     * @param phase phase that was executed
+     * @param start value of {@link System#nanoTime()} when the phase started
+     */
+    public void time(Phase phase, long start) {
+        long ns = Math.max(0, System.nanoTime() - start);
+        int p = phase.ordinal();
+        _calls.incrementAndGet(p);
+        _nanos.addAndGet(p, ns);
+        long max;
+        while((max = _max.get(p)) < ns) {
+            if(_max.compareAndSet(p, max, ns)) {
+                break;
+            }
+        }
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(ns));
+        _histogram.incrementAndGet(p * BUCKETS + bucket);
+    }
+
+    /**
+     * Account for a failure
+     * @param phase phase that failed
+     * @param what description of what failed
+     * @param e the error
+     */
+    public void failure(Phase phase, String what, Exception e) {
+        _failures.incrementAndGet(phase.ordinal());
+        synchronized(_errors) {
+            if(_errors.size() == MAX_ERRORS) {
+                _errors.removeFirst();
+            }
+            _errors.addLast(phase.getLabel() + " " + what + ": " + e);
+        }
+    }
+
+    /**
+     * Account for a saved file
+     * @param media_type normalized media type of the body, <code>null</code> if not known
+     * @param len number of bytes saved
+     */
+    public void saved(String media_type, long len) {
+        String key = (media_type != null) ? media_type : "unknown";
+        AtomicLong[] counts = _media.computeIfAbsent(key, k -> new AtomicLong[] { new AtomicLong(), new AtomicLong() });
+        counts[0].incrementAndGet();
+        counts[1].addAndGet(len);
+    }
+
+    /**
+     * @param phase a phase
+     * @return number of calls of the phase
+     */
+    public long getCalls(Phase phase) {
+        return _calls.get(phase.ordinal());
+    }
+
+    /**
+     * @param phase a phase
+     * @return total time spent in the phase, in nanoseconds
+     */
+    public long getNanos(Phase phase) {
+        return _nanos.get(phase.ordinal());
+    }
+
+    /**
+     * @param phase a phase
+     * @return number of failures in the phase
+     */
+    public long getFailures(Phase phase) {
+        return _failures.get(phase.ordinal());
+    }
+
+    /**
+     * Estimate a percentile of the call durations of a phase
+     * @param phase a phase
+     * @param pct percentile, between 0 and 100
+     * @return upper bound of the histogram bucket holding the percentile, in nanoseconds
+     */
+    public long getPercentile(Phase phase, double pct) {
+        int p = phase.ordinal();
+        long total = _calls.get(p);
+        if(total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * pct / 100.0);
+        long seen = 0;
+        for(int b = 0; b < BUCKETS; b++) {
+            seen += _histogram.get(p * BUCKETS + b);
+            if(seen >= rank) {
+                return Math.min(1L << b, _max.get(p));
+            }
+        }
+        return _max.get(p);
+    }
+
+    /**
+     * @return files and bytes saved per media type, sorted by media type
+     */
+    public Map<String, long[]> getMediaTypes() {
+        Map<String, long[]> res = new TreeMap<String, long[]>();
+        for(Map.Entry<String, AtomicLong[]> e : _media.entrySet()) {
+            res.put(e.getKey(), new long[] { e.getValue()[0].get(), e.getValue()[1].get() });
+        }
+        return res;
+    }
+
+    /**
+     * @return most recent error messages, oldest first
+     */
+    public List<String> getErrors() {
+        synchronized(_errors) {
+            return new ArrayList<String>(_errors);
+        }
+    }
+
+    /**
+     * Format the figures of a job as readable text
+     * @param job job the figures belong to
+     * @return multi-line report
+     */
+    public String toText(SaveJob job) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("job %d: %d items, %d skipped, %d failed, %d files, %d bytes in %d ms%n",
+                                job.getId(), job.getCompleted(), job.getSkipped(), job.getFailed(),
+                                job.getFilesWritten(), job.getBytesWritten(), job.getElapsedMillis()));
+        sb.append(String.format("%n%-10s %10s %10s %10s %10s %10s %10s %8s%n",
+                                "phase", "calls", "total ms", "mean us", "p50 us", "p99 us", "max us", "failed"));
+        for(Phase phase : Phase.values()) {
+            long calls = getCalls(phase);
+            sb.append(String.format("%-10s %10d %10d %10.1f %10.1f %10.1f %10.1f %8d%n", phase.getLabel(), calls,
+                                    getNanos(phase) / 1000000, (calls > 0) ? getNanos(phase) / 1000.0 / calls : 0.0,
+                                    getPercentile(phase, 50) / 1000.0, getPercentile(phase, 99) / 1000.0,
+                                    _max.get(phase.ordinal()) / 1000.0, getFailures(phase)));
+        }
+        sb.append(String.format("%n%-40s %10s %14s%n", "media type", "files", "bytes"));
+        for(Map.Entry<String, long[]> e : getMediaTypes().entrySet()) {
+            sb.append(String.format("%-40s %10d %14d%n", e.getKey(), e.getValue()[0], e.getValue()[1]));
+        }
+        List<String> errors = getErrors();
+        if(!errors.isEmpty()) {
+            sb.append(String.format("%nlast errors:%n"));
+            for(String err : errors) {
+                sb.append("  ").append(err).append(String.format("%n"));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Format the figures of a job as a JSON object
+     * @param job job the figures belong to
+     * @return JSON text
+     */
+    public String toJson(SaveJob job) {
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("{\"job\":").append(job.getId())
+          .append(",\"items\":").append(job.getCompleted())
+          .append(",\"skipped\":").append(job.getSkipped())
+          .append(",\"failed\":").append(job.getFailed())
+          .append(",\"files\":").append(job.getFilesWritten())
+          .append(",\"bytes\":").append(job.getBytesWritten())
+          .append(",\"elapsed_ms\":").append(job.getElapsedMillis())
+          .append(",\"bytes_per_second\":").append(Math.round(job.getBytesPerSecond()))
+          .append(",\"phases\":{");
+        String sep = "";
+        for(Phase phase : Phase.values()) {
+            sb.append(sep).append('"').append(phase.getLabel()).append("\":{\"calls\":").append(getCalls(phase))
+              .append(",\"total_ns\":").append(getNanos(phase))
+              .append(",\"p50_ns\":").append(getPercentile(phase, 50))
+              .append(",\"p90_ns\":").append(getPercentile(phase, 90))
+              .append(",\"p99_ns\":").append(getPercentile(phase, 99))
+              .append(",\"max_ns\":").append(_max.get(phase.ordinal()))
+              .append(",\"failures\":").append(getFailures(phase)).append('}');
+            sep = ",";
+        }
+        sb.append("},\"media_types\":{");
+        sep = "";
+        for(Map.Entry<String, long[]> e : getMediaTypes().entrySet()) {
+            sb.append(sep);
+            ManifestEntry.quote(sb, e.getKey());
+            sb.append(":{\"files\":").append(e.getValue()[0]).append(",\"bytes\":").append(e.getValue()[1]).append('}');
+            sep = ",";
+        }
+        sb.append("},\"errors\":[");
+        sep = "";
+        for(String err : getErrors()) {
+            sb.append(sep);
+            ManifestEntry.quote(sb, err);
+            sep = ",";
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+}
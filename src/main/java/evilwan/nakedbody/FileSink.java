@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes every body into a separate file in the output directory.
+ * <p>
+ * Names may contain subdirectories ("<code>blobs/...</code>", or the directories of the chosen
+ * layout). Subdirectories are created when the first file goes in and remembered, so a large
+ * export does not pay for a directory lookup per file.
+ */
+public class FileSink implements BodySink {
+    /**
+     * Output directory
+     */
+    private final File _dir;
+    /**
+     * Subdirectories known to exist, relative to the output directory
+     */
+    private final Set<String> _subdirs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create new sink
+     * @param directory location where to save the bodies
+     */
+    public FileSink(String directory) {
+        _dir = new File(directory);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The bytes go straight from the array into a file channel, without intermediate copies.
+     */
+    @Override
+    public long write(String name, byte[] bar, int ofs, int len) throws IOException {
+        FileChannel ch = openChannel(name);
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(bar, ofs, len);
+            while(buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        } finally {
+            ch.close();
+        }
+        return -1;
+    }
+
+    @Override
+    public OutputStream open(String name) throws IOException {
+        return new BufferedOutputStream(Channels.newOutputStream(openChannel(name)), 1 << 16);
+    }
+
+    @Override
+    public FileChannel openChannel(String name) throws IOException {
+        File f = new File(_dir, name);
+        createParent(name);
+        return FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public boolean link(String name, String existing) throws IOException {
+        try {
+            createParent(name);
+            Files.createLink(new File(_dir, name).toPath(), new File(_dir, existing).toPath());
+            return true;
+        } catch (FileAlreadyExistsException faee) {
+            throw faee;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            //
+            // File system without hard links, or one that refuses them (FAT, some network shares,
+            // too many links to the same file)
+            //
+            return false;
+        }
+    }
+
+    /**
+     * Make sure the subdirectory of a body exists
+     * @param name name of the body, relative to the output directory
+     * @throws IOException when the subdirectory could not be created
+     */
+    private void createParent(String name) throws IOException {
+        int slash = name.lastIndexOf('/');
+        if(slash < 0) {
+            return;
+        }
+        String parent = name.substring(0, slash);
+        if(!_subdirs.contains(parent)) {
+            //
+            // Only added once it exists: other threads may not write into it before that
+            //
+            Files.createDirectories(new File(_dir, parent).toPath());
+            _subdirs.add(parent);
+        }
+    }
+
+    @Override
+    public void close() {
+        //
+        // Nothing to do: every file is closed right after writing it
+        //
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Remembers which messages have been exported to an output directory, so later
+ * exports to the same directory only write new or changed messages.
+ * <p>
+ * Every exported message is identified by a cheap 64-bit fingerprint of its request and
+ * response. The fingerprints are appended, together with the sequence number used for the
+ * message, to "<code>.nakedbody-fingerprints</code>" right after the message has been saved.
+ * An export that gets interrupted therefore continues where it stopped the next time.
+ * </p>
+ * <p>
+ * The file name prefix of the first export is kept in "<code>.nakedbody-resume</code>" and
+ * sequence numbers continue after the highest one seen, so all runs into the directory
+ * produce one consistent set of names.
+ * </p>
+ */
+public class FingerprintStore implements Closeable {
+    /**
+     * Name of the file holding the fingerprints
+     */
+    private final static String FINGERPRINT_FILE = ".nakedbody-fingerprints";
+    /**
+     * Name of the file holding the file name prefix
+     */
+    private final static String STATE_FILE = ".nakedbody-resume";
+    /**
+     * View on byte arrays as little endian longs, for hashing 8 bytes at a time
+     */
+    private final static VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    /**
+     * Multiplier for hashing (64-bit golden ratio)
+     */
+    private final static long MUL = 0x9e3779b97f4a7c15L;
+
+    /**
+     * File name prefix for all exports into the directory
+     */
+    private final String _prefix;
+    /**
+     * Open addressing hash set of fingerprints (0 marks a free slot)
+     */
+    private long[] _slots = new long[1024];
+    /**
+     * Number of fingerprints in the set
+     */
+    private int _size = 0;
+    /**
+     * Highest sequence number stored in the directory
+     */
+    private int _seq = 0;
+    /**
+     * Appends new fingerprints to the file
+     */
+    private final DataOutputStream _out;
+
+    /**
+     * Open (or create) the store for an output directory
+     * @param directory output directory
+     * @param prefix file name prefix to use if this is the first export into the directory
+     * @throws IOException when the store could not be read or created
+     */
+    public FingerprintStore(Path directory, String prefix) throws IOException {
+        Path state = directory.resolve(STATE_FILE);
+        if(Files.exists(state)) {
+            prefix = new String(Files.readAllBytes(state), StandardCharsets.UTF_8).trim();
+        } else {
+            Files.write(state, (prefix + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        _prefix = prefix;
+        Path fps = directory.resolve(FINGERPRINT_FILE);
+        if(Files.exists(fps)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fps), 1 << 16));
+            try {
+                while(true) {
+                    long fp = in.readLong();
+                    int seq = in.readInt();
+                    add(fp);
+                    _seq = Math.max(_seq, seq);
+                }
+            } catch (EOFException eofe) {
+                //
+                // Done; a record cut short by an interrupted export is ignored
+                //
+            } finally {
+                in.close();
+            }
+        }
+        _out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(fps, StandardOpenOption.CREATE,
+                                                                                   StandardOpenOption.APPEND,
+                                                                                   StandardOpenOption.WRITE)));
+    }
+
+    /**
+     * @return file name prefix for all exports into the directory
+     */
+    public String getPrefix() {
+        return _prefix;
+    }
+
+    /**
+     * @return number of messages known to be exported (or being exported right now)
+     */
+    public synchronized int size() {
+        return _size;
+    }
+
+    /**
+     * Claim a message for export
+     * @param fp fingerprint of the message
+     * @return <code>true</code> if the message is new and has to be exported, <code>false</code> if it
+     *         was exported before
+     */
+    public synchronized boolean claim(long fp) {
+        return add(fp);
+    }
+
+    /**
+     * @return highest sequence number stored in the directory when the store was opened
+     */
+    public synchronized int getSequence() {
+        return _seq;
+    }
+
+    /**
+     * Record that a message has been exported completely
+     * @param fp fingerprint of the message
+     * @param seq sequence number that was used for the message
+     * @throws IOException when the fingerprint could not be written
+     */
+    public synchronized void commit(long fp, int seq) throws IOException {
+        _out.writeLong(fp);
+        _out.writeInt(seq);
+        //
+        // Small record, but it has to survive an export that gets killed halfway
+        //
+        _out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        _out.close();
+    }
+
+    /**
+     * Add fingerprint to the in-memory set
+     * @param fp fingerprint
+     * @return <code>true</code> if the fingerprint was not yet in the set
+     */
+    private boolean add(long fp) {
+        if(fp == 0) {
+            fp = 1;
+        }
+        if(2 * (_size + 1) > _slots.length) {
+            long[] old = _slots;
+            _slots = new long[old.length * 2];
+            for(long f : old) {
+                if(f != 0) {
+                    _slots[slot(f)] = f;
+                }
+            }
+        }
+        int i = slot(fp);
+        if(_slots[i] == fp) {
+            return false;
+        }
+        _slots[i] = fp;
+        _size += 1;
+        return true;
+    }
+
+    /**
+     * Find slot for a fingerprint: either the slot that holds it or the free slot where it belongs
+     * @param fp non-zero fingerprint
+     * @return slot index
+     */
+    private int slot(long fp) {
+        int mask = _slots.length - 1;
+        int i = (int) (fp ^ (fp >>> 32)) & mask;
+        while((_slots[i] != 0) && (_slots[i] != fp)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Compute fingerprint of a message
+     * @param request request bytes
+     * @param response response bytes, <code>null</code> if there is no response
+     * @return 64-bit fingerprint
+     */
+    public static long fingerprint(byte[] request, byte[] response) {
+        long h = hash(request, 0x243f6a8885a308d3L);
+        return hash(response, h);
+    }
+
+    /**
+     * Fast 64-bit hash over a byte array, 8 bytes at a time
+     * @param bar bytes to hash, <code>null</code> is hashed like an empty array (but differently)
+     * @param seed starting value
+     * @return hash value
+     */
+    private static long hash(byte[] bar, long seed) {
+        if(bar == null) {
+            return mix(seed ^ 0x5bd1e995L);
+        }
+        long h = seed ^ (bar.length * MUL);
+        int i = 0;
+        int n = bar.length - 7;
+        for(; i < n; i += 8) {
+            h = (h ^ mix((long) LONGS.get(bar, i))) * MUL;
+        }
+        long tail = 0;
+        for(int shift = 0; i < bar.length; i++, shift += 8) {
+            tail |= (bar[i] & 0xffL) << shift;
+        }
+        h = (h ^ mix(tail)) * MUL;
+        return mix(h);
+    }
+
+    /**
+     * Scramble bits of a 64-bit value (finalizer of MurmurHash3)
+     * @param k value to scramble
+     * @return scrambled value
+     */
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
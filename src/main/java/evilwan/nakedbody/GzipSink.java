@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sink that gzip compresses every body on its way to another sink.
+ * <p>
+ * Bodies up to {@link #BLOCK_SIZE} bytes are compressed on the calling worker thread, in one
+ * go. Larger bodies are cut into blocks of that size that are compressed in parallel on the
+ * common fork/join pool and written in order, each block as a complete gzip member. The
+ * result is a standard multi-member gzip file (as written by pigz), which <code>gunzip</code>,
+ * <code>zcat</code> and {@link java.util.zip.GZIPInputStream} read as one stream. Compressing
+ * a large body thus uses all cores instead of a single deflater.
+ * </p>
+ * <p>
+ * The names of all bodies get "{@value #SUFFIX}" appended.
+ * </p>
+ */
+public class GzipSink implements BodySink {
+    /**
+     * Appended to the name of every body
+     */
+    public final static String SUFFIX = ".gz";
+    /**
+     * Size of the blocks that are compressed independently
+     */
+    final static int BLOCK_SIZE = 1 << 20;
+    /**
+     * Maximum number of blocks of one body being compressed at the same time
+     */
+    private final static int MAX_PENDING = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * Destination for the compressed bodies
+     */
+    private final BodySink _sink;
+
+    /**
+     * Create new sink
+     * @param sink destination for the compressed bodies
+     */
+    public GzipSink(BodySink sink) {
+        _sink = sink;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Small bodies are compressed in memory and handed to the underlying sink as one array.
+     */
+    @Override
+    public long write(String name, byte[] bar, int ofs, int len) throws IOException {
+        if(len <= BLOCK_SIZE) {
+            byte[] gz = member(bar, ofs, len);
+            return _sink.write(name + SUFFIX, gz, 0, gz.length);
+        }
+        try(OutputStream os = open(name)) {
+            os.write(bar, ofs, len);
+        }
+        return -1;
+    }
+
+    @Override
+    public OutputStream open(String name) throws IOException {
+        return new BlockStream(_sink.open(name + SUFFIX));
+    }
+
+    @Override
+    public boolean link(String name, String existing) throws IOException {
+        return _sink.link(name + SUFFIX, existing + SUFFIX);
+    }
+
+    @Override
+    public String storedName(String name) {
+        return _sink.storedName(name + SUFFIX);
+    }
+
+    @Override
+    public void setFailureListener(FailureListener listener) {
+        _sink.setFailureListener(listener);
+    }
+
+    @Override
+    public void close() throws IOException {
+        _sink.close();
+    }
+
+    /**
+     * Compress bytes into one complete gzip member
+     * @param bar contains the bytes to compress
+     * @param ofs zero based offset of the first byte
+     * @param len number of bytes
+     * @return the gzip member
+     * @throws IOException never, in practice
+     */
+    static byte[] member(byte[] bar, int ofs, int len) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(len / 3 + 64);
+        try(GZIPOutputStream gz = new GZIPOutputStream(bos, 1 << 16)) {
+            gz.write(bar, ofs, len);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Stream that cuts what is written into blocks and compresses them in parallel.
+     * <p>
+     * At most {@link #MAX_PENDING} blocks are in flight: after that, the writer waits for
+     * the oldest one, which keeps memory use bounded for bodies of any size. A body that
+     * fits in a single block never leaves the calling thread.
+     * </p>
+     */
+    private static class BlockStream extends OutputStream {
+        /**
+         * Destination for the gzip members
+         */
+        private final OutputStream _out;
+        /**
+         * Blocks being compressed, oldest first
+         */
+        private final Deque<Future<byte[]>> _pending = new ArrayDeque<Future<byte[]>>();
+        /**
+         * Block being filled
+         */
+        private byte[] _block = new byte[BLOCK_SIZE];
+        /**
+         * Number of bytes in the block being filled
+         */
+        private int _count = 0;
+        /**
+         * <code>true</code> once at least one block was handed to the pool
+         */
+        private boolean _parallel = false;
+        /**
+         * <code>true</code> once the stream is closed
+         */
+        private boolean _closed = false;
+
+        /**
+         * Create stream
+         * @param out destination for the gzip members
+         */
+        BlockStream(OutputStream out) {
+            _out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if(_count == BLOCK_SIZE) {
+                submit();
+            }
+            _block[_count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while(len > 0) {
+                if(_count == BLOCK_SIZE) {
+                    submit();
+                }
+                int n = Math.min(len, BLOCK_SIZE - _count);
+                System.arraycopy(b, off, _block, _count, n);
+                _count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(_closed) {
+                return;
+            }
+            _closed = true;
+            try {
+                if(!_parallel) {
+                    //
+                    // Everything fits in one block: no need to involve other threads
+                    //
+                    _out.write(member(_block, 0, _count));
+                } else {
+                    if(_count > 0) {
+                        submit();
+                    }
+                    while(!_pending.isEmpty()) {
+                        drain();
+                    }
+                }
+            } finally {
+                for(Future<byte[]> f : _pending) {
+                    f.cancel(false);
+                }
+                _block = null;
+                _out.close();
+            }
+        }
+
+        /**
+         * Hand the current block to the pool, waiting for the oldest one when too many are in flight
+         * @throws IOException when writing a compressed block failed
+         */
+        private void submit() throws IOException {
+            final byte[] block = _block;
+            final int count = _count;
+            _pending.addLast(ForkJoinPool.commonPool().submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return member(block, 0, count);
+                }
+            }));
+            _parallel = true;
+            _block = new byte[BLOCK_SIZE];
+            _count = 0;
+            if(_pending.size() >= MAX_PENDING) {
+                drain();
+            }
+        }
+
+        /**
+         * Wait for the oldest block and write it
+         * @throws IOException when compressing or writing the block failed
+         */
+        private void drain() throws IOException {
+            Future<byte[]> f = _pending.removeFirst();
+            try {
+                _out.write(f.get());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while compressing", ie);
+            } catch (ExecutionException ee) {
+                throw new IOException("compressing failed", ee.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the messages from a HAR (HTTP Archive) file, as saved by browsers and many proxies.
+ * <p>
+ * The file is read with a streaming JSON parser: entries are handled one at a time and
+ * (base64 encoded) bodies are decoded while they are read.
+ * </p>
+ * <p>
+ * HAR files do not hold the messages as they went over the wire, so requests and responses
+ * are rebuilt from method, URL, status, headers and body text. HAR bodies are already
+ * decoded, so the <code>Content-Encoding</code> and <code>Transfer-Encoding</code> headers
+ * are left out and <code>Content-Length</code> is set to the actual body length.
+ * </p>
+ */
+public class HarSource implements MessageSource {
+    /**
+     * Underlying file
+     */
+    private final Reader _in;
+    /**
+     * Streaming parser on the file
+     */
+    private final JsonReader _json;
+    /**
+     * Collects the body of the current request or response, reused for every message
+     */
+    private final Base64Decoder _body = new Base64Decoder(1 << 16);
+    /**
+     * <code>true</code> once the parser is positioned inside the entries array
+     */
+    private boolean _in_entries = false;
+
+    /**
+     * Open file
+     * @param file HAR file
+     * @throws IOException when the file could not be opened
+     */
+    public HarSource(Path file) throws IOException {
+        _in = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+        _json = new JsonReader(_in);
+    }
+
+    @Override
+    public HttpMessage next() throws IOException {
+        if(!_in_entries) {
+            if(!seekEntries()) {
+                return null;
+            }
+            _in_entries = true;
+        }
+        while(_json.hasNext()) {
+            HttpMessage msg = entry();
+            if(msg != null) {
+                return msg;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Position the parser on the first element of <code>log.entries</code>
+     * @return <code>false</code> if the file has no entries
+     * @throws IOException when the file could not be read or is not well formed
+     */
+    private boolean seekEntries() throws IOException {
+        if(_json.peek() != JsonReader.Token.BEGIN_OBJECT) {
+            throw new IOException("HAR: top level object expected");
+        }
+        _json.beginObject();
+        if(!seekMember("log", JsonReader.Token.BEGIN_OBJECT)) {
+            return false;
+        }
+        _json.beginObject();
+        if(!seekMember("entries", JsonReader.Token.BEGIN_ARRAY)) {
+            return false;
+        }
+        _json.beginArray();
+        return true;
+    }
+
+    /**
+     * Skip members of the current object until the one with the given name
+     * @param name name of the member
+     * @param type token the value has to start with
+     * @return <code>false</code> if the object has no such member
+     * @throws IOException when the file could not be read or is not well formed
+     */
+    private boolean seekMember(String name, JsonReader.Token type) throws IOException {
+        while(_json.hasNext()) {
+            if(name.equals(_json.nextName()) && (_json.peek() == type)) {
+                return true;
+            }
+            _json.skipValue();
+        }
+        return false;
+    }
+
+    /**
+     * Read one entry
+     * @return message of the entry, <code>null</code> if the entry has no request
+     * @throws IOException when the file could not be read or is not well formed
+     */
+    private HttpMessage entry() throws IOException {
+        byte[] request = null;
+        byte[] response = null;
+        String[] target = null;
+        _json.beginObject();
+        while(_json.hasNext()) {
+            String name = _json.nextName();
+            if("request".equals(name) && (_json.peek() == JsonReader.Token.BEGIN_OBJECT)) {
+                target = new String[3];
+                request = message(true, target);
+            } else if("response".equals(name) && (_json.peek() == JsonReader.Token.BEGIN_OBJECT)) {
+                response = message(false, null);
+            } else {
+                _json.skipValue();
+            }
+        }
+        _json.endObject();
+        if(request == null) {
+            return null;
+        }
+        int port = -1;
+        try {
+            port = Integer.parseInt(target[2]);
+        } catch (NumberFormatException nfe) {
+            port = "https".equalsIgnoreCase(target[0]) ? 443 : 80;
+        }
+        return new RawMessage(request, response, target[0], target[1], port);
+    }
+
+    /**
+     * Read a request or response object and rebuild the message from it
+     * @param is_request <code>true</code> for a request, <code>false</code> for a response
+     * @param target for requests: receives protocol, host and port (as text) of the URL
+     * @return message bytes, <code>null</code> for a response that was never received
+     * @throws IOException when the file could not be read or is not well formed
+     */
+    private byte[] message(boolean is_request, String[] target) throws IOException {
+        String method = "GET";
+        String url = "/";
+        String status = "0";
+        String reason = "";
+        String version = null;
+        List<String> hdrs = new ArrayList<String>();
+        _body.reset();
+        _json.beginObject();
+        while(_json.hasNext()) {
+            String name = _json.nextName();
+            if("method".equals(name)) {
+                method = _json.nextString();
+            } else if("url".equals(name)) {
+                url = _json.nextString();
+            } else if("status".equals(name)) {
+                status = _json.nextString();
+            } else if("statusText".equals(name)) {
+                reason = _json.nextString();
+            } else if("httpVersion".equals(name)) {
+                version = _json.nextString();
+            } else if("headers".equals(name) && (_json.peek() == JsonReader.Token.BEGIN_ARRAY)) {
+                headers(hdrs);
+            } else if(("postData".equals(name) || "content".equals(name)) &&
+                      (_json.peek() == JsonReader.Token.BEGIN_OBJECT)) {
+                body();
+            } else {
+                _json.skipValue();
+            }
+        }
+        _json.endObject();
+        byte[] body = _body.toByteArray();
+        if(method == null) {
+            method = "GET";
+        }
+        if(url == null) {
+            url = "/";
+        }
+        if((version == null) || version.isEmpty() || !version.regionMatches(true, 0, "HTTP/", 0, 5)) {
+            version = "HTTP/1.1";
+        }
+        StringBuilder head = new StringBuilder();
+        if(is_request) {
+            head.append(method).append(' ').append(requestTarget(url, target)).append(' ').append(version);
+        } else {
+            if("0".equals(status) || (status == null)) {
+                return null;
+            }
+            head.append(version).append(' ').append(status).append(' ').append((reason != null) ? reason : "");
+        }
+        head.append("\r\n");
+        for(int i = 0; i < hdrs.size(); i += 2) {
+            head.append(hdrs.get(i)).append(": ").append(hdrs.get(i + 1)).append("\r\n");
+        }
+        if(body.length > 0) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+        byte[] hbar = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] bar = new byte[hbar.length + body.length];
+        System.arraycopy(hbar, 0, bar, 0, hbar.length);
+        System.arraycopy(body, 0, bar, hbar.length, body.length);
+        return bar;
+    }
+
+    /**
+     * Read headers array
+     * @param hdrs receives name and value of every header that is kept
+     * @throws IOException when the file could not be read or is not well formed
+     */
+    private void headers(List<String> hdrs) throws IOException {
+        _json.beginArray();
+        while(_json.hasNext()) {
+            String name = null;
+            String value = "";
+            _json.beginObject();
+            while(_json.hasNext()) {
+                String member = _json.nextName();
+                if("name".equals(member)) {
+                    name = _json.nextString();
+                } else if("value".equals(member)) {
+                    value = _json.nextString();
+                } else {
+                    _json.skipValue();
+                }
+            }
+            _json.endObject();
+            if((name == null) || name.startsWith(":") ||
+               name.equalsIgnoreCase("content-encoding") || name.equalsIgnoreCase("transfer-encoding") ||
+               name.equalsIgnoreCase("content-length")) {
+                //
+                // HTTP/2 pseudo headers and encodings that no longer apply to the HAR body
+                //
+                continue;
+            }
+            hdrs.add(name);
+            hdrs.add((value != null) ? value : "");
+        }
+        _json.endArray();
+    }
+
+    /**
+     * Read postData or content object into the body buffer
+     * <p>
+     * The encoding may follow the text: in that case the text is collected as-is and
+     * decoded afterwards.
+     * @throws IOException when the file could not be read or is not well formed
+     */
+    private void body() throws IOException {
+        String encoding = null;
+        boolean collected = false;
+        _json.beginObject();
+        while(_json.hasNext()) {
+            String name = _json.nextName();
+            if("encoding".equals(name)) {
+                encoding = _json.nextString();
+            } else if("text".equals(name)) {
+                boolean base64 = "base64".equalsIgnoreCase(encoding);
+                _json.nextBytes(_body, base64);
+                collected = (encoding == null);
+            } else {
+                _json.skipValue();
+            }
+        }
+        _json.endObject();
+        if(collected && "base64".equalsIgnoreCase(encoding)) {
+            _body.decodeCollected();
+        }
+    }
+
+    /**
+     * Build request target from URL and extract the target server from it
+     * @param url full URL of the request
+     * @param target receives protocol, host and port (as text)
+     * @return path and query of the URL
+     */
+    private static String requestTarget(String url, String[] target) {
+        int scheme = url.indexOf("://");
+        if(scheme < 0) {
+            return url;
+        }
+        target[0] = url.substring(0, scheme).toLowerCase();
+        int start = scheme + 3;
+        int end = start;
+        while((end < url.length()) && ("/?#".indexOf(url.charAt(end)) < 0)) {
+            end++;
+        }
+        String authority = url.substring(start, end);
+        authority = authority.substring(authority.lastIndexOf('@') + 1);
+        int colon = authority.lastIndexOf(':');
+        if((colon >= 0) && (authority.indexOf(']', colon) < 0)) {
+            target[1] = authority.substring(0, colon);
+            target[2] = authority.substring(colon + 1);
+        } else {
+            target[1] = authority;
+        }
+        int hash = url.indexOf('#', end);
+        String path = url.substring(end, (hash < 0) ? url.length() : hash);
+        return path.startsWith("/") ? path : "/" + path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte level parser for message heads that only records where things are.
+ * <p>
+ * One pass over the head finds the end of the head and the values of the few headers the
+ * body extractor looks at ({@link HttpHead#SCANNED_HEADERS}), as offsets into the original
+ * message. No lines are split off and no header list is built: per message, the only objects
+ * created are the {@link HttpHead} with its offset array and, for requests, the URL. Header
+ * values become strings only when they are asked for.
+ * </p>
+ * <p>
+ * Messages that do not look like plain HTTP/1.x (no proper request or status line, header
+ * lines without colon, folded header lines) are handed to a fallback parser, typically the
+ * Burp helpers.
+ * </p>
+ */
+public class HeadScanner implements HeadParser {
+    /**
+     * Methods that are recognized without creating a new string
+     */
+    private final static String[] METHODS = { "GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH" };
+
+    /**
+     * Parser for the messages this scanner cannot handle
+     */
+    private final HeadParser _fallback;
+
+    /**
+     * Create scanner
+     * @param fallback parser for messages that are not plain HTTP/1.x
+     */
+    public HeadScanner(HeadParser fallback) {
+        _fallback = fallback;
+    }
+
+    /**
+     * Parse request head
+     * @param msg message holding the request
+     * @return request head, including method and URL
+     */
+    @Override
+    public HttpHead parseRequest(HttpMessage msg) {
+        byte[] bar = msg.getRequest();
+        int sp1 = indexOf(bar, 0, (byte) ' ');
+        int eol = indexOf(bar, 0, (byte) '\n');
+        if((sp1 <= 0) || (eol < 0) || (sp1 > eol)) {
+            return _fallback.parseRequest(msg);
+        }
+        int[] values = new int[HttpHead.SCANNED_HEADERS.length * 2];
+        int body_ofs = scan(bar, eol + 1, values);
+        if(body_ofs < 0) {
+            return _fallback.parseRequest(msg);
+        }
+        return new HttpHead(body_ofs, bar, values, method(bar, sp1), requestUrl(msg), 0);
+    }
+
+    /**
+     * Parse response head
+     * @param response response bytes
+     * @return response head, including status code
+     */
+    @Override
+    public HttpHead parseResponse(byte[] response) {
+        int status = statusCode(response);
+        int eol = indexOf(response, 0, (byte) '\n');
+        if((status < 0) || (eol < 0)) {
+            return _fallback.parseResponse(response);
+        }
+        int[] values = new int[HttpHead.SCANNED_HEADERS.length * 2];
+        int body_ofs = scan(response, eol + 1, values);
+        if(body_ofs < 0) {
+            return _fallback.parseResponse(response);
+        }
+        return new HttpHead(body_ofs, response, values, null, null, status);
+    }
+
+    /**
+     * Scan the header lines of a message
+     * @param b message bytes
+     * @param ofs zero based offset of the first header line
+     * @param values receives start and end offset of the value of every scanned header, -1 if absent
+     * @return zero based offset of the body, -1 if the head is malformed
+     */
+    private static int scan(byte[] b, int ofs, int[] values) {
+        for(int i = 0; i < values.length; i++) {
+            values[i] = -1;
+        }
+        int line = ofs;
+        while(line < b.length) {
+            int eol = indexOf(b, line, (byte) '\n');
+            int end = (eol < 0) ? b.length : eol;
+            if((end > line) && (b[end - 1] == '\r')) {
+                end--;
+            }
+            if(end == line) {
+                //
+                // Empty line: end of head
+                //
+                return (eol < 0) ? b.length : eol + 1;
+            }
+            if((b[line] == ' ') || (b[line] == '\t')) {
+                //
+                // Folded header line: leave it to the fallback
+                //
+                return -1;
+            }
+            int colon = line;
+            while((colon < end) && (b[colon] != ':')) {
+                colon++;
+            }
+            if(colon == end) {
+                return -1;
+            }
+            int h = scannedHeader(b, line, colon);
+            if((h >= 0) && (values[h * 2] < 0)) {
+                int start = colon + 1;
+                int stop = end;
+                while((start < stop) && ((b[start] == ' ') || (b[start] == '\t'))) {
+                    start++;
+                }
+                while((stop > start) && ((b[stop - 1] == ' ') || (b[stop - 1] == '\t'))) {
+                    stop--;
+                }
+                values[h * 2] = start;
+                values[h * 2 + 1] = stop;
+            }
+            if(eol < 0) {
+                break;
+            }
+            line = eol + 1;
+        }
+        //
+        // No empty line: everything is head, like Burp does
+        //
+        return b.length;
+    }
+
+    /**
+     * Find out whether a header name is one of the scanned headers
+     * @param b message bytes
+     * @param start zero based offset of the header name
+     * @param stop zero based offset just after the header name
+     * @return index in {@link HttpHead#SCANNED_HEADERS}, -1 if not scanned
+     */
+    private static int scannedHeader(byte[] b, int start, int stop) {
+        int c = b[start] | 0x20;
+        if((c != 'c') && (c != 't')) {
+            //
+            // Quick exit for all headers that cannot match
+            //
+            return -1;
+        }
+        for(int h = 0; h < HttpHead.SCANNED_HEADERS.length; h++) {
+            if(equalsIgnoreCase(b, start, stop, HttpHead.SCANNED_HEADERS[h])) {
+                return h;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the request method, without creating a string for the common ones
+     * @param b request bytes
+     * @param sp zero based offset of the space after the method
+     * @return the method
+     */
+    private static String method(byte[] b, int sp) {
+        for(String m : METHODS) {
+            int i = 0;
+            while((i < sp) && (i < m.length()) && (b[i] == m.charAt(i))) {
+                i++;
+            }
+            if((i == sp) && (i == m.length())) {
+                return m;
+            }
+        }
+        return new String(b, 0, sp, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Build the URL of a request the way Burp does, straight from the request line
+     * @param msg the message
+     * @return the URL, or <code>null</code> if the request line is malformed or the target is not known
+     */
+    public static String requestUrl(HttpMessage msg) {
+        byte[] req = msg.getRequest();
+        int sp1 = indexOf(req, 0, (byte) ' ');
+        if(sp1 < 0) {
+            return null;
+        }
+        int stop = sp1 + 1;
+        while((stop < req.length) && (req[stop] != ' ') && (req[stop] != '\r') && (req[stop] != '\n')) {
+            stop++;
+        }
+        String target = new String(req, sp1 + 1, stop - sp1 - 1, StandardCharsets.ISO_8859_1);
+        if(target.startsWith("http://") || target.startsWith("https://")) {
+            //
+            // Proxy style request: target already is a full URL
+            //
+            return target;
+        }
+        if((msg.getHost() == null) || (msg.getProtocol() == null)) {
+            return null;
+        }
+        int port = msg.getPort();
+        if(port < 0) {
+            port = "https".equalsIgnoreCase(msg.getProtocol()) ? 443 : 80;
+        }
+        return msg.getProtocol() + "://" + msg.getHost() + ":" + port + target;
+    }
+
+    /**
+     * Read the status code from a status line
+     * @param resp response bytes
+     * @return status code, -1 if the message does not start with a proper status line
+     */
+    static int statusCode(byte[] resp) {
+        if((resp.length < 12) || (resp[0] != 'H') || (resp[1] != 'T') || (resp[2] != 'T') || (resp[3] != 'P') ||
+           (resp[4] != '/')) {
+            return -1;
+        }
+        int sp = indexOf(resp, 5, (byte) ' ');
+        if((sp < 0) || (sp + 4 > resp.length)) {
+            return -1;
+        }
+        int code = 0;
+        for(int i = sp + 1; i < sp + 4; i++) {
+            if((resp[i] < '0') || (resp[i] > '9')) {
+                return -1;
+            }
+            code = code * 10 + (resp[i] - '0');
+        }
+        return code;
+    }
+
+    /**
+     * Find the end of a message head
+     * @param b message bytes
+     * @return offset of the first body byte, the message length if there is no empty line
+     */
+    static int headEnd(byte[] b) {
+        for(int i = 0; i < b.length; i++) {
+            if(b[i] == '\n') {
+                if((i + 1 < b.length) && (b[i + 1] == '\n')) {
+                    return i + 2;
+                }
+                if((i + 2 < b.length) && (b[i + 1] == '\r') && (b[i + 2] == '\n')) {
+                    return i + 3;
+                }
+            }
+        }
+        return b.length;
+    }
+
+    /**
+     * Look up any header in a message head, without splitting the head into lines
+     * @param b message bytes
+     * @param head_end offset of the first body byte
+     * @param lname header name in lower case
+     * @return trimmed value of the first header with that name, <code>null</code> if there is none
+     */
+    static String headerValue(byte[] b, int head_end, String lname) {
+        int n = lname.length();
+        int line = indexOf(b, 0, (byte) '\n') + 1;
+        while((line > 0) && (line + n < head_end)) {
+            int eol = indexOf(b, line, (byte) '\n');
+            if((eol < 0) || (eol > head_end)) {
+                eol = head_end;
+            }
+            if((b[line + n] == ':') && equalsIgnoreCase(b, line, line + n, lname)) {
+                int start = line + n + 1;
+                int stop = eol;
+                while((start < stop) && ((b[start] == ' ') || (b[start] == '\t'))) {
+                    start++;
+                }
+                while((stop > start) && (b[stop - 1] <= ' ')) {
+                    stop--;
+                }
+                return new String(b, start, stop - start, StandardCharsets.ISO_8859_1);
+            }
+            line = eol + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Compare bytes with a lower case ASCII string, ignoring case
+     * @param b bytes to compare
+     * @param start zero based offset of the first byte
+     * @param stop zero based offset just after the last byte
+     * @param lname lower case string
+     * @return <code>true</code> if they are equal
+     */
+    static boolean equalsIgnoreCase(byte[] b, int start, int stop, String lname) {
+        if(stop - start != lname.length()) {
+            return false;
+        }
+        for(int i = 0; i < lname.length(); i++) {
+            int c = b[start + i];
+            if((c >= 'A') && (c <= 'Z')) {
+                c += 'a' - 'A';
+            }
+            if(c != lname.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param b bytes to search
+     * @param from zero based offset to start searching
+     * @param c byte to find
+     * @return offset of the first occurrence, -1 if not found
+     */
+    static int indexOf(byte[] b, int from, byte c) {
+        for(int i = from; i < b.length; i++) {
+            if(b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parts of a request or response head that are needed to save its body.
+ * <p>
+ * A head either holds the header lines as strings (as handed out by the Burp helpers) or,
+ * when it comes from {@link HeadScanner}, the original message with the offsets of the
+ * values of {@link #SCANNED_HEADERS}. In the latter case strings are only created for the
+ * values that are actually asked for.
+ * </p>
+ */
+public class HttpHead {
+    /**
+     * Lower case names of the headers whose value offsets are recorded by {@link HeadScanner}
+     */
+    final static String[] SCANNED_HEADERS = { "content-type", "content-encoding", "transfer-encoding",
+                                              "content-disposition" };
+    /**
+     * Media type of URL encoded form bodies
+     */
+    private final static String FORM_URL_ENCODED = "application/x-www-form-urlencoded";
+
+    /**
+     * Zero based offset of the body in the message
+     */
+    private final int _body_ofs;
+    /**
+     * Message headers, the first line is the request or status line; <code>null</code> for scanned heads
+     */
+    private final List<String> _headers;
+    /**
+     * The whole message, <code>null</code> unless this is a scanned head
+     */
+    private final byte[] _msg;
+    /**
+     * Start and end offsets in {@link #_msg} of the values of the scanned headers, -1 if absent
+     */
+    private final int[] _values;
+    /**
+     * Request method, <code>null</code> for responses
+     */
+    private final String _method;
+    /**
+     * Full request URL, <code>null</code> for responses or if the target is not known
+     */
+    private final String _url;
+    /**
+     * Response status code, 0 for requests
+     */
+    private final int _status;
+
+    /**
+     * Create new head
+     * @param body_ofs zero based offset of the body in the message
+     * @param headers message headers, the first line is the request or status line
+     * @param method request method, <code>null</code> for responses
+     * @param url full request URL, <code>null</code> for responses or if the target is not known
+     * @param status response status code, 0 for requests
+     */
+    public HttpHead(int body_ofs, List<String> headers, String method, String url, int status) {
+        _body_ofs = body_ofs;
+        _headers = headers;
+        _msg = null;
+        _values = null;
+        _method = method;
+        _url = url;
+        _status = status;
+    }
+
+    /**
+     * Create head from the offsets found by {@link HeadScanner}
+     * @param body_ofs zero based offset of the body in the message
+     * @param msg the whole message
+     * @param values start and end offsets of the values of {@link #SCANNED_HEADERS}, -1 if absent
+     * @param method request method, <code>null</code> for responses
+     * @param url full request URL, <code>null</code> for responses or if the target is not known
+     * @param status response status code, 0 for requests
+     */
+    HttpHead(int body_ofs, byte[] msg, int[] values, String method, String url, int status) {
+        _body_ofs = body_ofs;
+        _headers = null;
+        _msg = msg;
+        _values = values;
+        _method = method;
+        _url = url;
+        _status = status;
+    }
+
+    /**
+     * @return zero based offset of the body in the message
+     */
+    public int getBodyOffset() {
+        return _body_ofs;
+    }
+
+    /**
+     * @return message headers, the first line is the request or status line
+     */
+    public List<String> getHeaders() {
+        if(_headers != null) {
+            return _headers;
+        }
+        List<String> res = new ArrayList<String>();
+        int start = 0;
+        for(int i = 0; i < _body_ofs; i++) {
+            if(_msg[i] == '\n') {
+                int end = ((i > start) && (_msg[i - 1] == '\r')) ? i - 1 : i;
+                if(end > start) {
+                    res.add(new String(_msg, start, end - start, StandardCharsets.ISO_8859_1));
+                }
+                start = i + 1;
+            }
+        }
+        if(start < _body_ofs) {
+            res.add(new String(_msg, start, _body_ofs - start, StandardCharsets.ISO_8859_1));
+        }
+        return res;
+    }
+
+    /**
+     * @return request method, <code>null</code> for responses
+     */
+    public String getMethod() {
+        return _method;
+    }
+
+    /**
+     * @return full request URL, <code>null</code> for responses or if the target is not known
+     */
+    public String getUrl() {
+        return _url;
+    }
+
+    /**
+     * @return response status code, 0 for requests
+     */
+    public int getStatusCode() {
+        return _status;
+    }
+
+    /**
+     * Find value of a header
+     * @param name lower case name of the header
+     * @return trimmed value of the first header with that name, <code>null</code> if absent
+     */
+    public String header(String name) {
+        if(_headers == null) {
+            for(int h = 0; h < SCANNED_HEADERS.length; h++) {
+                if(SCANNED_HEADERS[h].equals(name)) {
+                    int start = _values[h * 2];
+                    return (start < 0) ? null
+                        : new String(_msg, start, _values[h * 2 + 1] - start, StandardCharsets.ISO_8859_1);
+                }
+            }
+            return HeadScanner.headerValue(_msg, _body_ofs, name);
+        }
+        for(int i = 1; i < _headers.size(); i++) {
+            String line = _headers.get(i);
+            int colon = line.indexOf(':');
+            if((colon == name.length()) && line.regionMatches(true, 0, name, 0, colon)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return <code>true</code> if the body is an URL encoded form
+     */
+    public boolean isUrlEncoded() {
+        if(_headers == null) {
+            //
+            // Compare in place: content-type is the first scanned header
+            //
+            int start = _values[0];
+            int n = FORM_URL_ENCODED.length();
+            return (start >= 0) && (_values[1] - start >= n) &&
+                HeadScanner.equalsIgnoreCase(_msg, start, start + n, FORM_URL_ENCODED);
+        }
+        String ctype = header("content-type");
+        return (ctype != null) && ctype.regionMatches(true, 0, FORM_URL_ENCODED, 0, FORM_URL_ENCODED.length());
+    }
+}
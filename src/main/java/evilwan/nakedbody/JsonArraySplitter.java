@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+
+package evilwan.nakedbody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the elements of a JSON array as NDJSON: one element per line.
+ * <p>
+ * The body is tokenized in place, as bytes: nothing is decoded and no strings are built, so
+ * even responses of hundreds of megabytes cost no memory beyond the body itself. The body can
+ * be a byte array or any <code>ByteBuffer</code>, e.g. one mapped from a file, which then is
+ * not read into memory at all. The array
+ * is the top level value of the body, or the value found by following a path of object
+ * member names (e.g. "<code>data.items</code>"). Elements are written as they are, only the
+ * white space between tokens is dropped, so pretty printed elements fit on one line.
+ * </p>
+ * <p>
+ * Before anything is written, {@link #find(ByteBuffer, String)} checks that the array
+ * is complete and well formed: strings are closed, brackets are balanced and every comma and
+ * colon is where JSON allows it. Splitting follows the same grammar, so an array that was found
+ * never fails halfway. Truncated or otherwise broken bodies are left to the caller to save as
+ * they are.
+ * </p>
+ */
+public class JsonArraySplitter {
+    /**
+     * Maximum nesting depth of arrays and objects
+     */
+    public final static int MAX_DEPTH = 1024;
+    /**
+     * Number of bytes copied at a time from a buffer without backing array
+     */
+    private final static int COPY_SIZE = 8192;
+
+    /**
+     * Utility class, no instances
+     */
+    private JsonArraySplitter() {
+    }
+
+    /**
+     * Find the array to split
+     * @param bar contains the JSON body
+     * @param ofs zero based offset of the body
+     * @param len number of body bytes
+     * @param path member names leading to the array, separated by dots; <code>null</code> or empty
+     *             for an array at the top level
+     * @return zero based offset of the opening bracket of the array, -1 if the body has no
+     *         complete array at that path
+     */
+    public static int find(byte[] bar, int ofs, int len, String path) {
+        return find(ByteBuffer.wrap(bar, ofs, len), path);
+    }
+
+    /**
+     * Find the array to split
+     * @param buf contains the JSON body between its position and its limit
+     * @param path member names leading to the array, separated by dots; <code>null</code> or empty
+     *             for an array at the top level
+     * @return index of the opening bracket of the array in the buffer, -1 if the body has no
+     *         complete array at that path
+     */
+    public static int find(ByteBuffer buf, String path) {
+        int ofs = buf.position();
+        int end = buf.limit();
+        int pos = ofs;
+        if((end - ofs >= 3) && ((buf.get(ofs) & 0xff) == 0xef) && ((buf.get(ofs + 1) & 0xff) == 0xbb) &&
+           ((buf.get(ofs + 2) & 0xff) == 0xbf)) {
+            //
+            // UTF-8 byte order mark
+            //
+            pos += 3;
+        }
+        pos = skipWhitespace(buf, pos, end);
+        if(path != null) {
+            for(String name : path.split("\\.")) {
+                if(name.isEmpty()) {
+                    continue;
+                }
+                pos = member(buf, pos, end, name.getBytes(StandardCharsets.UTF_8));
+                if(pos < 0) {
+                    return -1;
+                }
+            }
+        }
+        if((pos >= end) || (buf.get(pos) != '[') || (skipValue(buf, pos, end) < 0)) {
+            return -1;
+        }
+        return pos;
+    }
+
+    /**
+     * Write the elements of an array, one per line
+     * @param bar contains the JSON body
+     * @param start zero based offset of the opening bracket of the array, see {@link #find(byte[], int, int, String)}
+     * @param end offset just after the body
+     * @param os receives the elements
+     * @return number of elements written
+     * @throws IOException when writing failed or the array is not well formed
+     */
+    public static long split(byte[] bar, int start, int end, OutputStream os) throws IOException {
+        return split(ByteBuffer.wrap(bar, 0, end), start, os);
+    }
+
+    /**
+     * Write the elements of an array, one per line
+     * @param buf contains the JSON body, up to its limit
+     * @param start index of the opening bracket of the array, see {@link #find(ByteBuffer, String)}
+     * @param os receives the elements
+     * @return number of elements written
+     * @throws IOException when writing failed or the array is not well formed
+     */
+    public static long split(ByteBuffer buf, int start, OutputStream os) throws IOException {
+        int end = buf.limit();
+        byte[] copy = buf.hasArray() ? null : new byte[COPY_SIZE];
+        long count = 0;
+        int pos = skipWhitespace(buf, start + 1, end);
+        if((pos < end) && (buf.get(pos) == ']')) {
+            return count;
+        }
+        for(;;) {
+            pos = skipWhitespace(buf, pos, end);
+            int stop = skipValue(buf, pos, end);
+            if(stop < 0) {
+                throw new IOException(String.format("malformed JSON array element at offset %d", pos - start));
+            }
+            writeCompact(buf, pos, stop, os, copy);
+            os.write('\n');
+            count++;
+            pos = skipWhitespace(buf, stop, end);
+            if(pos >= end) {
+                throw new IOException("JSON array not closed");
+            } else if(buf.get(pos) == ']') {
+                return count;
+            } else if(buf.get(pos) != ',') {
+                throw new IOException(String.format("malformed JSON array separator at offset %d", pos - start));
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Find a member of an object
+     * @param buf contains the JSON body
+     * @param pos zero based offset of the object
+     * @param end offset just after the body
+     * @param name UTF-8 bytes of the member name, as they appear in the body
+     * @return zero based offset of the member value, -1 if the object has no such member
+     *         or is not an object at all
+     */
+    private static int member(ByteBuffer buf, int pos, int end, byte[] name) {
+        if((pos >= end) || (buf.get(pos) != '{')) {
+            return -1;
+        }
+        pos = skipWhitespace(buf, pos + 1, end);
+        while((pos < end) && (buf.get(pos) == '"')) {
+            int stop = skipString(buf, pos, end);
+            if(stop < 0) {
+                return -1;
+            }
+            boolean match = equals(buf, pos + 1, stop - 1, name);
+            pos = skipWhitespace(buf, stop, end);
+            if((pos >= end) || (buf.get(pos) != ':')) {
+                return -1;
+            }
+            pos = skipWhitespace(buf, pos + 1, end);
+            if(match) {
+                return pos;
+            }
+            pos = skipValue(buf, pos, end);
+            if(pos < 0) {
+                return -1;
+            }
+            pos = skipWhitespace(buf, pos, end);
+            if((pos < end) && (buf.get(pos) == ',')) {
+                pos = skipWhitespace(buf, pos + 1, end);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skip one value, including everything nested in it
+     * @param buf contains the JSON body
+     * @param pos zero based offset of the value
+     * @param end offset just after the body
+     * @return offset just after the value, -1 if it is not well formed
+     */
+    private static int skipValue(ByteBuffer buf, int pos, int end) {
+        byte[] open = null;
+        int depth = 0;
+        for(;;) {
+            //
+            // A value is expected here
+            //
+            pos = skipWhitespace(buf, pos, end);
+            if(pos >= end) {
+                return -1;
+            }
+            byte c = buf.get(pos);
+            if((c == '{') || (c == '[')) {
+                if(open == null) {
+                    open = new byte[MAX_DEPTH];
+                } else if(depth == MAX_DEPTH) {
+                    return -1;
+                }
+                open[depth++] = c;
+                pos = skipWhitespace(buf, pos + 1, end);
+                if(pos >= end) {
+                    return -1;
+                } else if(buf.get(pos) != ((c == '{') ? '}' : ']')) {
+                    if(c == '{') {
+                        pos = skipName(buf, pos, end);
+                        if(pos < 0) {
+                            return -1;
+                        }
+                    }
+                    continue;
+                }
+                depth--;
+                pos++;
+            } else if(c == '"') {
+                pos = skipString(buf, pos, end);
+                if(pos < 0) {
+                    return -1;
+                }
+            } else {
+                int stop = pos;
+                while((stop < end) && isScalar(buf.get(stop))) {
+                    stop++;
+                }
+                if(stop == pos) {
+                    return -1;
+                }
+                pos = stop;
+            }
+            //
+            // After a value: close arrays and objects until a comma announces the next value
+            //
+            for(;;) {
+                if(depth == 0) {
+                    return pos;
+                }
+                pos = skipWhitespace(buf, pos, end);
+                if(pos >= end) {
+                    return -1;
+                }
+                c = buf.get(pos);
+                if(c == ',') {
+                    pos++;
+                    if(open[depth - 1] == '{') {
+                        pos = skipName(buf, pos, end);
+                        if(pos < 0) {
+                            return -1;
+                        }
+                    }
+                    break;
+                } else if(c != ((open[depth - 1] == '{') ? '}' : ']')) {
+                    return -1;
+                }
+                depth--;
+                pos++;
+            }
+        }
+    }
+
+    /**
+     * Skip the name of an object member and the colon after it
+     * @param buf contains the JSON body
+     * @param pos zero based offset of the name, or of white space before it
+     * @param end offset just after the body
+     * @return offset just after the colon, -1 if there is no name followed by a colon
+     */
+    private static int skipName(ByteBuffer buf, int pos, int end) {
+        pos = skipWhitespace(buf, pos, end);
+        if((pos >= end) || (buf.get(pos) != '"')) {
+            return -1;
+        }
+        pos = skipString(buf, pos, end);
+        if(pos < 0) {
+            return -1;
+        }
+        pos = skipWhitespace(buf, pos, end);
+        if((pos >= end) || (buf.get(pos) != ':')) {
+            return -1;
+        }
+        return pos + 1;
+    }
+
+    /**
+     * Skip a string
+     * @param buf contains the JSON body
+     * @param pos zero based offset of the opening quote
+     * @param end offset just after the body
+     * @return offset just after the closing quote, -1 if the string is not closed
+     */
+    private static int skipString(ByteBuffer buf, int pos, int end) {
+        for(int i = pos + 1; i < end; i++) {
+            byte c = buf.get(i);
+            if(c == '"') {
+                return i + 1;
+            } else if(c == '\\') {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Write a value without the white space between its tokens
+     * @param buf contains the JSON body
+     * @param start zero based offset of the value
+     * @param stop offset just after the value
+     * @param os receives the value
+     * @param copy buffer to copy bytes through, <code>null</code> if the buffer has a backing array
+     * @throws IOException when writing failed
+     */
+    private static void writeCompact(ByteBuffer buf, int start, int stop, OutputStream os, byte[] copy)
+        throws IOException {
+        int from = start;
+        int i = start;
+        while(i < stop) {
+            byte c = buf.get(i);
+            if(c == '"') {
+                i = skipString(buf, i, stop);
+                if(i < 0) {
+                    i = stop;
+                }
+            } else if(isWhitespace(c)) {
+                write(buf, from, i, os, copy);
+                i = skipWhitespace(buf, i, stop);
+                from = i;
+            } else {
+                i++;
+            }
+        }
+        write(buf, from, stop, os, copy);
+    }
+
+    /**
+     * Write a range of bytes
+     * @param buf contains the bytes
+     * @param start index of the first byte
+     * @param stop index just after the last byte
+     * @param os receives the bytes
+     * @param copy buffer to copy bytes through, <code>null</code> if the buffer has a backing array
+     * @throws IOException when writing failed
+     */
+    private static void write(ByteBuffer buf, int start, int stop, OutputStream os, byte[] copy)
+        throws IOException {
+        if(copy == null) {
+            os.write(buf.array(), buf.arrayOffset() + start, stop - start);
+            return;
+        }
+        ByteBuffer src = buf.duplicate();
+        src.position(start);
+        while(src.position() < stop) {
+            int n = Math.min(copy.length, stop - src.position());
+            src.get(copy, 0, n);
+            os.write(copy, 0, n);
+        }
+    }
+
+    /**
+     * Skip white space
+     * @param buf contains the JSON body
+     * @param pos zero based offset to start at
+     * @param end offset just after the body
+     * @return offset of the first byte that is not white space, <code>end</code> if none
+     */
+    private static int skipWhitespace(ByteBuffer buf, int pos, int end) {
+        while((pos < end) && isWhitespace(buf.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @param c a byte
+     * @return <code>true</code> for JSON white space
+     */
+    private static boolean isWhitespace(byte c) {
+        return (c == ' ') || (c == '\n') || (c == '\r') || (c == '\t');
+    }
+
+    /**
+     * @param c a byte
+     * @return <code>true</code> for bytes of numbers and of the literals <code>true</code>,
+     *         <code>false</code> and <code>null</code>
+     */
+    private static boolean isScalar(byte c) {
+        return ((c >= '0') && (c <= '9')) || ((c >= 'a') && (c <= 'z')) || (c == '-') || (c == '+') ||
+               (c == '.') || (c == 'E');
+    }
+
+    /**
+     * Compare a member name with the expected one
+     * @param buf contains the JSON body
+     * @param start zero based offset of the name, without quotes
+     * @param stop offset just after the name
+     * @param name expected name
+     * @return <code>true</code> if they are the same bytes
+     */
+    private static boolean equals(ByteBuffer buf, int start, int stop, byte[] name) {
+        if(stop - start != name.length) {
+            return false;
+        }
+        for(int i = 0; i < name.length; i++) {
+            if(buf.get(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
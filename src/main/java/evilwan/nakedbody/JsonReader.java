@@ -0,0 +1,478 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming (pull) JSON parser.
+ * <p>
+ * Only the current token is in memory. String values can be delivered straight into a
+ * {@link Base64Decoder} or as UTF-8 bytes, without building a <code>String</code> first,
+ * so large embedded bodies cost no more than their decoded size.
+ */
+class JsonReader {
+    /**
+     * Kind of token
+     */
+    enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, LITERAL, END }
+
+    /**
+     * Scope: inside an object, a name is expected next
+     */
+    private final static byte OBJECT_NAME = 1;
+    /**
+     * Scope: inside an object, a value is expected next
+     */
+    private final static byte OBJECT_VALUE = 2;
+    /**
+     * Scope: inside an array
+     */
+    private final static byte ARRAY = 3;
+    /**
+     * Scope: top level
+     */
+    private final static byte TOP = 4;
+
+    /**
+     * Underlying text
+     */
+    private final Reader _in;
+    /**
+     * Read buffer
+     */
+    private final char[] _buf = new char[1 << 16];
+    /**
+     * Position of the next character in the buffer
+     */
+    private int _pos = 0;
+    /**
+     * Number of characters in the buffer
+     */
+    private int _lim = 0;
+    /**
+     * Stack of scopes
+     */
+    private byte[] _scopes = new byte[32];
+    /**
+     * Depth of the scope stack
+     */
+    private int _depth = 0;
+    /**
+     * Token that has been peeked but not consumed, <code>null</code> if none
+     */
+    private Token _peeked = null;
+
+    /**
+     * Create new parser
+     * @param in JSON text
+     */
+    JsonReader(Reader in) {
+        _in = in;
+        _scopes[_depth++] = TOP;
+    }
+
+    /**
+     * Look at the next token without consuming it
+     * @return kind of the next token
+     * @throws IOException when the text could not be read or is not well formed
+     */
+    Token peek() throws IOException {
+        if(_peeked != null) {
+            return _peeked;
+        }
+        int c = skipSpace();
+        byte scope = _scopes[_depth - 1];
+        if((c == ',') && ((scope == OBJECT_NAME) || (scope == ARRAY))) {
+            c = skipSpace();
+        }
+        switch(c) {
+            case -1:
+                _peeked = Token.END;
+                break;
+            case '{':
+                _peeked = Token.BEGIN_OBJECT;
+                break;
+            case '}':
+                _peeked = Token.END_OBJECT;
+                break;
+            case '[':
+                _peeked = Token.BEGIN_ARRAY;
+                break;
+            case ']':
+                _peeked = Token.END_ARRAY;
+                break;
+            case '"':
+                _peeked = (scope == OBJECT_NAME) ? Token.NAME : Token.STRING;
+                break;
+            default:
+                //
+                // Number, true, false or null: leave the first character for the literal
+                //
+                _pos -= 1;
+                _peeked = Token.LITERAL;
+                break;
+        }
+        return _peeked;
+    }
+
+    /**
+     * @return <code>true</code> if the current object or array has more elements
+     * @throws IOException when the text could not be read or is not well formed
+     */
+    boolean hasNext() throws IOException {
+        Token t = peek();
+        return (t != Token.END_OBJECT) && (t != Token.END_ARRAY) && (t != Token.END);
+    }
+
+    /**
+     * Consume the start of an object
+     * @throws IOException when the next token is not the start of an object
+     */
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        valueDone();
+        push(OBJECT_NAME);
+    }
+
+    /**
+     * Consume the end of an object
+     * @throws IOException when the next token is not the end of an object
+     */
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        _depth -= 1;
+    }
+
+    /**
+     * Consume the start of an array
+     * @throws IOException when the next token is not the start of an array
+     */
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        valueDone();
+        push(ARRAY);
+    }
+
+    /**
+     * Consume the end of an array
+     * @throws IOException when the next token is not the end of an array
+     */
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        _depth -= 1;
+    }
+
+    /**
+     * Consume a member name, including the colon after it
+     * @return the name
+     * @throws IOException when the next token is not a name
+     */
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        StringBuilder sb = new StringBuilder();
+        string(sb, null, false);
+        if(skipSpace() != ':') {
+            throw new IOException("JSON: ':' expected");
+        }
+        _scopes[_depth - 1] = OBJECT_VALUE;
+        return sb.toString();
+    }
+
+    /**
+     * Consume a string, number, boolean or null value
+     * @return text of the value, <code>null</code> for null
+     * @throws IOException when the next token is not a string or literal
+     */
+    String nextString() throws IOException {
+        Token t = peek();
+        if(t == Token.STRING) {
+            StringBuilder sb = new StringBuilder();
+            _peeked = null;
+            string(sb, null, false);
+            valueDone();
+            return sb.toString();
+        }
+        expect(Token.LITERAL);
+        String lit = literal();
+        valueDone();
+        return "null".equals(lit) ? null : lit;
+    }
+
+    /**
+     * Consume a string value, delivering its content as bytes
+     * @param out receives the bytes
+     * @param base64 <code>true</code> to base64 decode the string, <code>false</code> for its UTF-8 encoding
+     * @throws IOException when the next token is not a string
+     */
+    void nextBytes(ByteCollector out, boolean base64) throws IOException {
+        if(peek() == Token.LITERAL) {
+            //
+            // null (or some other literal) instead of a string: no bytes
+            //
+            nextString();
+            return;
+        }
+        expect(Token.STRING);
+        string(null, out, base64);
+        valueDone();
+    }
+
+    /**
+     * Skip the next value, including everything nested in it
+     * @throws IOException when the text could not be read or is not well formed
+     */
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch(peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth += 1;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth += 1;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth -= 1;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth -= 1;
+                    break;
+                case NAME:
+                    nextName();
+                    break;
+                case STRING:
+                    _peeked = null;
+                    string(null, null, false);
+                    valueDone();
+                    break;
+                case LITERAL:
+                    nextString();
+                    break;
+                default:
+                    throw new IOException("JSON: unexpected end of text");
+            }
+        } while(depth > 0);
+    }
+
+    /**
+     * Target for the bytes of {@link #nextBytes(ByteCollector, boolean)}
+     */
+    interface ByteCollector {
+        /**
+         * Add one base64 character
+         * @param c the character
+         */
+        void base64(char c);
+
+        /**
+         * Add one byte
+         * @param b the byte
+         */
+        void write(int b);
+    }
+
+    /**
+     * Consume the peeked token, which must be of the given kind
+     * @param t expected kind of token
+     * @throws IOException when the next token is of another kind
+     */
+    private void expect(Token t) throws IOException {
+        if(peek() != t) {
+            throw new IOException("JSON: " + t + " expected, found " + _peeked);
+        }
+        _peeked = null;
+    }
+
+    /**
+     * A value has been consumed: inside an object, a name comes next
+     */
+    private void valueDone() {
+        if(_scopes[_depth - 1] == OBJECT_VALUE) {
+            _scopes[_depth - 1] = OBJECT_NAME;
+        }
+    }
+
+    /**
+     * Enter a scope
+     * @param scope scope to enter
+     */
+    private void push(byte scope) {
+        if(_depth == _scopes.length) {
+            _scopes = Arrays.copyOf(_scopes, _depth * 2);
+        }
+        _scopes[_depth++] = scope;
+    }
+
+    /**
+     * Read a string, the opening quote has been consumed
+     * @param sb receives the characters, may be <code>null</code>
+     * @param out receives the bytes, may be <code>null</code>
+     * @param base64 <code>true</code> to hand the characters to the base64 decoder of <code>out</code>
+     * @throws IOException when the text could not be read or is not well formed
+     */
+    private void string(StringBuilder sb, ByteCollector out, boolean base64) throws IOException {
+        int high = -1;
+        while(true) {
+            int c = read();
+            if(c == -1) {
+                throw new IOException("JSON: unterminated string");
+            }
+            if(c == '"') {
+                return;
+            }
+            if(c == '\\') {
+                c = read();
+                switch(c) {
+                    case 'b': c = '\b'; break;
+                    case 'f': c = '\f'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                    case 'u':
+                        c = 0;
+                        for(int i = 0; i < 4; i++) {
+                            int d = Character.digit(read(), 16);
+                            if(d < 0) {
+                                throw new IOException("JSON: bad \\u escape");
+                            }
+                            c = (c << 4) | d;
+                        }
+                        break;
+                    case -1:
+                        throw new IOException("JSON: unterminated string");
+                    default:
+                        //
+                        // \" \\ \/ stand for themselves
+                        //
+                        break;
+                }
+            }
+            if(sb != null) {
+                sb.append((char) c);
+            } else if(out == null) {
+                continue;
+            } else if(base64) {
+                out.base64((char) c);
+            } else if(Character.isHighSurrogate((char) c)) {
+                high = c;
+            } else {
+                int cp = c;
+                if((high >= 0) && Character.isLowSurrogate((char) c)) {
+                    cp = Character.toCodePoint((char) high, (char) c);
+                }
+                high = -1;
+                utf8(cp, out);
+            }
+        }
+    }
+
+    /**
+     * Write UTF-8 encoding of a code point
+     * @param cp code point
+     * @param out receives the bytes
+     */
+    private static void utf8(int cp, ByteCollector out) {
+        if(cp < 0x80) {
+            out.write(cp);
+        } else if(cp < 0x800) {
+            out.write(0xc0 | (cp >> 6));
+            out.write(0x80 | (cp & 0x3f));
+        } else if(cp < 0x10000) {
+            out.write(0xe0 | (cp >> 12));
+            out.write(0x80 | ((cp >> 6) & 0x3f));
+            out.write(0x80 | (cp & 0x3f));
+        } else {
+            out.write(0xf0 | (cp >> 18));
+            out.write(0x80 | ((cp >> 12) & 0x3f));
+            out.write(0x80 | ((cp >> 6) & 0x3f));
+            out.write(0x80 | (cp & 0x3f));
+        }
+    }
+
+    /**
+     * Read a literal: number, true, false or null
+     * @return text of the literal
+     * @throws IOException when the text could not be read
+     */
+    private String literal() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while(true) {
+            int c = read();
+            if((c == -1) || (c == ',') || (c == '}') || (c == ']') || (c <= ' ')) {
+                if(c != -1) {
+                    _pos -= 1;
+                }
+                break;
+            }
+            sb.append((char) c);
+        }
+        if(sb.length() == 0) {
+            throw new IOException("JSON: value expected");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Skip white space
+     * @return next character that is not white space, -1 at the end of the text
+     * @throws IOException when the text could not be read
+     */
+    private int skipSpace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while((c == ' ') || (c == '\n') || (c == '\r') || (c == '\t') || (c == '\uFEFF'));
+        return c;
+    }
+
+    /**
+     * Read next character
+     * @return the character, -1 at the end of the text
+     * @throws IOException when the text could not be read
+     */
+    private int read() throws IOException {
+        if(_pos == _lim) {
+            _lim = _in.read(_buf, 0, _buf.length);
+            _pos = 0;
+            if(_lim <= 0) {
+                _lim = 0;
+                return -1;
+            }
+        }
+        return _buf[_pos++];
+    }
+}
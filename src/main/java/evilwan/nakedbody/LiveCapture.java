@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves messages while they pass through the proxy.
+ * <p>
+ * The proxy thread only puts each completed message in a bounded queue with
+ * {@link #offer(Object)}, which never blocks. When the queue is full (either too many
+ * messages or too many bytes), the message is dropped and counted, so the proxy is
+ * never slowed down and heap use stays bounded whatever the traffic.
+ * </p>
+ * <p>
+ * The queue is drained by the feeder thread of a {@link SaveJob}, which hands the messages
+ * to its worker pool for writing. Stopping the capture drains the queue and then finishes
+ * the job, which closes the output.
+ * </p>
+ * @param <T> type of captured messages
+ */
+public class LiveCapture<T> implements SaveJob.Feeder {
+    /**
+     * Writes captured messages
+     * @param <T> type of captured messages
+     */
+    public interface Writer<T> {
+        /**
+         * Return number of bytes a message keeps on the heap while it is queued
+         * @param item captured message
+         * @return approximate size in bytes
+         */
+        long size(T item);
+
+        /**
+         * Save one captured message
+         * @param job job that runs the capture
+         * @param item captured message
+         * @throws Exception when the message could not be saved
+         */
+        void write(SaveJob job, T item) throws Exception;
+    }
+
+    /**
+     * Messages waiting to be written
+     */
+    private final ArrayBlockingQueue<T> _queue;
+    /**
+     * Maximum number of bytes in queued messages
+     */
+    private final long _max_bytes;
+    /**
+     * Writes the captured messages
+     */
+    private final Writer<T> _writer;
+    /**
+     * Number of bytes in queued messages
+     */
+    private final AtomicLong _queued_bytes = new AtomicLong();
+    /**
+     * Number of messages offered
+     */
+    private final AtomicLong _offered = new AtomicLong();
+    /**
+     * Number of messages dropped because the queue was full
+     */
+    private final AtomicLong _dropped = new AtomicLong();
+    /**
+     * Set when the capture has to stop
+     */
+    private volatile boolean _stopped = false;
+
+    /**
+     * Create new capture
+     * @param max_items maximum number of queued messages
+     * @param max_bytes maximum number of bytes in queued messages
+     * @param writer writes the captured messages
+     */
+    public LiveCapture(int max_items, long max_bytes, Writer<T> writer) {
+        _queue = new ArrayBlockingQueue<T>(max_items);
+        _max_bytes = max_bytes;
+        _writer = writer;
+    }
+
+    /**
+     * Queue a message for writing, without ever blocking
+     * @param item captured message
+     * @return <code>false</code> if the message was dropped
+     */
+    public boolean offer(T item) {
+        _offered.incrementAndGet();
+        if(_stopped) {
+            _dropped.incrementAndGet();
+            return false;
+        }
+        long size = _writer.size(item);
+        if(_queued_bytes.addAndGet(size) > _max_bytes) {
+            //
+            // Too much data waiting already: the writers cannot keep up
+            //
+            _queued_bytes.addAndGet(-size);
+            _dropped.incrementAndGet();
+            return false;
+        }
+        if(!_queue.offer(item)) {
+            _queued_bytes.addAndGet(-size);
+            _dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drain the queue until the capture is stopped (or the job cancelled)
+     * @param job job that runs the capture
+     * @throws InterruptedException when interrupted while waiting
+     */
+    @Override
+    public void feed(final SaveJob job) throws InterruptedException {
+        while(!job.isCancelled()) {
+            final T item = _queue.poll(250, TimeUnit.MILLISECONDS);
+            if(item == null) {
+                if(_stopped) {
+                    return;
+                }
+                continue;
+            }
+            _queued_bytes.addAndGet(-_writer.size(item));
+            job.submit(new SaveJob.ItemTask() {
+                @Override
+                public void run() throws Exception {
+                    _writer.write(job, item);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stop accepting messages; the ones already queued are still written
+     */
+    public void stop() {
+        _stopped = true;
+    }
+
+    /**
+     * @return <code>true</code> once {@link #stop()} has been called
+     */
+    public boolean isStopped() {
+        return _stopped;
+    }
+
+    /**
+     * @return number of messages offered so far
+     */
+    public long getOffered() {
+        return _offered.get();
+    }
+
+    /**
+     * @return number of messages dropped so far
+     */
+    public long getDropped() {
+        return _dropped.get();
+    }
+
+    /**
+     * @return number of messages currently waiting to be written
+     */
+    public int getQueued() {
+        return _queue.size();
+    }
+
+    /**
+     * @return number of bytes in messages currently waiting to be written
+     */
+    public long getQueuedBytes() {
+        return _queued_bytes.get();
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+/**
+ * One line of an export manifest: describes a single saved body.
+ */
+public class ManifestEntry {
+    /**
+     * Sequence number of the proxy item
+     */
+    private final int _seq;
+    /**
+     * "req" for a request body, "resp" for a response body
+     */
+    private final String _direction;
+    /**
+     * URL of the request
+     */
+    private final String _url;
+    /**
+     * Request method
+     */
+    private final String _method;
+    /**
+     * Response status code, 0 if unknown
+     */
+    private final int _status;
+    /**
+     * Media type of the body (without parameters), <code>null</code> if unknown
+     */
+    private final String _media_type;
+    /**
+     * Number of bytes saved
+     */
+    private final long _length;
+    /**
+     * Checksum of the saved bytes (CRC-32C, hexadecimal)
+     */
+    private final String _hash;
+    /**
+     * Name of the saved file, relative to the output location
+     */
+    private final String _file;
+    /**
+     * Offset of the body data in the archive, -1 if saved as separate file (or unknown)
+     */
+    private final long _offset;
+
+    /**
+     * Create entry describing a body that has not been written yet
+     * @param seq sequence number of the proxy item
+     * @param direction "req" for a request body, "resp" for a response body
+     * @param url URL of the request
+     * @param method request method
+     * @param status response status code, 0 if unknown
+     * @param media_type media type of the body, <code>null</code> if unknown
+     */
+    public ManifestEntry(int seq, String direction, String url, String method, int status, String media_type) {
+        this(seq, direction, url, method, status, media_type, 0, null, null, -1);
+    }
+
+    /**
+     * Create entry
+     * @param seq sequence number of the proxy item
+     * @param direction "req" for a request body, "resp" for a response body
+     * @param url URL of the request
+     * @param method request method
+     * @param status response status code, 0 if unknown
+     * @param media_type media type of the body, <code>null</code> if unknown
+     * @param length number of bytes saved
+     * @param hash checksum of the saved bytes
+     * @param file name of the saved file
+     * @param offset offset of the body data in the archive, -1 if not applicable
+     */
+    public ManifestEntry(int seq, String direction, String url, String method, int status, String media_type,
+                         long length, String hash, String file, long offset) {
+        _seq = seq;
+        _direction = direction;
+        _url = url;
+        _method = method;
+        _status = status;
+        _media_type = media_type;
+        _length = length;
+        _hash = hash;
+        _file = file;
+        _offset = offset;
+    }
+
+    /**
+     * Create copy of this entry for a body that has been written
+     * @param file name of the saved file
+     * @param length number of bytes saved
+     * @param hash checksum of the saved bytes
+     * @param offset offset of the body data in the archive, -1 if not applicable
+     * @return new entry
+     */
+    public ManifestEntry written(String file, long length, String hash, long offset) {
+        return new ManifestEntry(_seq, _direction, _url, _method, _status, _media_type, length, hash, file, offset);
+    }
+
+    /**
+     * @return sequence number of the proxy item
+     */
+    public int getSeq() {
+        return _seq;
+    }
+
+    /**
+     * @return "req" for a request body, "resp" for a response body
+     */
+    public String getDirection() {
+        return _direction;
+    }
+
+    /**
+     * @return URL of the request
+     */
+    public String getUrl() {
+        return _url;
+    }
+
+    /**
+     * @return request method
+     */
+    public String getMethod() {
+        return _method;
+    }
+
+    /**
+     * @return response status code, 0 if unknown
+     */
+    public int getStatus() {
+        return _status;
+    }
+
+    /**
+     * @return media type of the body, <code>null</code> if unknown
+     */
+    public String getMediaType() {
+        return _media_type;
+    }
+
+    /**
+     * @return number of bytes saved
+     */
+    public long getLength() {
+        return _length;
+    }
+
+    /**
+     * @return checksum of the saved bytes (CRC-32C, hexadecimal)
+     */
+    public String getHash() {
+        return _hash;
+    }
+
+    /**
+     * @return name of the saved file, relative to the output location
+     */
+    public String getFile() {
+        return _file;
+    }
+
+    /**
+     * @return offset of the body data in the archive, -1 if saved as separate file
+     */
+    public long getOffset() {
+        return _offset;
+    }
+
+    /**
+     * Format entry as one line of JSON (without line end)
+     * @return JSON object
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(160);
+        sb.append("{\"seq\":").append(_seq);
+        field(sb, "dir", _direction);
+        field(sb, "url", _url);
+        field(sb, "method", _method);
+        sb.append(",\"status\":").append(_status);
+        field(sb, "type", _media_type);
+        sb.append(",\"len\":").append(_length);
+        field(sb, "hash", _hash);
+        field(sb, "file", _file);
+        sb.append(",\"ofs\":").append(_offset);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * Append string field to JSON object
+     * @param sb JSON being built
+     * @param key field name
+     * @param value field value, <code>null</code> is written as JSON null
+     */
+    private static void field(StringBuilder sb, String key, String value) {
+        sb.append(",\"").append(key).append("\":");
+        quote(sb, value);
+    }
+
+    /**
+     * Append JSON string
+     * @param sb JSON being built
+     * @param value string value, <code>null</code> is written as JSON null
+     */
+    static void quote(StringBuilder sb, String value) {
+        if(value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if((c == '"') || (c == '\\')) {
+                sb.append('\\').append(c);
+            } else if(c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Reads export manifests as written by {@link ManifestWriter}.
+ * <p>
+ * Typical use, finding the URL that produced a file:
+ * <pre>
+ *     List&lt;ManifestEntry&gt; hits = ManifestReader.find(manifest, e -&gt; e.getFile().endsWith("resp-004213.js"));
+ * </pre>
+ */
+public class ManifestReader {
+    /**
+     * Utility class, no instances
+     */
+    private ManifestReader() {
+    }
+
+    /**
+     * Read all entries of a manifest
+     * @param manifest manifest file
+     * @return entries in file order
+     * @throws IOException when the file could not be read or is malformed
+     */
+    public static List<ManifestEntry> read(Path manifest) throws IOException {
+        return find(manifest, null);
+    }
+
+    /**
+     * Read entries of a manifest that match a condition
+     * @param manifest manifest file
+     * @param filter condition, <code>null</code> to accept every entry
+     * @return matching entries in file order
+     * @throws IOException when the file could not be read or is malformed
+     */
+    public static List<ManifestEntry> find(Path manifest, Predicate<ManifestEntry> filter) throws IOException {
+        List<ManifestEntry> out = new ArrayList<ManifestEntry>();
+        BufferedReader in = Files.newBufferedReader(manifest, StandardCharsets.UTF_8);
+        try {
+            String line;
+            int lineno = 0;
+            while((line = in.readLine()) != null) {
+                lineno++;
+                if(line.isEmpty()) {
+                    continue;
+                }
+                ManifestEntry e;
+                try {
+                    e = parse(line);
+                } catch (RuntimeException re) {
+                    throw new IOException(manifest + ":" + lineno + ": malformed manifest line", re);
+                }
+                if((filter == null) || filter.test(e)) {
+                    out.add(e);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return out;
+    }
+
+    /**
+     * Parse one manifest line
+     * @param line JSON object as written by {@link ManifestEntry#toJson()}
+     * @return the entry
+     */
+    public static ManifestEntry parse(String line) {
+        Map<String, String> f = fields(line);
+        return new ManifestEntry(intval(f.get("seq")), f.get("dir"), f.get("url"), f.get("method"),
+                                 intval(f.get("status")), f.get("type"), longval(f.get("len")),
+                                 f.get("hash"), f.get("file"), longval(f.get("ofs")));
+    }
+
+    /**
+     * Split flat JSON object into its fields
+     * @param json JSON object with string, number or null values only
+     * @return field values (JSON null becomes <code>null</code>)
+     */
+    private static Map<String, String> fields(String json) {
+        Map<String, String> out = new HashMap<String, String>();
+        int i = json.indexOf('{') + 1;
+        int n = json.length();
+        StringBuilder sb = new StringBuilder();
+        while(i < n) {
+            char c = json.charAt(i);
+            if((c == '}') || (c == ',') || (c == ' ')) {
+                i++;
+                continue;
+            }
+            //
+            // Key
+            //
+            i = string(json, i, sb);
+            String key = sb.toString();
+            while(json.charAt(i) != ':') {
+                i++;
+            }
+            i++;
+            while(json.charAt(i) == ' ') {
+                i++;
+            }
+            //
+            // Value
+            //
+            if(json.charAt(i) == '"') {
+                i = string(json, i, sb);
+                out.put(key, sb.toString());
+            } else {
+                int start = i;
+                while((i < n) && (json.charAt(i) != ',') && (json.charAt(i) != '}')) {
+                    i++;
+                }
+                String v = json.substring(start, i).trim();
+                out.put(key, v.equals("null") ? null : v);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Parse JSON string
+     * @param json text holding the string
+     * @param i position of the opening quote
+     * @param sb receives the unescaped string
+     * @return position after the closing quote
+     */
+    private static int string(String json, int i, StringBuilder sb) {
+        sb.setLength(0);
+        i++;
+        while(true) {
+            char c = json.charAt(i++);
+            if(c == '"') {
+                return i;
+            }
+            if(c == '\\') {
+                c = json.charAt(i++);
+                switch(c) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        sb.append((char) Integer.parseInt(json.substring(i, i + 4), 16));
+                        i += 4;
+                        break;
+                    default: sb.append(c); break;
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * @param s number as string, may be <code>null</code>
+     * @return the number, 0 if absent
+     */
+    private static int intval(String s) {
+        return (s == null) ? 0 : Integer.parseInt(s);
+    }
+
+    /**
+     * @param s number as string, may be <code>null</code>
+     * @return the number, -1 if absent
+     */
+    private static long longval(String s) {
+        return (s == null) ? -1 : Long.parseLong(s);
+    }
+}
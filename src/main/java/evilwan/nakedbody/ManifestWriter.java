@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the manifest of an export: one JSON object per line (JSONL), one line per saved body.
+ * <p>
+ * The file is only ever appended to, through a single buffered writer shared by all
+ * worker threads.
+ */
+public class ManifestWriter implements Closeable {
+    /**
+     * File name suffix for manifests
+     */
+    public final static String SUFFIX = ".manifest.jsonl";
+    /**
+     * Buffered writer on the manifest file
+     */
+    private final BufferedWriter _out;
+
+    /**
+     * Open manifest for appending
+     * @param manifest name of the manifest file, created if it does not exist
+     * @throws IOException when the file could not be opened
+     */
+    public ManifestWriter(Path manifest) throws IOException {
+        _out = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8,
+                                       StandardOpenOption.CREATE, StandardOpenOption.APPEND,
+                                       StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Append entry to the manifest
+     * @param entry description of a saved body
+     * @throws IOException when writing fails
+     */
+    public void append(ManifestEntry entry) throws IOException {
+        String line = entry.toJson();
+        synchronized(_out) {
+            _out.write(line);
+            _out.write('\n');
+        }
+    }
+
+    /**
+     * Write buffered entries to disk
+     * @throws IOException when writing fails
+     */
+    public void flush() throws IOException {
+        synchronized(_out) {
+            _out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized(_out) {
+            _out.close();
+        }
+    }
+}
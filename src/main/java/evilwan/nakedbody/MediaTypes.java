@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Map message bodies to file extensions, based on their media type or their content.
+ * <p>
+ * The media type from the Content-Type header is normalized (parameters removed,
+ * lower case) and looked up in a table of exact matches. Types that are not in the
+ * table are tried against the structured syntax suffixes ("+json", "+xml") and then
+ * against a short, ordered list of substrings, so the result never depends on
+ * hash map iteration order.
+ * </p>
+ * <p>
+ * When the media type is missing or unknown, the first bytes of the body are compared
+ * against the signatures ("magic numbers") of common file formats.
+ * </p>
+ */
+public class MediaTypes {
+    /**
+     * Extension used when nothing better is known
+     */
+    public final static String DEFAULT_EXTENSION = ".dat";
+    /**
+     * Number of leading body bytes needed by {@link #sniff}
+     */
+    public final static int SNIFF_SIZE = 12;
+    /**
+     * Exact media types and their corresponding file extension
+     */
+    private final static Map<String, String> EXACT = new HashMap<String, String>();
+    /**
+     * Substrings of media types to try, in this order, when there is no exact match.
+     * <p>
+     * Even entries are patterns, odd entries the corresponding file extension. More specific
+     * patterns must come before more general ones (e.g. "woff2" before "woff").
+     */
+    private final static String[] FALLBACK = {
+        "javascript", ".js",
+        "ecmascript", ".js",
+        "woff2", ".woff2",
+        "woff", ".woff",
+        "json", ".json",
+        "html", ".html",
+        "xml", ".xml",
+        "csv", ".csv",
+    };
+
+    static {
+        String[] exact = {
+            "text/plain", ".txt",
+            "text/html", ".html",
+            "application/xhtml+xml", ".html",
+            "text/css", ".css",
+            "text/csv", ".csv",
+            "text/javascript", ".js",
+            "application/javascript", ".js",
+            "application/x-javascript", ".js",
+            "application/ecmascript", ".js",
+            "application/json", ".json",
+            "text/json", ".json",
+            "text/xml", ".xml",
+            "application/xml", ".xml",
+            "application/wasm", ".wasm",
+            "font/woff", ".woff",
+            "font/woff2", ".woff2",
+            "application/font-woff", ".woff",
+            "application/x-font-woff", ".woff",
+            "application/font-woff2", ".woff2",
+            "font/ttf", ".ttf",
+            "font/otf", ".otf",
+            "image/gif", ".gif",
+            "image/png", ".png",
+            "image/jpeg", ".jpg",
+            "image/jpg", ".jpg",
+            "image/pjpeg", ".jpg",
+            "image/x-icon", ".ico",
+            "image/vnd.microsoft.icon", ".ico",
+            "image/svg+xml", ".svg",
+            "image/webp", ".webp",
+            "image/avif", ".avif",
+            "image/bmp", ".bmp",
+            "application/zip", ".zip",
+            "application/pdf", ".pdf",
+            "application/x-pem-file", ".pem",
+            "application/epub+zip", ".epub",
+            "application/gzip", ".gz",
+            "application/x-gzip", ".gz",
+            "application/x-bzip", ".bz",
+            "application/x-bzip2", ".bz2",
+            "video/mp4", ".mp4",
+            "video/mpeg", ".mpg",
+            "video/webm", ".webm",
+            "video/x-msvideo", ".avi",
+            "audio/mpeg", ".mp3",
+            "audio/ogg", ".ogg",
+        };
+        for(int i = 0; i < exact.length; i += 2) {
+            EXACT.put(exact[i], exact[i + 1]);
+        }
+    }
+
+    /**
+     * Utility class, no instances
+     */
+    private MediaTypes() {
+    }
+
+    /**
+     * Guess file extension for a body
+     * @param content_type value of the Content-Type header, <code>null</code> if absent
+     * @param body contains the body bytes
+     * @param ofs zero based offset of the body
+     * @param len number of body bytes
+     * @return file extension including the leading dot, never <code>null</code>
+     */
+    public static String guessExtension(String content_type, byte[] body, int ofs, int len) {
+        //
+        // Plan A: wasm modules are often served with a wrong media type, trust the content
+        //
+        String sniffed = sniff(body, ofs, len);
+        if(".wasm".equals(sniffed)) {
+            return sniffed;
+        }
+        //
+        // Plan B: media type from the header
+        //
+        String ext = forMediaType(content_type);
+        if(ext != null) {
+            return ext;
+        }
+        //
+        // Plan C: whatever the content looks like
+        //
+        return (sniffed != null) ? sniffed : DEFAULT_EXTENSION;
+    }
+
+    /**
+     * Find file extension for the media type in a Content-Type header value
+     * @param content_type header value, e.g. "text/html; charset=UTF-8"
+     * @return file extension, or <code>null</code> if the media type is unknown
+     */
+    public static String forMediaType(String content_type) {
+        String mt = normalize(content_type);
+        if(mt == null) {
+            return null;
+        }
+        String ext = EXACT.get(mt);
+        if(ext != null) {
+            return ext;
+        }
+        if(mt.endsWith("+json")) {
+            return ".json";
+        }
+        if(mt.endsWith("+xml")) {
+            return ".xml";
+        }
+        for(int i = 0; i < FALLBACK.length; i += 2) {
+            if(mt.contains(FALLBACK[i])) {
+                return FALLBACK[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reduce Content-Type header value to the bare media type
+     * @param content_type header value, e.g. " Text/HTML; charset=UTF-8"
+     * @return lower case media type, e.g. "text/html", or <code>null</code> if empty
+     */
+    public static String normalize(String content_type) {
+        if(content_type == null) {
+            return null;
+        }
+        int start = 0;
+        int end = content_type.length();
+        while((start < end) && (content_type.charAt(start) <= ' ')) {
+            start++;
+        }
+        int stop = start;
+        while((stop < end) && (content_type.charAt(stop) != ';') && (content_type.charAt(stop) > ' ')) {
+            stop++;
+        }
+        if(stop == start) {
+            return null;
+        }
+        return content_type.substring(start, stop).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Recognize common file formats from the first bytes of a body
+     * @param b contains the body bytes
+     * @param ofs zero based offset of the body
+     * @param len number of body bytes
+     * @return file extension, or <code>null</code> if the format is not recognized
+     */
+    public static String sniff(byte[] b, int ofs, int len) {
+        if(len < 4) {
+            return null;
+        }
+        int magic = int32(b, ofs);
+        switch(magic) {
+            case 0x0061736d: return ".wasm";   // "\0asm"
+            case 0x89504e47: return ".png";    // "\x89PNG"
+            case 0x47494638: return ".gif";    // "GIF8"
+            case 0x25504446: return ".pdf";    // "%PDF"
+            case 0x504b0304: return ".zip";    // "PK\3\4"
+            case 0x774f4646: return ".woff";   // "wOFF"
+            case 0x774f4632: return ".woff2";  // "wOF2"
+            case 0x4f54544f: return ".otf";    // "OTTO"
+            case 0x00010000: return ".ttf";
+            case 0x00000100: return ".ico";
+            case 0x4f676753: return ".ogg";    // "OggS"
+            case 0x1a45dfa3: return ".webm";   // EBML
+            default: break;
+        }
+        switch(magic >>> 8) {
+            case 0xffd8ff: return ".jpg";
+            case 0x425a68: return ".bz2";      // "BZh"
+            case 0x494433: return ".mp3";      // "ID3"
+            default: break;
+        }
+        if((magic >>> 16) == 0x1f8b) {
+            return ".gz";
+        }
+        if(len >= 12) {
+            if(int32(b, ofs + 4) == 0x66747970) {
+                //
+                // ISO base media file: "....ftyp"
+                //
+                return ".mp4";
+            }
+            if(magic == 0x52494646) {
+                //
+                // "RIFF....WEBP" or "RIFF....AVI "
+                //
+                int sub = int32(b, ofs + 8);
+                if(sub == 0x57454250) {
+                    return ".webp";
+                }
+                if(sub == 0x41564920) {
+                    return ".avi";
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read big endian 32-bit value
+     * @param b contains the bytes
+     * @param ofs zero based offset of the value
+     * @return the value
+     */
+    private static int int32(byte[] b, int ofs) {
+        return ((b[ofs] & 0xff) << 24) | ((b[ofs + 1] & 0xff) << 16) | ((b[ofs + 2] & 0xff) << 8) | (b[ofs + 3] & 0xff);
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Criteria a message has to meet to be saved, compiled once per save operation.
+ * <p>
+ * All checks work directly on the raw request and response bytes: the method is compared
+ * with the start of the request, the status code is read from the status line and the
+ * Content-Type is looked up in the response head without splitting it into lines. Rejected
+ * messages are therefore never analyzed, which is what makes filtering huge selections cheap.
+ * The checks run from cheapest to most expensive and stop at the first one that fails.
+ * </p>
+ * <p>
+ * Status code, media type and size are those of the response: a message without response
+ * does not pass any of these criteria.
+ * </p>
+ */
+public class MessageFilter {
+    /**
+     * Host name pattern, <code>null</code> if any host will do
+     */
+    private final Pattern _host;
+    /**
+     * URL pattern, <code>null</code> if any URL will do
+     */
+    private final Pattern _url;
+    /**
+     * Accepted methods, each followed by a space, <code>null</code> if any method will do
+     */
+    private final byte[][] _methods;
+    /**
+     * Accepted status codes as pairs of lowest and highest code, <code>null</code> if any status will do
+     */
+    private final int[] _statuses;
+    /**
+     * Accepted media types, <code>null</code> if any media type will do
+     */
+    private final String[] _media_types;
+    /**
+     * Smallest accepted response body size in bytes, -1 if no minimum
+     */
+    private final long _min_size;
+    /**
+     * Largest accepted response body size in bytes, -1 if no maximum
+     */
+    private final long _max_size;
+
+    /**
+     * Create filter from compiled criteria
+     * @param host host name pattern, <code>null</code> if any host will do
+     * @param url URL pattern, <code>null</code> if any URL will do
+     * @param methods accepted methods, each followed by a space, <code>null</code> if any method will do
+     * @param statuses accepted status code ranges, <code>null</code> if any status will do
+     * @param media_types accepted media types, <code>null</code> if any media type will do
+     * @param min_size smallest accepted response body size, -1 if no minimum
+     * @param max_size largest accepted response body size, -1 if no maximum
+     */
+    private MessageFilter(Pattern host, Pattern url, byte[][] methods, int[] statuses, String[] media_types,
+                          long min_size, long max_size) {
+        _host = host;
+        _url = url;
+        _methods = methods;
+        _statuses = statuses;
+        _media_types = media_types;
+        _min_size = min_size;
+        _max_size = max_size;
+    }
+
+    /**
+     * Compile the filter settings of a save operation
+     * @param opts settings of the save operation
+     * @return the filter, or <code>null</code> if no criteria were set and every message has to be saved
+     * @throws IllegalArgumentException when a pattern, status code or size is not valid
+     */
+    public static MessageFilter compile(SaveOptions opts) {
+        Pattern host = pattern(opts.getHostPattern());
+        Pattern url = pattern(opts.getUrlPattern());
+        byte[][] methods = null;
+        List<String> lst = tokens(opts.getMethods());
+        if(!lst.isEmpty()) {
+            methods = new byte[lst.size()][];
+            for(int i = 0; i < methods.length; i++) {
+                methods[i] = (lst.get(i).toUpperCase(Locale.ROOT) + " ").getBytes(StandardCharsets.ISO_8859_1);
+            }
+        }
+        int[] statuses = null;
+        lst = tokens(opts.getStatusCodes());
+        if(!lst.isEmpty()) {
+            statuses = new int[lst.size() * 2];
+            for(int i = 0; i < lst.size(); i++) {
+                parseStatus(lst.get(i), statuses, i * 2);
+            }
+        }
+        String[] media_types = null;
+        lst = tokens(opts.getMediaTypes());
+        if(!lst.isEmpty()) {
+            media_types = new String[lst.size()];
+            for(int i = 0; i < media_types.length; i++) {
+                media_types[i] = lst.get(i).toLowerCase(Locale.ROOT);
+            }
+        }
+        long min_size = opts.getMinSize();
+        long max_size = opts.getMaxSize();
+        if((min_size >= 0) && (max_size >= 0) && (min_size > max_size)) {
+            throw new IllegalArgumentException("minimum size " + min_size + " exceeds maximum size " + max_size);
+        }
+        if((host == null) && (url == null) && (methods == null) && (statuses == null) && (media_types == null) &&
+           (min_size < 0) && (max_size < 0)) {
+            return null;
+        }
+        return new MessageFilter(host, url, methods, statuses, media_types, min_size, max_size);
+    }
+
+    /**
+     * Check whether a message has to be saved
+     * @param msg the message
+     * @return <code>true</code> if the message meets all criteria
+     */
+    public boolean accept(HttpMessage msg) {
+        byte[] req = msg.getRequest();
+        if((_methods != null) && !startsWithAny(req, _methods)) {
+            return false;
+        }
+        if((_host != null) && ((msg.getHost() == null) || !_host.matcher(msg.getHost()).find())) {
+            return false;
+        }
+        if((_statuses != null) || (_media_types != null) || (_min_size >= 0) || (_max_size >= 0)) {
+            byte[] resp = msg.getResponse();
+            if(resp == null) {
+                return false;
+            }
+            if((_statuses != null) && !acceptStatus(HeadScanner.statusCode(resp))) {
+                return false;
+            }
+            int head_end = HeadScanner.headEnd(resp);
+            long size = resp.length - head_end;
+            if(((_min_size >= 0) && (size < _min_size)) || ((_max_size >= 0) && (size > _max_size))) {
+                return false;
+            }
+            if((_media_types != null) &&
+               !acceptMediaType(MediaTypes.normalize(HeadScanner.headerValue(resp, head_end, "content-type")))) {
+                return false;
+            }
+        }
+        if(_url != null) {
+            String url = HeadScanner.requestUrl(msg);
+            if((url == null) || !_url.matcher(url).find()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param status status code of the response, -1 if not known
+     * @return <code>true</code> if the status code is in one of the accepted ranges
+     */
+    private boolean acceptStatus(int status) {
+        for(int i = 0; i < _statuses.length; i += 2) {
+            if((status >= _statuses[i]) && (status <= _statuses[i + 1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check a media type against the accepted ones.
+     * <p>
+     * "<code>type/subtype</code>" has to match exactly, "<code>type/*</code>" matches all
+     * subtypes and a value without slash (e.g. "<code>json</code>") matches any media type
+     * containing it.
+     * @param media_type normalized media type of the response, <code>null</code> if none
+     * @return <code>true</code> if the media type is accepted
+     */
+    private boolean acceptMediaType(String media_type) {
+        if(media_type == null) {
+            return false;
+        }
+        for(String mt : _media_types) {
+            if(mt.endsWith("/*")) {
+                if(media_type.startsWith(mt.substring(0, mt.length() - 1))) {
+                    return true;
+                }
+            } else if(mt.indexOf('/') >= 0) {
+                if(media_type.equals(mt)) {
+                    return true;
+                }
+            } else if(media_type.contains(mt)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param b bytes to check
+     * @param prefixes candidate prefixes
+     * @return <code>true</code> if the bytes start with one of the prefixes
+     */
+    private static boolean startsWithAny(byte[] b, byte[][] prefixes) {
+        for(byte[] p : prefixes) {
+            if(b.length >= p.length) {
+                int i = 0;
+                while((i < p.length) && (b[i] == p[i])) {
+                    i++;
+                }
+                if(i == p.length) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param regex regular expression, <code>null</code> or blank if not set
+     * @return compiled case insensitive pattern, <code>null</code> if not set
+     */
+    private static Pattern pattern(String regex) {
+        if((regex == null) || regex.trim().isEmpty()) {
+            return null;
+        }
+        return Pattern.compile(regex.trim(), Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Parse one status code criterium: "200", "200-299" or "2xx"
+     * @param s the criterium
+     * @param range receives lowest and highest code
+     * @param ofs zero based offset in the range array
+     */
+    private static void parseStatus(String s, int[] range, int ofs) {
+        try {
+            String lower = s.toLowerCase(Locale.ROOT);
+            int dash = lower.indexOf('-');
+            if(dash > 0) {
+                range[ofs] = Integer.parseInt(lower.substring(0, dash));
+                range[ofs + 1] = Integer.parseInt(lower.substring(dash + 1));
+            } else if((lower.length() == 3) && lower.endsWith("xx")) {
+                range[ofs] = Integer.parseInt(lower.substring(0, 1)) * 100;
+                range[ofs + 1] = range[ofs] + 99;
+            } else {
+                range[ofs] = Integer.parseInt(lower);
+                range[ofs + 1] = range[ofs];
+            }
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("invalid status code: " + s);
+        }
+    }
+
+    /**
+     * Split a list of values separated by commas and/or white space
+     * @param s the list, <code>null</code> if not set
+     * @return the non-empty values
+     */
+    private static List<String> tokens(String s) {
+        List<String> res = new ArrayList<String>();
+        if(s != null) {
+            for(String t : s.split("[,\\s]+")) {
+                if(!t.isEmpty()) {
+                    res.add(t);
+                }
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Overview of the save jobs of this session, shown in a tab of its own.
+ * <p>
+ * The upper half lists all jobs, the lower half shows the timing figures of the selected
+ * job. Both are refreshed once per second while the panel is showing, so a running job can
+ * be watched without opening its progress dialog.
+ * </p>
+ */
+public class MetricsPanel extends JPanel {
+    /**
+     * Version of the serialized form, required by <code>JPanel</code>
+     */
+    private final static long serialVersionUID = 1L;
+    /**
+     * Refresh interval in milliseconds
+     */
+    private final static int REFRESH_MILLIS = 1000;
+    /**
+     * Maximum number of jobs kept in the list, the oldest ones are dropped first
+     */
+    private final static int MAX_JOBS = 100;
+    /**
+     * Column titles of the job list
+     */
+    private final static String[] COLUMNS = { "Job", "State", "Items", "Skipped", "Files", "Bytes", "Failures", "Elapsed (s)" };
+
+    /**
+     * Jobs shown, oldest first; only touched on the event dispatch thread
+     */
+    private final List<SaveJob> _jobs = new ArrayList<SaveJob>();
+    /**
+     * Model of the job list
+     */
+    private final JobTableModel _model = new JobTableModel();
+    /**
+     * Job list
+     */
+    private final JTable _table = new JTable(_model);
+    /**
+     * Figures of the selected job
+     */
+    private final JTextArea _details = new JTextArea();
+    /**
+     * Refreshes the figures while the panel is showing
+     */
+    private final Timer _refresher;
+
+    /**
+     * Table model on top of the job list
+     */
+    private class JobTableModel extends AbstractTableModel {
+        /**
+         * Version of the serialized form, required by <code>AbstractTableModel</code>
+         */
+        private final static long serialVersionUID = 1L;
+
+        /**
+         * @return number of jobs
+         */
+        @Override
+        public int getRowCount() {
+            return _jobs.size();
+        }
+
+        /**
+         * @return number of columns
+         */
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        /**
+         * @param col zero based column number
+         * @return column title
+         */
+        @Override
+        public String getColumnName(int col) {
+            return COLUMNS[col];
+        }
+
+        /**
+         * @param row zero based row number
+         * @param col zero based column number
+         * @return current value of the cell
+         */
+        @Override
+        public Object getValueAt(int row, int col) {
+            SaveJob job = _jobs.get(row);
+            switch(col) {
+                case 0:
+                    return job.getId();
+                case 1:
+                    return job.isDone() ? (job.isCancelled() ? "cancelled" : "done") : "running";
+                case 2:
+                    return job.getCompleted();
+                case 3:
+                    return job.getSkipped();
+                case 4:
+                    return job.getFilesWritten();
+                case 5:
+                    return job.getBytesWritten();
+                case 6:
+                    return job.getFailed();
+                default:
+                    return String.format("%.1f", job.getElapsedMillis() / 1000.0);
+            }
+        }
+    }
+
+    /**
+     * Create the panel and start refreshing it
+     */
+    public MetricsPanel() {
+        super(new BorderLayout());
+        _table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        _table.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+            /**
+             * Show the figures of the newly selected job
+             * @param e is the event that triggers this call
+             */
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                if(!e.getValueIsAdjusting()) {
+                    updateDetails();
+                }
+            }
+        });
+        _details.setEditable(false);
+        _details.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(_table), new JScrollPane(_details));
+        split.setResizeWeight(0.4);
+        add(split, BorderLayout.CENTER);
+        _refresher = new Timer(REFRESH_MILLIS, new ActionListener() {
+            /**
+             * Called periodically to show the progress of the jobs
+             * @param actionEvent is the event that triggers this call
+             */
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                if(isShowing()) {
+                    refresh();
+                }
+            }
+        });
+        _refresher.start();
+    }
+
+    /**
+     * Stop refreshing, e.g. when the extension is unloaded; the panel is not updated anymore
+     */
+    public void dispose() {
+        _refresher.stop();
+    }
+
+    /**
+     * Add a job to the list; may be called from any thread
+     * @param job the job
+     */
+    public void addJob(final SaveJob job) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if(_jobs.size() == MAX_JOBS) {
+                    _jobs.remove(0);
+                    _model.fireTableRowsDeleted(0, 0);
+                }
+                _jobs.add(job);
+                _model.fireTableRowsInserted(_jobs.size() - 1, _jobs.size() - 1);
+                int row = _jobs.size() - 1;
+                _table.getSelectionModel().setSelectionInterval(row, row);
+            }
+        });
+    }
+
+    /**
+     * Show the current figures of all jobs
+     */
+    private void refresh() {
+        int row = _table.getSelectedRow();
+        if(_jobs.isEmpty()) {
+            return;
+        }
+        _model.fireTableRowsUpdated(0, _jobs.size() - 1);
+        if(row >= 0) {
+            _table.getSelectionModel().setSelectionInterval(row, row);
+        }
+        updateDetails();
+    }
+
+    /**
+     * Show the figures of the selected job
+     */
+    private void updateDetails() {
+        int row = _table.getSelectedRow();
+        String text = (row >= 0) ? _jobs.get(row).getMetrics().toText(_jobs.get(row)) : "";
+        if(!text.equals(_details.getText())) {
+            _details.setText(text);
+            _details.setCaretPosition(0);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Splits multipart/form-data and multipart/mixed bodies into their parts.
+ * <p>
+ * The body is scanned once, in place, for the boundary delimiter with the
+ * Boyer-Moore-Horspool algorithm. Every part is reported as an offset and length
+ * into the original byte array, so nothing is copied, however large the uploads are.
+ * Only the (small) part headers are turned into strings.
+ * </p>
+ */
+public class MultipartSplitter {
+    /**
+     * Receives the parts of a multipart body
+     */
+    public interface PartHandler {
+        /**
+         * Called for every part, in body order
+         * @param index zero based index of the part
+         * @param name value of the "name" parameter of Content-Disposition, <code>null</code> if absent
+         * @param filename value of the "filename" parameter of Content-Disposition, <code>null</code> if absent
+         * @param content_type value of the part Content-Type header, <code>null</code> if absent
+         * @param bar byte array holding the part content
+         * @param ofs zero based offset of the part content
+         * @param len number of bytes in the part content
+         */
+        void part(int index, String name, String filename, String content_type, byte[] bar, int ofs, int len);
+    }
+
+    /**
+     * Utility class, no instances
+     */
+    private MultipartSplitter() {
+    }
+
+    /**
+     * Get the boundary of a multipart body
+     * @param content_type value of the Content-Type header of the message
+     * @return boundary, or <code>null</code> if the body is not multipart/form-data or multipart/mixed
+     */
+    public static String boundary(String content_type) {
+        String mt = MediaTypes.normalize(content_type);
+        if(!"multipart/form-data".equals(mt) && !"multipart/mixed".equals(mt)) {
+            return null;
+        }
+        return parameter(content_type, "boundary");
+    }
+
+    /**
+     * Split multipart body into its parts
+     * @param bar contains the body
+     * @param ofs zero based offset of the body
+     * @param len number of body bytes
+     * @param boundary boundary as found in the Content-Type header
+     * @param handler receives the parts
+     * @return number of parts found
+     */
+    public static int split(byte[] bar, int ofs, int len, String boundary, PartHandler handler) {
+        //
+        // Every delimiter but the first one is preceded by CRLF, which belongs to the delimiter
+        //
+        byte[] delim = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        int[] shift = shiftTable(delim);
+        int end = ofs + len;
+        int pos;
+        if(startsWith(bar, ofs, end, delim, 2)) {
+            pos = ofs + delim.length - 2;
+        } else {
+            //
+            // Skip the preamble
+            //
+            int d = indexOf(bar, ofs, end, delim, shift);
+            if(d < 0) {
+                return 0;
+            }
+            pos = d + delim.length;
+        }
+        int count = 0;
+        while(pos < end) {
+            if((pos + 1 < end) && (bar[pos] == '-') && (bar[pos + 1] == '-')) {
+                //
+                // Close delimiter: done
+                //
+                break;
+            }
+            //
+            // Skip transport padding and the line end after the delimiter
+            //
+            pos = lineEnd(bar, pos, end);
+            //
+            // Part headers run up to the first empty line
+            //
+            String name = null;
+            String filename = null;
+            String ctype = null;
+            while(pos < end) {
+                int eol = lineEnd(bar, pos, end);
+                int stop = eol;
+                while((stop > pos) && ((bar[stop - 1] == '\n') || (bar[stop - 1] == '\r'))) {
+                    stop--;
+                }
+                if(stop == pos) {
+                    pos = eol;
+                    break;
+                }
+                String line = new String(bar, pos, stop - pos, StandardCharsets.UTF_8);
+                int colon = line.indexOf(':');
+                if(colon > 0) {
+                    String hname = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                    String hval = line.substring(colon + 1).trim();
+                    if(hname.equals("content-disposition")) {
+                        name = parameter(hval, "name");
+                        filename = parameter(hval, "filename");
+                    } else if(hname.equals("content-type")) {
+                        ctype = hval;
+                    }
+                }
+                pos = eol;
+            }
+            int d = indexOf(bar, pos, end, delim, shift);
+            int part_end = (d < 0) ? end : d;
+            handler.part(count, name, filename, ctype, bar, pos, part_end - pos);
+            count++;
+            if(d < 0) {
+                break;
+            }
+            pos = d + delim.length;
+        }
+        return count;
+    }
+
+    /**
+     * Get a parameter from a header value like <code>form-data; name="x"; filename="y.png"</code>
+     * @param value header value
+     * @param param lower case parameter name
+     * @return parameter value without quotes, or <code>null</code> if absent
+     */
+    static String parameter(String value, String param) {
+        int i = value.indexOf(';');
+        while(i >= 0) {
+            int start = i + 1;
+            while((start < value.length()) && (value.charAt(start) == ' ')) {
+                start++;
+            }
+            int eq = value.indexOf('=', start);
+            if(eq < 0) {
+                return null;
+            }
+            boolean match = value.substring(start, eq).trim().equalsIgnoreCase(param);
+            int vstart = eq + 1;
+            int vend;
+            if((vstart < value.length()) && (value.charAt(vstart) == '"')) {
+                vstart++;
+                vend = value.indexOf('"', vstart);
+                if(vend < 0) {
+                    vend = value.length();
+                }
+                i = value.indexOf(';', vend);
+            } else {
+                vend = value.indexOf(';', vstart);
+                i = vend;
+                if(vend < 0) {
+                    vend = value.length();
+                }
+            }
+            if(match) {
+                return value.substring(vstart, vend).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Position just after the next line feed
+     * @param bar bytes to search
+     * @param pos start position
+     * @param end end of the search range
+     * @return position after the line feed, or <code>end</code> if there is none
+     */
+    private static int lineEnd(byte[] bar, int pos, int end) {
+        while(pos < end) {
+            if(bar[pos++] == '\n') {
+                return pos;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Check whether a pattern (minus some leading bytes) occurs at a position
+     * @param bar bytes to check
+     * @param pos position to check
+     * @param end end of valid bytes
+     * @param pat pattern
+     * @param skip number of leading pattern bytes to ignore
+     * @return <code>true</code> if the bytes match
+     */
+    private static boolean startsWith(byte[] bar, int pos, int end, byte[] pat, int skip) {
+        if(end - pos < pat.length - skip) {
+            return false;
+        }
+        for(int i = skip; i < pat.length; i++) {
+            if(bar[pos + i - skip] != pat[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Build Boyer-Moore-Horspool bad character shift table
+     * @param pat pattern to search for
+     * @return shift for every possible byte value
+     */
+    private static int[] shiftTable(byte[] pat) {
+        int[] shift = new int[256];
+        Arrays.fill(shift, pat.length);
+        for(int i = 0; i < pat.length - 1; i++) {
+            shift[pat[i] & 0xff] = pat.length - 1 - i;
+        }
+        return shift;
+    }
+
+    /**
+     * Find the first occurrence of a pattern with Boyer-Moore-Horspool
+     * @param bar bytes to search
+     * @param from start of the search range
+     * @param end end of the search range
+     * @param pat pattern to search for
+     * @param shift shift table for the pattern
+     * @return position of the first match, or -1 if not found
+     */
+    private static int indexOf(byte[] bar, int from, int end, byte[] pat, int[] shift) {
+        int last = pat.length - 1;
+        int pos = from;
+        while(pos + last < end) {
+            int i = last;
+            while(bar[pos + i] == pat[i]) {
+                if(i == 0) {
+                    return pos;
+                }
+                i--;
+            }
+            pos += shift[bar[pos + last] & 0xff];
+        }
+        return -1;
+    }
+}
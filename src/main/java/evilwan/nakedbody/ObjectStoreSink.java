@@ -0,0 +1,572 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Uploads every body as an object to an S3 compatible object store (AWS S3, MinIO, Ceph, ...).
+ * <p>
+ * Destinations look like "<code>s3://bucket/prefix</code>" for AWS (virtual hosted style) or
+ * "<code>s3+http://localhost:9000/bucket/prefix</code>" and "<code>s3+https://...</code>" for
+ * other stores (path style). The object key is the prefix, a slash and the name of the body.
+ * Requests are signed with AWS signature version 4 when credentials are found in the
+ * environment variables (or system properties) the AWS tools use: <code>AWS_ACCESS_KEY_ID</code>
+ * (<code>aws.accessKeyId</code>), <code>AWS_SECRET_ACCESS_KEY</code> (<code>aws.secretAccessKey</code>),
+ * optionally <code>AWS_SESSION_TOKEN</code> (<code>aws.sessionToken</code>) and
+ * <code>AWS_REGION</code> (<code>aws.region</code>, default "<code>us-east-1</code>").
+ * Without credentials the requests are sent unsigned.
+ * </p>
+ * <p>
+ * Uploads run asynchronously on one pooled HTTP client, at most {@link #MAX_UPLOADS} at a
+ * time: writing a body returns as soon as its upload is started, and only blocks while the
+ * maximum number of uploads is in flight. The bytes passed to {@link #write(String, byte[], int, int)}
+ * are sent as they are, without a copy. Failed uploads are retried with back-off when the
+ * store is busy or the connection failed. A body that still cannot be stored is reported to
+ * the failure listener, with its name; without a listener, closing the sink (which waits for
+ * all uploads to finish) throws an exception naming every body that failed.
+ * </p>
+ */
+public class ObjectStoreSink implements BodySink {
+    /**
+     * Finds this sink for "<code>s3://</code>", "<code>s3+http://</code>" and "<code>s3+https://</code>" destinations
+     */
+    public static class Provider implements SinkProvider {
+        @Override
+        public boolean accepts(String destination) {
+            return destination.startsWith("s3://") || destination.startsWith("s3+http://") ||
+                destination.startsWith("s3+https://");
+        }
+
+        @Override
+        public BodySink open(String destination) throws IOException {
+            return new ObjectStoreSink(destination);
+        }
+    }
+
+    /**
+     * Maximum number of uploads in flight
+     */
+    private final static int MAX_UPLOADS = 8;
+    /**
+     * Number of attempts per upload
+     */
+    private final static int MAX_ATTEMPTS = 4;
+    /**
+     * Streamed bodies larger than this are buffered in a temporary file instead of in memory
+     */
+    private final static int MAX_BUFFERED = 8 << 20;
+    /**
+     * Hash of the payload for unsigned requests
+     */
+    private final static String UNSIGNED = "UNSIGNED-PAYLOAD";
+    /**
+     * Format of the request time stamp
+     */
+    private final static DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+    /**
+     * Pooled client for all uploads
+     */
+    private final HttpClient _client = HttpClient.newBuilder()
+        .connectTimeout(Duration.ofSeconds(30))
+        .build();
+    /**
+     * Scheme, host and port of the store
+     */
+    private final String _endpoint;
+    /**
+     * Host header, with the port if it is not the default one
+     */
+    private final String _host;
+    /**
+     * Path up to the object key, with a trailing slash: "<code>/</code>" or "<code>/bucket/</code>"
+     */
+    private final String _path;
+    /**
+     * Key prefix, empty or ending with a slash
+     */
+    private final String _prefix;
+    /**
+     * Region for signing requests
+     */
+    private final String _region;
+    /**
+     * Access key, <code>null</code> if requests are not signed
+     */
+    private final String _access_key;
+    /**
+     * Secret key, <code>null</code> if requests are not signed
+     */
+    private final String _secret_key;
+    /**
+     * Session token for temporary credentials, <code>null</code> if none
+     */
+    private final String _session_token;
+    /**
+     * Permits for uploads in flight
+     */
+    private final Semaphore _uploads = new Semaphore(MAX_UPLOADS);
+    /**
+     * Receives failed uploads, <code>null</code> to collect them in {@link #_failures}
+     */
+    private volatile FailureListener _listener = null;
+    /**
+     * Failed uploads while there is no listener, reported when the sink is closed
+     */
+    private final List<String> _failures = new ArrayList<String>();
+
+    /**
+     * Create sink for a destination
+     * @param destination "<code>s3://bucket/prefix</code>", "<code>s3+http://host:port/bucket/prefix</code>" or
+     *                    "<code>s3+https://host:port/bucket/prefix</code>"
+     * @throws IOException when the destination is not valid
+     */
+    public ObjectStoreSink(String destination) throws IOException {
+        _access_key = setting("AWS_ACCESS_KEY_ID", "aws.accessKeyId");
+        _secret_key = setting("AWS_SECRET_ACCESS_KEY", "aws.secretAccessKey");
+        _session_token = setting("AWS_SESSION_TOKEN", "aws.sessionToken");
+        String region = setting("AWS_REGION", "aws.region");
+        if(region == null) {
+            region = setting("AWS_DEFAULT_REGION", "aws.region");
+        }
+        _region = (region != null) ? region : "us-east-1";
+        URI uri;
+        try {
+            uri = new URI(destination);
+        } catch (Exception e) {
+            throw new IOException("invalid object store destination " + destination, e);
+        }
+        String path = (uri.getPath() != null) ? uri.getPath() : "";
+        String bucket;
+        if("s3".equals(uri.getScheme())) {
+            bucket = uri.getHost();
+            _host = bucket + ".s3." + _region + ".amazonaws.com";
+            _endpoint = "https://" + _host;
+            _path = "/";
+        } else {
+            if(uri.getHost() == null) {
+                throw new IOException("invalid object store destination " + destination);
+            }
+            int slash = path.indexOf('/', 1);
+            bucket = (slash < 0) ? path.substring(Math.min(1, path.length())) : path.substring(1, slash);
+            path = (slash < 0) ? "" : path.substring(slash);
+            _host = uri.getHost() + ((uri.getPort() >= 0) ? ":" + uri.getPort() : "");
+            _endpoint = uri.getScheme().substring(3) + "://" + _host;
+            _path = "/" + encode(bucket) + "/";
+        }
+        if((bucket == null) || bucket.isEmpty()) {
+            throw new IOException("no bucket in object store destination " + destination);
+        }
+        String prefix = path;
+        while(prefix.startsWith("/")) {
+            prefix = prefix.substring(1);
+        }
+        while(prefix.endsWith("/")) {
+            prefix = prefix.substring(0, prefix.length() - 1);
+        }
+        _prefix = prefix.isEmpty() ? "" : prefix + "/";
+    }
+
+    /**
+     * Look up a setting in the environment, then in the system properties
+     * @param env name of the environment variable
+     * @param prop name of the system property
+     * @return the value, <code>null</code> if not set
+     */
+    private static String setting(String env, String prop) {
+        String v = System.getenv(env);
+        if((v == null) || v.isEmpty()) {
+            v = System.getProperty(prop);
+        }
+        return ((v == null) || v.isEmpty()) ? null : v;
+    }
+
+    @Override
+    public long write(String name, byte[] bar, int ofs, int len) throws IOException {
+        String hash = UNSIGNED;
+        if(_secret_key != null) {
+            MessageDigest digest = sha256();
+            digest.update(bar, ofs, len);
+            hash = hex(digest.digest());
+        }
+        start(name, HttpRequest.BodyPublishers.ofByteArray(bar, ofs, len), hash, null);
+        return -1;
+    }
+
+    @Override
+    public void setFailureListener(FailureListener listener) {
+        _listener = listener;
+    }
+
+    @Override
+    public OutputStream open(final String name) throws IOException {
+        final MessageDigest digest = (_secret_key != null) ? sha256() : null;
+        return new OutputStream() {
+            /**
+             * Body while it is small enough
+             */
+            private ByteArrayOutputStream _buf = new ByteArrayOutputStream();
+            /**
+             * Temporary file once the body is too large to keep in memory, <code>null</code> until then
+             */
+            private Path _tmp = null;
+            /**
+             * Stream on {@link #_tmp}
+             */
+            private OutputStream _os = null;
+            /**
+             * <code>true</code> once closed
+             */
+            private boolean _closed = false;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bar, int ofs, int len) throws IOException {
+                if(_os != null) {
+                    _os.write(bar, ofs, len);
+                    return;
+                }
+                _buf.write(bar, ofs, len);
+                if(_buf.size() > MAX_BUFFERED) {
+                    _tmp = Files.createTempFile("nakedbody-", ".upload");
+                    OutputStream os = Files.newOutputStream(_tmp);
+                    _os = (digest != null) ? new DigestOutputStream(os, digest) : os;
+                    _buf.writeTo(_os);
+                    _buf = null;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if(_closed) {
+                    return;
+                }
+                _closed = true;
+                if(_os == null) {
+                    byte[] bar = _buf.toByteArray();
+                    start(name, HttpRequest.BodyPublishers.ofByteArray(bar),
+                          (digest != null) ? hex(digest.digest(bar)) : UNSIGNED, null);
+                    return;
+                }
+                try {
+                    _os.close();
+                    start(name, HttpRequest.BodyPublishers.ofFile(_tmp),
+                          (digest != null) ? hex(digest.digest()) : UNSIGNED, _tmp);
+                } catch (IOException ioe) {
+                    Files.deleteIfExists(_tmp);
+                    throw ioe;
+                }
+            }
+        };
+    }
+
+    /**
+     * Start uploading a body, waiting first while too many uploads are in flight
+     * @param name name of the body
+     * @param body the body
+     * @param hash hex SHA-256 of the body, or "{@value #UNSIGNED}"
+     * @param tmp temporary file holding the body, removed when the upload is done, <code>null</code> if none
+     * @throws IOException when interrupted while waiting
+     */
+    private void start(String name, HttpRequest.BodyPublisher body, String hash, Path tmp) throws IOException {
+        try {
+            _uploads.acquire();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            if(tmp != null) {
+                Files.deleteIfExists(tmp);
+            }
+            throw new InterruptedIOException("interrupted while waiting to upload " + name);
+        }
+        upload(name, _path + encode(_prefix + name), body, hash, tmp, 1);
+    }
+
+    /**
+     * Send one attempt of an upload, retrying or finishing it when the response arrives
+     * @param name name of the body
+     * @param path encoded path of the object
+     * @param body the body
+     * @param hash hex SHA-256 of the body, or "{@value #UNSIGNED}"
+     * @param tmp temporary file holding the body, <code>null</code> if none
+     * @param attempt number of this attempt, starting at 1
+     */
+    private void upload(final String name, final String path, final HttpRequest.BodyPublisher body,
+                        final String hash, final Path tmp, final int attempt) {
+        HttpRequest req;
+        try {
+            req = request(path, body, hash);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            finish(name, tmp, e.toString());
+            return;
+        }
+        _client.sendAsync(req, HttpResponse.BodyHandlers.ofString()).whenComplete((resp, err) -> {
+            int status = (resp != null) ? resp.statusCode() : 0;
+            if((err == null) && (status / 100 == 2)) {
+                finish(name, tmp, null);
+            } else if((attempt < MAX_ATTEMPTS) && ((err != null) || (status == 429) || (status >= 500))) {
+                //
+                // Busy or unreachable store: back off 200 ms, 400 ms, 800 ms
+                //
+                CompletableFuture.delayedExecutor(100L << attempt, TimeUnit.MILLISECONDS)
+                    .execute(() -> upload(name, path, body, hash, tmp, attempt + 1));
+            } else {
+                String why = (err != null) ? err.toString() : "HTTP " + status + " " + abbreviate(resp.body());
+                finish(name, tmp, why);
+            }
+        });
+    }
+
+    /**
+     * Build a signed (or unsigned) PUT request
+     * @param path encoded path of the object
+     * @param body the body
+     * @param hash hex SHA-256 of the body, or "{@value #UNSIGNED}"
+     * @return the request
+     * @throws GeneralSecurityException when signing failed
+     */
+    private HttpRequest request(String path, HttpRequest.BodyPublisher body, String hash)
+        throws GeneralSecurityException {
+        HttpRequest.Builder rb = HttpRequest.newBuilder(URI.create(_endpoint + path))
+            .timeout(Duration.ofMinutes(5))
+            .header("Content-Type", "application/octet-stream")
+            .PUT(body);
+        if(_secret_key == null) {
+            return rb.build();
+        }
+        String amz_date = AMZ_DATE.format(ZonedDateTime.now(ZoneOffset.UTC));
+        TreeMap<String, String> headers = new TreeMap<String, String>();
+        headers.put("host", _host);
+        headers.put("x-amz-content-sha256", hash);
+        headers.put("x-amz-date", amz_date);
+        if(_session_token != null) {
+            headers.put("x-amz-security-token", _session_token);
+        }
+        for(Map.Entry<String, String> e : headers.entrySet()) {
+            if(!"host".equals(e.getKey())) {
+                rb.header(e.getKey(), e.getValue());
+            }
+        }
+        rb.header("Authorization", authorization("PUT", path, "", headers, hash, amz_date, _region,
+                                                 _access_key, _secret_key));
+        return rb.build();
+    }
+
+    /**
+     * Account for a finished upload
+     * <p>
+     * A failure is reported before the permit is released, so it is known once {@link #close()} returns.
+     * @param name name of the body
+     * @param tmp temporary file holding the body, <code>null</code> if none
+     * @param failure why the upload failed, <code>null</code> if it succeeded
+     */
+    private void finish(String name, Path tmp, String failure) {
+        try {
+            if(tmp != null) {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException ioe) {
+            //
+            // Only a temporary file left behind
+            //
+        } finally {
+            try {
+                if(failure != null) {
+                    IOException ioe = new IOException("upload of " + name + " to " + _endpoint + " failed: " + failure);
+                    FailureListener listener = _listener;
+                    if(listener != null) {
+                        listener.failed(name, ioe);
+                    } else {
+                        synchronized(_failures) {
+                            _failures.add(ioe.getMessage());
+                        }
+                    }
+                }
+            } finally {
+                _uploads.release();
+            }
+        }
+    }
+
+    /**
+     * Wait for all uploads to finish
+     * @throws IOException when interrupted while waiting, or when uploads failed while no failure
+     *                     listener was set
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            _uploads.acquire(MAX_UPLOADS);
+            _uploads.release(MAX_UPLOADS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for uploads to finish");
+        }
+        synchronized(_failures) {
+            if(!_failures.isEmpty()) {
+                throw new IOException(_failures.size() + " upload(s) failed: " + String.join("; ", _failures));
+            }
+        }
+    }
+
+    /**
+     * Compute the AWS signature version 4 authorization header of an S3 request
+     * @param method HTTP method
+     * @param path encoded path
+     * @param query canonical query string, empty if none
+     * @param headers all signed headers, lower case names, including "<code>host</code>"
+     * @param hash hex SHA-256 of the payload, or "{@value #UNSIGNED}"
+     * @param amz_date request time stamp, as in the "<code>x-amz-date</code>" header
+     * @param region region of the bucket
+     * @param access_key access key
+     * @param secret_key secret key
+     * @return value for the "<code>Authorization</code>" header
+     * @throws GeneralSecurityException when the hash or MAC algorithms are not available
+     */
+    static String authorization(String method, String path, String query, TreeMap<String, String> headers,
+                                String hash, String amz_date, String region, String access_key, String secret_key)
+        throws GeneralSecurityException {
+        StringBuilder canonical = new StringBuilder();
+        canonical.append(method).append('\n').append(path).append('\n').append(query).append('\n');
+        for(Map.Entry<String, String> e : headers.entrySet()) {
+            canonical.append(e.getKey()).append(':').append(e.getValue().trim()).append('\n');
+        }
+        String signed = String.join(";", headers.keySet());
+        canonical.append('\n').append(signed).append('\n').append(hash);
+        String date = amz_date.substring(0, 8);
+        String scope = date + "/" + region + "/s3/aws4_request";
+        String to_sign = "AWS4-HMAC-SHA256\n" + amz_date + "\n" + scope + "\n" +
+            hex(sha256().digest(canonical.toString().getBytes(StandardCharsets.UTF_8)));
+        byte[] key = hmac(("AWS4" + secret_key).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, region);
+        key = hmac(key, "s3");
+        key = hmac(key, "aws4_request");
+        return "AWS4-HMAC-SHA256 Credential=" + access_key + "/" + scope + ",SignedHeaders=" + signed +
+            ",Signature=" + hex(hmac(key, to_sign));
+    }
+
+    /**
+     * @param key HMAC key
+     * @param data text to sign
+     * @return HMAC-SHA256 of the UTF-8 text
+     * @throws GeneralSecurityException when HMAC-SHA256 is not available
+     */
+    private static byte[] hmac(byte[] key, String data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return new SHA-256 digest
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException("SHA-256 not available", nsae);
+        }
+    }
+
+    /**
+     * @param bar bytes
+     * @return lower case hex representation
+     */
+    private static String hex(byte[] bar) {
+        StringBuilder sb = new StringBuilder(bar.length * 2);
+        for(byte b : bar) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * URI encode a key the way S3 expects it: everything but unreserved characters and slashes
+     * @param key the key
+     * @return encoded key
+     */
+    static String encode(String key) {
+        StringBuilder sb = new StringBuilder();
+        for(byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            int c = b & 0xff;
+            if(((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')) ||
+               (c == '-') || (c == '.') || (c == '_') || (c == '~') || (c == '/')) {
+                sb.append((char) c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                  .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param s text, <code>null</code> allowed
+     * @return the text on one line, at most 200 characters
+     */
+    private static String abbreviate(String s) {
+        if(s == null) {
+            return "";
+        }
+        s = s.replaceAll("\\s+", " ").trim();
+        return (s.length() > 200) ? s.substring(0, 200) + "..." : s;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Head parser that does not need Burp, for extracting bodies from exported files.
+ * <p>
+ * Lines may end in CRLF or in a bare LF. A message without empty line after the headers
+ * has no body. URLs are built like Burp does: protocol, host and port of the target,
+ * followed by the request target.
+ */
+public class PlainHeadParser implements HeadParser {
+    @Override
+    public HttpHead parseRequest(HttpMessage msg) {
+        byte[] bar = msg.getRequest();
+        List<String> hdrs = new ArrayList<String>();
+        int body_ofs = split(bar, hdrs);
+        String method = null;
+        String url = null;
+        if(!hdrs.isEmpty()) {
+            String line = hdrs.get(0);
+            int sp1 = line.indexOf(' ');
+            method = (sp1 < 0) ? line : line.substring(0, sp1);
+            if(sp1 >= 0) {
+                int sp2 = line.indexOf(' ', sp1 + 1);
+                String target = (sp2 < 0) ? line.substring(sp1 + 1) : line.substring(sp1 + 1, sp2);
+                if(target.startsWith("http://") || target.startsWith("https://")) {
+                    //
+                    // Proxy style request: target already is a full URL
+                    //
+                    url = target;
+                } else if((msg.getHost() != null) && (msg.getProtocol() != null)) {
+                    int port = msg.getPort();
+                    if(port < 0) {
+                        port = "https".equalsIgnoreCase(msg.getProtocol()) ? 443 : 80;
+                    }
+                    url = msg.getProtocol() + "://" + msg.getHost() + ":" + port + target;
+                }
+            }
+        }
+        return new HttpHead(body_ofs, hdrs, method, url, 0);
+    }
+
+    @Override
+    public HttpHead parseResponse(byte[] response) {
+        List<String> hdrs = new ArrayList<String>();
+        int body_ofs = split(response, hdrs);
+        int status = 0;
+        if(!hdrs.isEmpty()) {
+            String line = hdrs.get(0);
+            int sp = line.indexOf(' ');
+            for(int i = sp + 1; (sp >= 0) && (i < line.length()); i++) {
+                char c = line.charAt(i);
+                if((c < '0') || (c > '9')) {
+                    break;
+                }
+                status = status * 10 + (c - '0');
+            }
+        }
+        return new HttpHead(body_ofs, hdrs, null, null, status);
+    }
+
+    /**
+     * Split message head into lines
+     * @param bar message bytes
+     * @param hdrs list to add the head lines to
+     * @return zero based offset of the body
+     */
+    private static int split(byte[] bar, List<String> hdrs) {
+        int start = 0;
+        for(int i = 0; i < bar.length; i++) {
+            if(bar[i] != '\n') {
+                continue;
+            }
+            int end = ((i > start) && (bar[i - 1] == '\r')) ? i - 1 : i;
+            if(end == start) {
+                //
+                // Empty line: end of head
+                //
+                return i + 1;
+            }
+            hdrs.add(new String(bar, start, end - start, StandardCharsets.ISO_8859_1));
+            start = i + 1;
+        }
+        if(start < bar.length) {
+            hdrs.add(new String(bar, start, bar.length - start, StandardCharsets.ISO_8859_1));
+        }
+        return bar.length;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+/**
+ * Plain copy of a request with its response and target.
+ */
+public class RawMessage implements HttpMessage {
+    /**
+     * Request bytes
+     */
+    private final byte[] _request;
+    /**
+     * Response bytes, <code>null</code> if there is no response
+     */
+    private final byte[] _response;
+    /**
+     * Protocol of the target
+     */
+    private final String _protocol;
+    /**
+     * Host name of the target
+     */
+    private final String _host;
+    /**
+     * Port of the target
+     */
+    private final int _port;
+
+    /**
+     * Create new message
+     * @param request request bytes
+     * @param response response bytes, <code>null</code> if there is no response
+     * @param protocol protocol of the target, <code>null</code> if not known
+     * @param host host name of the target, <code>null</code> if not known
+     * @param port port of the target, -1 if not known
+     */
+    public RawMessage(byte[] request, byte[] response, String protocol, String host, int port) {
+        _request = request;
+        _response = response;
+        _protocol = protocol;
+        _host = host;
+        _port = port;
+    }
+
+    @Override
+    public byte[] getRequest() {
+        return _request;
+    }
+
+    @Override
+    public byte[] getResponse() {
+        return _response;
+    }
+
+    @Override
+    public String getProtocol() {
+        return _protocol;
+    }
+
+    @Override
+    public String getHost() {
+        return _host;
+    }
+
+    @Override
+    public int getPort() {
+        return _port;
+    }
+}
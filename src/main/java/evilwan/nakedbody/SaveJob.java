@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Handle for one save operation that runs in the background.
+ * <p>
+ * A job owns a bounded pool of worker threads. A single feeder thread hands the
+ * individual items to the pool through {@link #submit(ItemTask)}, which blocks
+ * as soon as a fixed number of items are in flight. That way a huge selection
+ * never piles up in a work queue, while all workers are kept busy.
+ * </p>
+ * <p>
+ * The UI is expected to poll the job (see {@link #getCompleted()}, {@link #getEtaMillis()}
+ * and friends) instead of being called back, so no worker thread ever touches Swing.
+ * </p>
+ */
+public class SaveJob {
+    /**
+     * Work to be done for a single item of the job.
+     */
+    public interface ItemTask {
+        /**
+         * Process one item.
+         * @throws Exception when the item could not be processed; the job counts it as failed
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * Code that submits all items of the job, run on the feeder thread.
+     */
+    public interface Feeder {
+        /**
+         * Submit all items for the specified job.
+         * @param job to submit the items to
+         * @throws Exception when feeding had to be aborted
+         */
+        void feed(SaveJob job) throws Exception;
+    }
+
+    /**
+     * Counter used for naming the threads of all jobs.
+     */
+    private final static AtomicInteger _jobcount = new AtomicInteger();
+    /**
+     * Number of this job, for reports
+     */
+    private final int _id;
+    /**
+     * Timing and volume figures of this job
+     */
+    private final ExportMetrics _metrics = new ExportMetrics();
+    /**
+     * Number of items in this job, or -1 if not known up front.
+     */
+    private final int _total;
+    /**
+     * Worker threads
+     */
+    private final ExecutorService _pool;
+    /**
+     * Limits the number of items that are submitted but not yet finished.
+     */
+    private final Semaphore _slots;
+    /**
+     * Set when the job is cancelled
+     */
+    private final AtomicBoolean _cancelled = new AtomicBoolean(false);
+    /**
+     * Number of items that have been handled (successful or not)
+     */
+    private final AtomicInteger _completed = new AtomicInteger();
+    /**
+     * Number of items for which an error occurred
+     */
+    private final AtomicInteger _failed = new AtomicInteger();
+    /**
+     * Number of items skipped because they were exported before or fell outside the scope
+     */
+    private final AtomicInteger _skipped = new AtomicInteger();
+    /**
+     * Number of files written so far
+     */
+    private final AtomicInteger _files = new AtomicInteger();
+    /**
+     * Number of body bytes written so far
+     */
+    private final AtomicLong _bytes = new AtomicLong();
+    /**
+     * Actions to run once all items have been handled (e.g. closing output)
+     */
+    private final List<Runnable> _on_finish = new ArrayList<Runnable>();
+    /**
+     * Time the job was started, in milliseconds
+     */
+    private volatile long _start_ms = 0;
+    /**
+     * Time the job ended, in milliseconds (0 while still running)
+     */
+    private volatile long _end_ms = 0;
+    /**
+     * Encapsulation of standard output and standard error provided by Burp for its extensions
+     */
+    private final StdioEncapsulation _stdio;
+
+    /**
+     * Create new job
+     * @param total number of items in this job, -1 if not known up front
+     * @param threads number of worker threads to use
+     * @param stdio encapsulation of standard output and standard error
+     */
+    public SaveJob(int total, int threads, StdioEncapsulation stdio) {
+        _total = total;
+        _stdio = stdio;
+        final int jobnr = _jobcount.incrementAndGet();
+        _id = jobnr;
+        final AtomicInteger thrcount = new AtomicInteger();
+        _pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "naked-body-" + jobnr + "-worker-" + thrcount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        //
+        // Keep a couple of items per worker queued so that no worker has to wait
+        // for the feeder
+        //
+        _slots = new Semaphore(threads * 4);
+    }
+
+    /**
+     * Returns a sensible default for the number of worker threads
+     * @return number of worker threads to use
+     */
+    public static int defaultThreads() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Register an action to run once all items have been handled.
+     * <p>
+     * Actions run in registration order, also when the job was cancelled.
+     * @param r action to run
+     */
+    public void onFinish(Runnable r) {
+        synchronized(_on_finish) {
+            _on_finish.add(r);
+        }
+    }
+
+    /**
+     * Start the job: the feeder is run on a separate background thread.
+     * @param feeder code that submits all items of this job
+     */
+    public void start(final Feeder feeder) {
+        _start_ms = System.currentTimeMillis();
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    feeder.feed(SaveJob.this);
+                } catch (InterruptedException ie) {
+                    _cancelled.set(true);
+                } catch (Exception e) {
+                    //
+                    // Typically the output could not be opened: nothing more to do
+                    //
+                    _failed.incrementAndGet();
+                    _cancelled.set(true);
+                    _stdio.getStderr().println("~~~~~~ caught: " + e);
+                    e.printStackTrace(_stdio.getStderr());
+                }
+                finish();
+            }
+        }, "naked-body-feeder");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Hand one item to the worker pool.
+     * <p>
+     * Blocks while too many items are in flight.
+     * @param task work to do for the item
+     * @return <code>false</code> if the job has been cancelled and the item was not submitted
+     * @throws InterruptedException when interrupted while waiting for a free slot
+     */
+    public boolean submit(final ItemTask task) throws InterruptedException {
+        if(_cancelled.get()) {
+            return false;
+        }
+        _slots.acquire();
+        _pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if(!_cancelled.get()) {
+                        task.run();
+                    }
+                } catch (Exception e) {
+                    _failed.incrementAndGet();
+                    _stdio.getStderr().println("~~~~~~ caught: " + e);
+                    e.printStackTrace(_stdio.getStderr());
+                } finally {
+                    _completed.incrementAndGet();
+                    _slots.release();
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Wait for all submitted items and run the finish actions.
+     */
+    private void finish() {
+        _pool.shutdown();
+        try {
+            while(!_pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                //
+                // Keep waiting: items that were submitted still have to be completed
+                //
+            }
+        } catch (InterruptedException ie) {
+            _pool.shutdownNow();
+        }
+        synchronized(_on_finish) {
+            for(Runnable r : _on_finish) {
+                try {
+                    r.run();
+                } catch (RuntimeException e) {
+                    _stdio.getStderr().println("~~~~~~ caught: " + e);
+                    e.printStackTrace(_stdio.getStderr());
+                }
+            }
+        }
+        _end_ms = System.currentTimeMillis();
+        synchronized(this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait until the job has finished
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public synchronized void awaitDone() throws InterruptedException {
+        while(!isDone()) {
+            wait();
+        }
+    }
+
+    /**
+     * Request the job to stop.
+     * <p>
+     * Items that are already being written are finished, all others are skipped.
+     */
+    public void cancel() {
+        _cancelled.set(true);
+    }
+
+    /**
+     * @return <code>true</code> if the job has been cancelled
+     */
+    public boolean isCancelled() {
+        return _cancelled.get();
+    }
+
+    /**
+     * @return <code>true</code> once the job has stopped, either normally or because it was cancelled
+     */
+    public boolean isDone() {
+        return _end_ms != 0;
+    }
+
+    /**
+     * Record one written file
+     * @param nbytes number of bytes written into the file
+     */
+    public void addWritten(long nbytes) {
+        _files.incrementAndGet();
+        _bytes.addAndGet(nbytes);
+    }
+
+    /**
+     * Record an error that did not abort the item as a whole
+     */
+    public void addFailure() {
+        _failed.incrementAndGet();
+    }
+
+    /**
+     * @return number of this job, for reports
+     */
+    public int getId() {
+        return _id;
+    }
+
+    /**
+     * @return timing and volume figures of this job
+     */
+    public ExportMetrics getMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * Record an item that did not need to be saved
+     */
+    public void addSkipped() {
+        _skipped.incrementAndGet();
+    }
+
+    /**
+     * @return number of items skipped because they were exported before or fell outside the scope
+     */
+    public int getSkipped() {
+        return _skipped.get();
+    }
+
+    /**
+     * @return number of items in this job, -1 if not known
+     */
+    public int getTotal() {
+        return _total;
+    }
+
+    /**
+     * @return number of items handled so far
+     */
+    public int getCompleted() {
+        return _completed.get();
+    }
+
+    /**
+     * @return number of errors so far
+     */
+    public int getFailed() {
+        return _failed.get();
+    }
+
+    /**
+     * @return number of files written so far
+     */
+    public int getFilesWritten() {
+        return _files.get();
+    }
+
+    /**
+     * @return number of bytes written so far
+     */
+    public long getBytesWritten() {
+        return _bytes.get();
+    }
+
+    /**
+     * @return number of milliseconds the job has been running (or ran, if done)
+     */
+    public long getElapsedMillis() {
+        if(_start_ms == 0) {
+            return 0;
+        }
+        long end = (_end_ms != 0) ? _end_ms : System.currentTimeMillis();
+        return Math.max(1, end - _start_ms);
+    }
+
+    /**
+     * @return average number of bytes written per second
+     */
+    public double getBytesPerSecond() {
+        long ms = getElapsedMillis();
+        return (ms == 0) ? 0.0 : (getBytesWritten() * 1000.0 / ms);
+    }
+
+    /**
+     * @return average number of items handled per second
+     */
+    public double getItemsPerSecond() {
+        long ms = getElapsedMillis();
+        return (ms == 0) ? 0.0 : (getCompleted() * 1000.0 / ms);
+    }
+
+    /**
+     * Estimate the remaining time, based on the average speed so far
+     * @return estimated number of milliseconds until completion, -1 if unknown
+     */
+    public long getEtaMillis() {
+        int done = getCompleted();
+        if((_total < 0) || (done == 0)) {
+            return -1;
+        }
+        if(isDone()) {
+            return 0;
+        }
+        return (long) ((double) getElapsedMillis() * (_total - done) / done);
+    }
+}
@@ -0,0 +1,614 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+/**
+ * Settings for one save operation, as chosen in the save dialog.
+ */
+public class SaveOptions {
+    /**
+     * How the bodies are written to disk
+     */
+    public enum OutputMode {
+        /**
+         * One file per body in the output directory
+         */
+        FILES("Separate files"),
+        /**
+         * All bodies in one (compressed) ZIP archive
+         */
+        ZIP("ZIP archive"),
+        /**
+         * All bodies in one uncompressed tar archive
+         */
+        TAR("Tar archive");
+
+        /**
+         * Label to show in the save dialog
+         */
+        private final String _label;
+
+        OutputMode(String label) {
+            _label = label;
+        }
+
+        @Override
+        public String toString() {
+            return _label;
+        }
+    }
+
+    /**
+     * How the saved files are spread over subdirectories
+     */
+    public enum Layout {
+        /**
+         * All files straight in the output directory
+         */
+        FLAT("All files in one directory"),
+        /**
+         * One directory per host, with subdirectories following the URL path
+         */
+        HOST_PATH("Per host and URL path"),
+        /**
+         * One directory per 1000 consecutive messages
+         */
+        SEQUENCE("1000 messages per directory"),
+        /**
+         * 256 directories, picked by a hash of the sequence number
+         */
+        HASH("256 hashed directories");
+
+        /**
+         * Label to show in the save dialog
+         */
+        private final String _label;
+
+        Layout(String label) {
+            _label = label;
+        }
+
+        @Override
+        public String toString() {
+            return _label;
+        }
+    }
+
+    /**
+     * Which messages to save
+     */
+    public enum Selection {
+        /**
+         * The messages selected when the context menu was opened
+         */
+        SELECTED("Selected messages"),
+        /**
+         * All messages in the proxy history
+         */
+        PROXY_HISTORY("Entire proxy history"),
+        /**
+         * All messages in the site map
+         */
+        SITE_MAP("Entire site map");
+
+        /**
+         * Label to show in the save dialog
+         */
+        private final String _label;
+
+        Selection(String label) {
+            _label = label;
+        }
+
+        @Override
+        public String toString() {
+            return _label;
+        }
+    }
+
+    /**
+     * Location where to save the bodies
+     */
+    private String _directory;
+    /**
+     * Where the bodies go instead of the output directory, <code>null</code> for the output directory
+     */
+    private String _destination = null;
+    /**
+     * <code>true</code> if request bodies have to be saved
+     */
+    private boolean _save_req = true;
+    /**
+     * <code>true</code> if response bodies have to be saved
+     */
+    private boolean _save_resp = true;
+    /**
+     * How to write the bodies
+     */
+    private OutputMode _output_mode = OutputMode.FILES;
+    /**
+     * How to spread the files over subdirectories
+     */
+    private Layout _layout = Layout.FLAT;
+    /**
+     * <code>true</code> if identical bodies have to be stored only once
+     */
+    private boolean _dedup = false;
+    /**
+     * <code>true</code> if chunked, gzip and deflate encoded response bodies have to be decoded
+     */
+    private boolean _decode = false;
+    /**
+     * <code>true</code> if every saved file has to be gzip compressed
+     */
+    private boolean _compress = false;
+    /**
+     * <code>true</code> if repeated bodies of the same endpoint have to be stored as delta
+     */
+    private boolean _delta = false;
+    /**
+     * <code>true</code> if a trigram index of the saved bodies has to be built
+     */
+    private boolean _index = false;
+    /**
+     * <code>true</code> if multipart request bodies have to be saved as one file per part
+     */
+    private boolean _split_multipart = true;
+    /**
+     * <code>true</code> if base64 payloads embedded in text bodies have to be saved as separate files
+     */
+    private boolean _extract_embedded = false;
+    /**
+     * <code>true</code> if JSON arrays in response bodies have to be saved as NDJSON
+     */
+    private boolean _split_json = false;
+    /**
+     * Member names leading to the array to save as NDJSON, separated by dots; <code>null</code> for the top level
+     */
+    private String _json_path = null;
+    /**
+     * <code>true</code> if messages exported to the directory before have to be skipped
+     */
+    private boolean _resume = false;
+    /**
+     * <code>true</code> if a JSON summary of the timing figures has to be written next to the bodies
+     */
+    private boolean _write_metrics = false;
+    /**
+     * Which messages to save
+     */
+    private Selection _selection = Selection.SELECTED;
+    /**
+     * <code>true</code> if only messages within the target scope have to be saved
+     */
+    private boolean _in_scope_only = false;
+    /**
+     * Regular expression the host name has to contain, <code>null</code> if any host will do
+     */
+    private String _host_pattern = null;
+    /**
+     * Regular expression the URL has to contain, <code>null</code> if any URL will do
+     */
+    private String _url_pattern = null;
+    /**
+     * Accepted request methods, separated by commas, <code>null</code> if any method will do
+     */
+    private String _methods = null;
+    /**
+     * Accepted response status codes ("200", "200-299" or "2xx"), separated by commas,
+     * <code>null</code> if any status will do
+     */
+    private String _status_codes = null;
+    /**
+     * Accepted response media types ("application/json", "image/*" or "json"), separated by commas,
+     * <code>null</code> if any media type will do
+     */
+    private String _media_types = null;
+    /**
+     * Smallest response body size in bytes, -1 if no minimum
+     */
+    private long _min_size = -1;
+    /**
+     * Largest response body size in bytes, -1 if no maximum
+     */
+    private long _max_size = -1;
+
+    /**
+     * @return location where to save the bodies
+     */
+    public String getDirectory() {
+        return _directory;
+    }
+
+    /**
+     * @param directory location where to save the bodies
+     */
+    public void setDirectory(String directory) {
+        _directory = directory;
+    }
+
+    /**
+     * @return where the bodies go instead of the output directory (e.g. an object store URL),
+     *         <code>null</code> for the output directory
+     * @see SinkProvider
+     */
+    public String getDestination() {
+        return _destination;
+    }
+
+    /**
+     * Send the bodies somewhere else than the output directory; manifest, metrics and index
+     * are still written to the output directory
+     * @param destination destination accepted by a {@link SinkProvider} (e.g. "<code>s3://bucket/prefix</code>"),
+     *                    <code>null</code> or empty for the output directory
+     */
+    public void setDestination(String destination) {
+        _destination = ((destination == null) || destination.trim().isEmpty()) ? null : destination.trim();
+    }
+
+    /**
+     * @return <code>true</code> if request bodies have to be saved
+     */
+    public boolean isSaveRequests() {
+        return _save_req;
+    }
+
+    /**
+     * @param save_req <code>true</code> if request bodies have to be saved
+     */
+    public void setSaveRequests(boolean save_req) {
+        _save_req = save_req;
+    }
+
+    /**
+     * @return <code>true</code> if response bodies have to be saved
+     */
+    public boolean isSaveResponses() {
+        return _save_resp;
+    }
+
+    /**
+     * @param save_resp <code>true</code> if response bodies have to be saved
+     */
+    public void setSaveResponses(boolean save_resp) {
+        _save_resp = save_resp;
+    }
+
+    /**
+     * @return how the bodies are written
+     */
+    public OutputMode getOutputMode() {
+        return _output_mode;
+    }
+
+    /**
+     * @param output_mode how the bodies are written
+     */
+    public void setOutputMode(OutputMode output_mode) {
+        _output_mode = output_mode;
+    }
+
+    /**
+     * @return how to spread the files over subdirectories
+     */
+    public Layout getLayout() {
+        return _layout;
+    }
+
+    /**
+     * @param layout how to spread the files over subdirectories
+     */
+    public void setLayout(Layout layout) {
+        _layout = layout;
+    }
+
+    /**
+     * @return <code>true</code> if identical bodies have to be stored only once
+     */
+    public boolean isDedup() {
+        return _dedup;
+    }
+
+    /**
+     * @param dedup <code>true</code> if identical bodies have to be stored only once
+     */
+    public void setDedup(boolean dedup) {
+        _dedup = dedup;
+    }
+
+    /**
+     * @return <code>true</code> if chunked, gzip and deflate encoded response bodies have to be decoded
+     */
+    public boolean isDecode() {
+        return _decode;
+    }
+
+    /**
+     * @param decode <code>true</code> if chunked, gzip and deflate encoded response bodies have to be decoded
+     */
+    public void setDecode(boolean decode) {
+        _decode = decode;
+    }
+
+    /**
+     * @return <code>true</code> if every saved file has to be gzip compressed
+     */
+    public boolean isCompress() {
+        return _compress;
+    }
+
+    /**
+     * @param compress <code>true</code> if every saved file has to be gzip compressed
+     */
+    public void setCompress(boolean compress) {
+        _compress = compress;
+    }
+
+    /**
+     * @return <code>true</code> if repeated bodies of the same endpoint have to be stored as delta
+     */
+    public boolean isDelta() {
+        return _delta;
+    }
+
+    /**
+     * @param delta <code>true</code> if repeated bodies of the same endpoint have to be stored as delta
+     */
+    public void setDelta(boolean delta) {
+        _delta = delta;
+    }
+
+    /**
+     * @return <code>true</code> if a trigram index of the saved bodies has to be built
+     */
+    public boolean isIndex() {
+        return _index;
+    }
+
+    /**
+     * @param index <code>true</code> if a trigram index of the saved bodies has to be built
+     */
+    public void setIndex(boolean index) {
+        _index = index;
+    }
+
+    /**
+     * @return <code>true</code> if multipart request bodies have to be saved as one file per part
+     */
+    public boolean isSplitMultipart() {
+        return _split_multipart;
+    }
+
+    /**
+     * @param split_multipart <code>true</code> if multipart request bodies have to be saved as one file per part
+     */
+    public void setSplitMultipart(boolean split_multipart) {
+        _split_multipart = split_multipart;
+    }
+
+    /**
+     * @return <code>true</code> if base64 payloads embedded in text bodies have to be saved as separate files
+     */
+    public boolean isExtractEmbedded() {
+        return _extract_embedded;
+    }
+
+    /**
+     * @param extract_embedded <code>true</code> if base64 payloads embedded in text bodies have to be
+     *                         saved as separate files
+     */
+    public void setExtractEmbedded(boolean extract_embedded) {
+        _extract_embedded = extract_embedded;
+    }
+
+    /**
+     * @return <code>true</code> if JSON arrays in response bodies have to be saved as NDJSON
+     */
+    public boolean isSplitJson() {
+        return _split_json;
+    }
+
+    /**
+     * @param split_json <code>true</code> if JSON arrays in response bodies have to be saved as NDJSON
+     */
+    public void setSplitJson(boolean split_json) {
+        _split_json = split_json;
+    }
+
+    /**
+     * @return member names leading to the array to save as NDJSON, separated by dots (e.g.
+     *         "<code>data.items</code>"); <code>null</code> for an array at the top level
+     */
+    public String getJsonPath() {
+        return _json_path;
+    }
+
+    /**
+     * @param json_path member names leading to the array to save as NDJSON, separated by dots;
+     *                  <code>null</code> or empty for an array at the top level
+     */
+    public void setJsonPath(String json_path) {
+        _json_path = ((json_path == null) || json_path.trim().isEmpty()) ? null : json_path.trim();
+    }
+
+    /**
+     * @return <code>true</code> if messages exported to the directory before have to be skipped
+     */
+    public boolean isResume() {
+        return _resume;
+    }
+
+    /**
+     * @param resume <code>true</code> if messages exported to the directory before have to be skipped
+     */
+    public void setResume(boolean resume) {
+        _resume = resume;
+    }
+
+    /**
+     * @return <code>true</code> if a JSON summary of the timing figures has to be written next to the bodies
+     */
+    public boolean isWriteMetrics() {
+        return _write_metrics;
+    }
+
+    /**
+     * @param write_metrics <code>true</code> if a JSON summary of the timing figures has to be written next to the bodies
+     */
+    public void setWriteMetrics(boolean write_metrics) {
+        _write_metrics = write_metrics;
+    }
+
+    /**
+     * @return which messages to save
+     */
+    public Selection getSelection() {
+        return _selection;
+    }
+
+    /**
+     * @param selection which messages to save
+     */
+    public void setSelection(Selection selection) {
+        _selection = selection;
+    }
+
+    /**
+     * @return <code>true</code> if only messages within the target scope have to be saved
+     */
+    public boolean isInScopeOnly() {
+        return _in_scope_only;
+    }
+
+    /**
+     * @param in_scope_only <code>true</code> if only messages within the target scope have to be saved
+     */
+    public void setInScopeOnly(boolean in_scope_only) {
+        _in_scope_only = in_scope_only;
+    }
+
+    /**
+     * @return regular expression the host name has to contain, <code>null</code> if any host will do
+     */
+    public String getHostPattern() {
+        return _host_pattern;
+    }
+
+    /**
+     * @param host_pattern regular expression the host name has to contain, <code>null</code> if any host will do
+     */
+    public void setHostPattern(String host_pattern) {
+        _host_pattern = host_pattern;
+    }
+
+    /**
+     * @return regular expression the URL has to contain, <code>null</code> if any URL will do
+     */
+    public String getUrlPattern() {
+        return _url_pattern;
+    }
+
+    /**
+     * @param url_pattern regular expression the URL has to contain, <code>null</code> if any URL will do
+     */
+    public void setUrlPattern(String url_pattern) {
+        _url_pattern = url_pattern;
+    }
+
+    /**
+     * @return accepted request methods, separated by commas, <code>null</code> if any method will do
+     */
+    public String getMethods() {
+        return _methods;
+    }
+
+    /**
+     * @param methods accepted request methods, separated by commas, <code>null</code> if any method will do
+     */
+    public void setMethods(String methods) {
+        _methods = methods;
+    }
+
+    /**
+     * @return accepted response status codes, separated by commas, <code>null</code> if any status will do
+     */
+    public String getStatusCodes() {
+        return _status_codes;
+    }
+
+    /**
+     * @param status_codes accepted response status codes, separated by commas, <code>null</code> if any status will do
+     */
+    public void setStatusCodes(String status_codes) {
+        _status_codes = status_codes;
+    }
+
+    /**
+     * @return accepted response media types, separated by commas, <code>null</code> if any media type will do
+     */
+    public String getMediaTypes() {
+        return _media_types;
+    }
+
+    /**
+     * @param media_types accepted response media types, separated by commas, <code>null</code> if any media type will do
+     */
+    public void setMediaTypes(String media_types) {
+        _media_types = media_types;
+    }
+
+    /**
+     * @return smallest response body size in bytes, -1 if no minimum
+     */
+    public long getMinSize() {
+        return _min_size;
+    }
+
+    /**
+     * @param min_size smallest response body size in bytes, -1 if no minimum
+     */
+    public void setMinSize(long min_size) {
+        _min_size = min_size;
+    }
+
+    /**
+     * @return largest response body size in bytes, -1 if no maximum
+     */
+    public long getMaxSize() {
+        return _max_size;
+    }
+
+    /**
+     * @param max_size largest response body size in bytes, -1 if no maximum
+     */
+    public void setMaxSize(long max_size) {
+        _max_size = max_size;
+    }
+}
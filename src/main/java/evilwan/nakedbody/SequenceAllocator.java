@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+
+package evilwan.nakedbody;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands out the sequence numbers used in the names of the saved files.
+ * <p>
+ * Numbers are never handed out twice, whatever the number of jobs that run at the same time:
+ * a job reserves a whole {@link Range} with a single atomic add, and then numbers its items
+ * from that range without touching the shared counter again. Jobs that do not know their size
+ * up front (auto-capture) use a {@link Sequence}, which takes numbers from a block and only
+ * reserves a new block when the current one is used up. No locks are taken.
+ * </p>
+ * <p>
+ * Numbers are unique, not gap-free: the unused end of the last block of a sequence is lost.
+ * </p>
+ */
+public class SequenceAllocator {
+    /**
+     * Range of consecutive sequence numbers, reserved for one job
+     */
+    public static class Range {
+        /**
+         * First number of the range
+         */
+        private final int _first;
+        /**
+         * Number of sequence numbers in the range
+         */
+        private final int _size;
+        /**
+         * Offset of the next number handed out by {@link #take()}
+         */
+        private final AtomicInteger _taken = new AtomicInteger();
+
+        /**
+         * Create range
+         * @param first first number of the range
+         * @param size number of sequence numbers in the range
+         */
+        private Range(int first, int size) {
+            _first = first;
+            _size = size;
+        }
+
+        /**
+         * @return first number of the range
+         */
+        public int getFirst() {
+            return _first;
+        }
+
+        /**
+         * @return number of sequence numbers in the range
+         */
+        public int getSize() {
+            return _size;
+        }
+
+        /**
+         * Look up a number of the range by position
+         * @param i position, starting from 0
+         * @return sequence number at that position
+         */
+        public int get(int i) {
+            if((i < 0) || (i >= _size)) {
+                throw new IndexOutOfBoundsException(String.format("sequence %d outside range of %d", i, _size));
+            }
+            return _first + i;
+        }
+
+        /**
+         * Take the next unused number of the range
+         * @return the number, -1 if the range is used up
+         */
+        private int take() {
+            if(_taken.get() >= _size) {
+                return -1;
+            }
+            int i = _taken.getAndIncrement();
+            return (i < _size) ? _first + i : -1;
+        }
+    }
+
+    /**
+     * Open-ended series of sequence numbers, handed out one at a time by any number of threads
+     */
+    public static class Sequence {
+        /**
+         * Source of new blocks
+         */
+        private final SequenceAllocator _mom;
+        /**
+         * Number of sequence numbers reserved at once
+         */
+        private final int _block;
+        /**
+         * Block numbers are currently taken from
+         */
+        private final AtomicReference<Range> _range;
+
+        /**
+         * Create sequence and reserve its first block
+         * @param mom source of new blocks
+         * @param block number of sequence numbers reserved at once
+         */
+        private Sequence(SequenceAllocator mom, int block) {
+            _mom = mom;
+            _block = block;
+            _range = new AtomicReference<Range>(mom.reserve(block));
+        }
+
+        /**
+         * @return first number of the sequence
+         */
+        public int getFirst() {
+            return _range.get().getFirst();
+        }
+
+        /**
+         * Take the next number
+         * @return a sequence number no other job or thread gets
+         */
+        public int next() {
+            for(;;) {
+                Range cur = _range.get();
+                int seq = cur.take();
+                if(seq >= 0) {
+                    return seq;
+                }
+                //
+                // Block used up: whichever thread gets here first installs a new one, the
+                // others retry on it (a block that loses the race is simply not used)
+                //
+                _range.compareAndSet(cur, _mom.reserve(_block));
+            }
+        }
+    }
+
+    /**
+     * Last sequence number reserved so far
+     */
+    private final AtomicInteger _last = new AtomicInteger();
+
+    /**
+     * Reserve a range of consecutive sequence numbers
+     * @param n number of sequence numbers to reserve, may be 0
+     * @return the range, starting just after the last number reserved before
+     */
+    public Range reserve(int n) {
+        if(n < 0) {
+            throw new IllegalArgumentException("negative number of sequence numbers: " + n);
+        }
+        int last = _last.getAndAdd(n);
+        if(last > Integer.MAX_VALUE - n) {
+            throw new IllegalStateException("sequence numbers exhausted");
+        }
+        return new Range(last + 1, n);
+    }
+
+    /**
+     * Start an open-ended sequence
+     * @param block number of sequence numbers to reserve at once; larger blocks touch the
+     *              shared counter less often, but lose more numbers when the sequence ends
+     * @return the sequence
+     */
+    public Sequence sequence(int block) {
+        if(block <= 0) {
+            throw new IllegalArgumentException("block size must be positive: " + block);
+        }
+        return new Sequence(this, block);
+    }
+
+    /**
+     * Make sure numbers reserved from now on are higher than a given one
+     * <p>
+     * Used when an export resumes an earlier one, so new numbers never clash with the ones that
+     * are already in use in the output directory. Numbers reserved before are not affected.
+     * @param last highest number that must not be handed out
+     */
+    public void advance(int last) {
+        _last.accumulateAndGet(last, Math::max);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.IOException;
+import java.util.ServiceLoader;
+
+/**
+ * Creates sinks for destinations other than the local output directory, e.g. object stores.
+ * <p>
+ * Providers are found with {@link ServiceLoader}: list the implementation class in
+ * "<code>META-INF/services/evilwan.nakedbody.SinkProvider</code>" of a jar on the class path.
+ * When a destination is set with {@link SaveOptions#setDestination(String)}, the first
+ * provider that accepts it receives all bodies; manifest, metrics, fingerprints and index are
+ * still written to the output directory. The extension itself provides
+ * {@link ObjectStoreSink.Provider}.
+ * </p>
+ */
+public interface SinkProvider {
+    /**
+     * @param destination where the bodies have to go, typically an URL
+     * @return <code>true</code> if this provider can write to the destination
+     */
+    boolean accepts(String destination);
+
+    /**
+     * Open a sink
+     * @param destination where the bodies have to go, accepted by {@link #accepts(String)}
+     * @return new sink, closed by the caller when the job is done
+     * @throws IOException when the destination could not be opened
+     */
+    BodySink open(String destination) throws IOException;
+
+    /**
+     * Find the provider for a destination
+     * @param destination where the bodies have to go
+     * @return the first provider that accepts the destination
+     * @throws IOException when no provider accepts the destination
+     */
+    static SinkProvider find(String destination) throws IOException {
+        for(SinkProvider provider : ServiceLoader.load(SinkProvider.class, SinkProvider.class.getClassLoader())) {
+            if(provider.accepts(destination)) {
+                return provider;
+            }
+        }
+        throw new IOException("no sink available for destination " + destination);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Output stream that collects its data in a temporary file.
+ * <p>
+ * Used by sinks that need to know the full size (or hash) of a body before they can
+ * store it, while the body itself is produced as a stream of unknown length. Memory use
+ * stays bounded no matter how large the body is. When the stream is closed,
+ * {@link #spooled(Path, long)} is called with the complete temporary file, which is removed
+ * afterwards.
+ */
+abstract class SpoolOutputStream extends OutputStream {
+    /**
+     * Temporary file
+     */
+    private final Path _tmp;
+    /**
+     * Stream onto the temporary file
+     */
+    private final OutputStream _out;
+    /**
+     * Number of bytes written so far
+     */
+    private long _size = 0;
+    /**
+     * Set once the stream has been closed
+     */
+    private boolean _closed = false;
+
+    /**
+     * Create new spool stream on a fresh temporary file
+     * @throws IOException when the temporary file could not be created
+     */
+    SpoolOutputStream() throws IOException {
+        _tmp = Files.createTempFile("naked-body-", ".spool");
+        _out = new BufferedOutputStream(Files.newOutputStream(_tmp), 1 << 16);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        _out.write(b);
+        _size += 1;
+    }
+
+    @Override
+    public void write(byte[] bar, int ofs, int len) throws IOException {
+        _out.write(bar, ofs, len);
+        _size += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(_closed) {
+            return;
+        }
+        _closed = true;
+        try {
+            _out.close();
+            spooled(_tmp, _size);
+        } finally {
+            Files.deleteIfExists(_tmp);
+        }
+    }
+
+    /**
+     * Called when the stream is closed
+     * @param tmp temporary file with all data written into this stream
+     * @param size number of bytes in the temporary file
+     * @throws IOException when the data could not be processed
+     */
+    protected abstract void spooled(Path tmp, long size) throws IOException;
+}
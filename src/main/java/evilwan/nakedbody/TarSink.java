@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes all bodies as entries of one uncompressed (POSIX ustar) tar archive.
+ */
+public class TarSink implements BodySink {
+    /**
+     * Size of a tar block
+     */
+    private final static int BLOCK = 512;
+    /**
+     * Size of the write buffer in front of the archive file
+     */
+    private final static int BUFFER_SIZE = 1 << 16;
+    /**
+     * Size of the name field of a header block
+     */
+    private final static int NAME_SIZE = 100;
+    /**
+     * Size of the prefix field of a header block
+     */
+    private final static int PREFIX_SIZE = 155;
+    /**
+     * Archive being written
+     */
+    private final OutputStream _out;
+    /**
+     * Header block, reused for every entry
+     */
+    private final byte[] _header = new byte[BLOCK];
+    /**
+     * Modification time for all entries (seconds since the epoch)
+     */
+    private final long _mtime = System.currentTimeMillis() / 1000;
+    /**
+     * Number of bytes written into the archive file so far
+     */
+    private long _pos = 0;
+
+    /**
+     * Create new archive
+     * @param archive name of the archive file to create
+     * @throws IOException when the archive file could not be created
+     */
+    public TarSink(Path archive) throws IOException {
+        OutputStream os = Channels.newOutputStream(FileChannel.open(archive,
+                                                                    StandardOpenOption.CREATE,
+                                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                                    StandardOpenOption.WRITE));
+        _out = new BufferedOutputStream(os, BUFFER_SIZE);
+    }
+
+    @Override
+    public synchronized long write(String name, byte[] bar, int ofs, int len) throws IOException {
+        writeHeader(name, len);
+        long pos = _pos;
+        _out.write(bar, ofs, len);
+        _pos += len;
+        pad(len);
+        return pos;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The size of a tar entry must be known before its data, so the body is collected
+     * in a temporary file first and copied into the archive when the stream is closed.
+     */
+    @Override
+    public OutputStream open(final String name) throws IOException {
+        return new SpoolOutputStream() {
+            @Override
+            protected void spooled(Path tmp, long size) throws IOException {
+                synchronized(TarSink.this) {
+                    writeHeader(name, size);
+                    Files.copy(tmp, _out);
+                    _pos += size;
+                    pad(size);
+                }
+            }
+        };
+    }
+
+    /**
+     * Write the header of one regular file
+     * <p>
+     * Names up to 100 bytes go into the name field. Longer names are split at a slash over
+     * the ustar prefix (155 bytes) and name fields. Names that cannot be split that way are
+     * preceded by a PAX extended header with a "<code>path</code>" record, which every current
+     * tar reads; the ustar header then holds the tail of the name.
+     * @param name name of the entry
+     * @param size number of data bytes that follow the header
+     * @throws IOException when the header could not be written
+     */
+    private void writeHeader(String name, long size) throws IOException {
+        byte[] nambar = name.getBytes(StandardCharsets.UTF_8);
+        if(nambar.length <= NAME_SIZE) {
+            writeBlock(nambar, 0, nambar.length, nambar, 0, 0, size, (byte) '0');
+            return;
+        }
+        //
+        // Split at the first slash that leaves at most 100 bytes for the name field
+        //
+        for(int i = nambar.length - NAME_SIZE - 1; i < Math.min(nambar.length - 1, PREFIX_SIZE + 1); i++) {
+            if((i > 0) && (nambar[i] == '/')) {
+                writeBlock(nambar, i + 1, nambar.length - i - 1, nambar, 0, i, size, (byte) '0');
+                return;
+            }
+        }
+        byte[] record = paxRecord("path", nambar);
+        byte[] paxnam = "PaxHeaders/path".getBytes(StandardCharsets.US_ASCII);
+        writeBlock(paxnam, 0, paxnam.length, paxnam, 0, 0, record.length, (byte) 'x');
+        _out.write(record);
+        _pos += record.length;
+        pad(record.length);
+        writeBlock(nambar, nambar.length - NAME_SIZE, NAME_SIZE, nambar, 0, 0, size, (byte) '0');
+    }
+
+    /**
+     * Build one PAX extended header record: "<i>length</i> <i>keyword</i>=<i>value</i>\n", where
+     * the length counts the whole record, including its own digits
+     * @param keyword keyword of the record
+     * @param value UTF-8 bytes of the value
+     * @return the record
+     */
+    private static byte[] paxRecord(String keyword, byte[] value) {
+        int rest = keyword.length() + value.length + 3;
+        int len = rest + Integer.toString(rest).length();
+        if(Integer.toString(len).length() != Integer.toString(rest).length()) {
+            len++;
+        }
+        byte[] head = (len + " " + keyword + "=").getBytes(StandardCharsets.US_ASCII);
+        byte[] record = Arrays.copyOf(head, len);
+        System.arraycopy(value, 0, record, head.length, value.length);
+        record[len - 1] = '\n';
+        return record;
+    }
+
+    /**
+     * Write one ustar header block
+     * @param nambar contains the name field
+     * @param namofs zero based offset of the name field
+     * @param namlen number of bytes in the name field, at most 100
+     * @param prefbar contains the prefix field
+     * @param prefofs zero based offset of the prefix field
+     * @param preflen number of bytes in the prefix field, at most 155
+     * @param size number of data bytes that follow the header
+     * @param type type flag of the entry
+     * @throws IOException when the header could not be written
+     */
+    private void writeBlock(byte[] nambar, int namofs, int namlen, byte[] prefbar, int prefofs, int preflen,
+                            long size, byte type) throws IOException {
+        Arrays.fill(_header, (byte) 0);
+        System.arraycopy(nambar, namofs, _header, 0, namlen);
+        octal(100, 8, 0644);
+        octal(108, 8, 0);
+        octal(116, 8, 0);
+        octal(124, 12, size);
+        octal(136, 12, _mtime);
+        _header[156] = type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, _header, 257, 6);
+        _header[263] = (byte) '0';
+        _header[264] = (byte) '0';
+        System.arraycopy(prefbar, prefofs, _header, 345, preflen);
+        //
+        // Checksum is computed with the checksum field itself filled with spaces
+        //
+        Arrays.fill(_header, 148, 156, (byte) ' ');
+        long sum = 0;
+        for(byte b : _header) {
+            sum += (b & 0xff);
+        }
+        octal(148, 7, sum);
+        _out.write(_header);
+        _pos += BLOCK;
+    }
+
+    /**
+     * Store a zero padded, NUL terminated octal number in the header block
+     * @param ofs offset of the field in the header
+     * @param len length of the field, including the terminating NUL
+     * @param value number to store
+     */
+    private void octal(int ofs, int len, long value) {
+        int i = ofs + len - 1;
+        _header[i--] = 0;
+        while(i >= ofs) {
+            _header[i--] = (byte) ('0' + (value & 7));
+            value >>>= 3;
+        }
+    }
+
+    /**
+     * Pad entry data up to the next block boundary
+     * @param len number of data bytes in the entry
+     * @throws IOException when the padding could not be written
+     */
+    private void pad(long len) throws IOException {
+        int rest = (int) (len % BLOCK);
+        if(rest != 0) {
+            _out.write(new byte[BLOCK - rest]);
+            _pos += BLOCK - rest;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        //
+        // End of archive: two empty blocks
+        //
+        _out.write(new byte[2 * BLOCK]);
+        _out.close();
+    }
+}
@@ -0,0 +1,803 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a trigram index written by {@link TrigramIndexWriter} and finds the bodies that may
+ * contain a string or match a regular expression.
+ * <p>
+ * A query is turned into the trigrams any match must contain; only the postings of those
+ * trigrams are read, so the time spent does not depend on the size of the export. The result
+ * is a set of candidates: bodies that contain all trigrams but not necessarily the string,
+ * and bodies that were not indexed. {@link #search(Path, String, boolean, boolean, List)} checks the
+ * candidates by reading them. Can also be run from the command line:
+ * </p>
+ * <pre>
+ *     java -cp NakedBody-2.0.jar evilwan.nakedbody.TrigramIndex [-F] [-i] [--candidates] &lt;output directory&gt; &lt;pattern&gt;
+ * </pre>
+ */
+public class TrigramIndex implements Closeable {
+    /**
+     * Characters with a special meaning in a regular expression
+     */
+    private final static String META = "\\^$.|?*+()[]{}";
+    /**
+     * Letters of the escapes for classes of characters and boundaries, which match no fixed text
+     */
+    private final static String CLASS_ESCAPES = "dDsSwWhHvVRXBAGZz";
+
+    /**
+     * The index file
+     */
+    private final FileChannel _ch;
+    /**
+     * Names of all documents, in document number order
+     */
+    private final String[] _names;
+    /**
+     * Documents that were not indexed
+     */
+    private final BitSet _not_indexed = new BitSet();
+    /**
+     * Documents that were saved with gzip compression
+     */
+    private final BitSet _gzip = new BitSet();
+    /**
+     * Trigram table: 12 bytes per trigram, trigram and offset of its postings
+     */
+    private final ByteBuffer _table;
+    /**
+     * Number of trigrams in {@link #_table}
+     */
+    private final int _ngrams;
+    /**
+     * Offset of the names, where the last postings end
+     */
+    private final long _names_ofs;
+
+    /**
+     * Open index
+     * @param file the index file
+     * @throws IOException when the file could not be read or is not a trigram index
+     */
+    public TrigramIndex(Path file) throws IOException {
+        _ch = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = _ch.size();
+            if(size < TrigramIndexWriter.MAGIC.length + TrigramIndexWriter.FOOTER_SIZE) {
+                throw new IOException(file + ": not a trigram index");
+            }
+            ByteBuffer footer = read(size - TrigramIndexWriter.FOOTER_SIZE, TrigramIndexWriter.FOOTER_SIZE);
+            _names_ofs = footer.getLong();
+            long table_ofs = footer.getLong();
+            int ndocs = footer.getInt();
+            _ngrams = footer.getInt();
+            byte[] magic = new byte[TrigramIndexWriter.MAGIC.length];
+            footer.get(magic);
+            if(!Arrays.equals(magic, TrigramIndexWriter.MAGIC) || (table_ofs + _ngrams * 12L != size - footer.capacity())) {
+                throw new IOException(file + ": not a trigram index");
+            }
+            _table = _ch.map(FileChannel.MapMode.READ_ONLY, table_ofs, _ngrams * 12L);
+            _names = new String[ndocs];
+            InputStream in = new BufferedInputStream(Channels.newInputStream(_ch.position(_names_ofs)), 1 << 16);
+            for(int i = 0; i < ndocs; i++) {
+                long flags = TrigramIndexWriter.readVarint(in);
+                int len = (int) TrigramIndexWriter.readVarint(in);
+                byte[] name = in.readNBytes(len);
+                if((flags < 0) || (name.length != len)) {
+                    throw new IOException(file + ": truncated trigram index");
+                }
+                _names[i] = new String(name, StandardCharsets.UTF_8);
+                if((flags & TrigramIndexWriter.NOT_INDEXED) != 0) {
+                    _not_indexed.set(i);
+                }
+                if((flags & TrigramIndexWriter.GZIP) != 0) {
+                    _gzip.set(i);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            _ch.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of bodies in the index
+     */
+    public int size() {
+        return _names.length;
+    }
+
+    /**
+     * @param doc document number
+     * @return name of the body, relative to the output location
+     */
+    public String getName(int doc) {
+        return _names[doc];
+    }
+
+    /**
+     * @param doc document number
+     * @return <code>true</code> if the body was saved with gzip compression: its name ends with
+     *         "{@value GzipSink#SUFFIX}" and the index holds the trigrams of the uncompressed body
+     */
+    public boolean isGzip(int doc) {
+        return _gzip.get(doc);
+    }
+
+    /**
+     * Find the bodies that may contain a string
+     * @param literal the string, matched as UTF-8 bytes
+     * @return document numbers of the candidates
+     * @throws IOException when the index could not be read
+     */
+    public BitSet candidates(String literal) throws IOException {
+        return candidates(literal.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Find the bodies that may contain a byte sequence
+     * @param literal the bytes to look for
+     * @return document numbers of the candidates
+     * @throws IOException when the index could not be read
+     */
+    public BitSet candidates(byte[] literal) throws IOException {
+        BitSet res = new BitSet();
+        if(literal.length < 3) {
+            res.set(0, _names.length);
+            return res;
+        }
+        TreeSet<Integer> grams = new TreeSet<Integer>();
+        for(int i = 0; i + 2 < literal.length; i++) {
+            grams.add((fold(literal[i]) << 16) | (fold(literal[i + 1]) << 8) | fold(literal[i + 2]));
+        }
+        List<int[]> postings = new ArrayList<int[]>();
+        for(int gram : grams) {
+            int[] docs = postings(gram);
+            if(docs.length == 0) {
+                postings.clear();
+                break;
+            }
+            postings.add(docs);
+        }
+        if(!postings.isEmpty()) {
+            //
+            // Intersect, shortest list first
+            //
+            postings.sort((a, b) -> Integer.compare(a.length, b.length));
+            int[] cur = postings.get(0);
+            for(int i = 1; (i < postings.size()) && (cur.length > 0); i++) {
+                cur = intersect(cur, postings.get(i));
+            }
+            for(int doc : cur) {
+                res.set(doc);
+            }
+        }
+        res.or(_not_indexed);
+        return res;
+    }
+
+    /**
+     * Find the bodies that may match a regular expression
+     * <p>
+     * Only literal runs in the top level alternatives of the expression are used, everything
+     * else (character classes, groups, escapes for classes of characters, optional characters)
+     * is treated as matching anything. An alternative without a literal of three or more bytes
+     * makes every body a candidate.
+     * @param regex the regular expression, in {@link Pattern} syntax
+     * @return document numbers of the candidates
+     * @throws IOException when the index could not be read
+     */
+    public BitSet candidates(Pattern regex) throws IOException {
+        List<List<String>> query = literals(regex.pattern());
+        BitSet res = new BitSet();
+        if((query == null) || ((regex.flags() & (Pattern.COMMENTS | Pattern.LITERAL)) != 0)) {
+            res.set(0, _names.length);
+            return res;
+        }
+        for(List<String> branch : query) {
+            BitSet docs = null;
+            for(String literal : branch) {
+                BitSet c = candidates(literal);
+                if(docs == null) {
+                    docs = c;
+                } else {
+                    docs.and(c);
+                }
+            }
+            res.or(docs);
+        }
+        return res;
+    }
+
+    /**
+     * Extract the literal strings a regular expression requires
+     * @param regex the regular expression
+     * @return per top level alternative the literals it contains, <code>null</code> if any alternative has none
+     */
+    static List<List<String>> literals(String regex) {
+        if(regex.contains("(?") && regex.matches(".*\\(\\?[a-zA-Z-]*x.*")) {
+            //
+            // Comments mode: white space is not literal
+            //
+            return null;
+        }
+        List<List<String>> res = new ArrayList<List<String>>();
+        List<String> branch = new ArrayList<String>();
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        while(i <= regex.length()) {
+            if((i == regex.length()) || (regex.charAt(i) == '|')) {
+                addLiteral(branch, run);
+                if(branch.isEmpty()) {
+                    return null;
+                }
+                res.add(branch);
+                branch = new ArrayList<String>();
+                i++;
+                continue;
+            }
+            char c = regex.charAt(i);
+            String atom = null;
+            int next = i + 1;
+            if(c == '\\') {
+                int[] pos = { i };
+                atom = escape(regex, pos);
+                if(atom == null) {
+                    return null;
+                }
+                if(atom.isEmpty()) {
+                    atom = null;
+                }
+                next = pos[0];
+            } else if(c == '[') {
+                next = skipClass(regex, i);
+            } else if(c == '(') {
+                next = skipGroup(regex, i);
+                if(next < 0) {
+                    return null;
+                }
+            } else if(META.indexOf(c) < 0) {
+                atom = String.valueOf(c);
+            }
+            //
+            // Quantifier: optional atoms are dropped, repeated atoms end the run
+            //
+            int q = next;
+            boolean optional = false;
+            boolean repeated = false;
+            if(q < regex.length()) {
+                char qc = regex.charAt(q);
+                if((qc == '?') || (qc == '*')) {
+                    optional = true;
+                    q++;
+                } else if(qc == '+') {
+                    repeated = true;
+                    q++;
+                } else if(qc == '{') {
+                    int end = regex.indexOf('}', q);
+                    if(end < 0) {
+                        return null;
+                    }
+                    optional = regex.startsWith("{0", q);
+                    repeated = !optional;
+                    q = end + 1;
+                }
+                if((q > next) && (q < regex.length()) && ((regex.charAt(q) == '?') || (regex.charAt(q) == '+'))) {
+                    q++;
+                }
+            }
+            if((atom == null) || optional || ((atom.length() > 1) && repeated)) {
+                addLiteral(branch, run);
+                if((atom != null) && !optional) {
+                    run.append(atom);
+                    addLiteral(branch, run);
+                }
+            } else if(repeated) {
+                run.append(atom);
+                addLiteral(branch, run);
+                run.append(atom);
+            } else {
+                run.append(atom);
+            }
+            i = q;
+        }
+        return res;
+    }
+
+    /**
+     * Add the current literal run to the literals of an alternative if it is long enough, and clear it
+     * @param branch literals of the alternative
+     * @param run current literal run
+     */
+    private static void addLiteral(List<String> branch, StringBuilder run) {
+        if(run.toString().getBytes(StandardCharsets.UTF_8).length >= 3) {
+            branch.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    /**
+     * Decode an escape sequence outside a character class
+     * <p>
+     * Quoted strings and escapes for one fixed character (octal, hexadecimal, Unicode, control
+     * characters) are decoded. Escapes for classes of characters, boundaries, back references and
+     * the like match no fixed text.
+     * @param regex the regular expression
+     * @param pos position of the backslash on entry, position after the escape sequence on return
+     * @return the text the escape stands for, an empty string if it matches no fixed text,
+     *         <code>null</code> if the escape sequence is not understood
+     */
+    private static String escape(String regex, int[] pos) {
+        int i = pos[0] + 1;
+        if(i >= regex.length()) {
+            return null;
+        }
+        char e = regex.charAt(i++);
+        int cp = -1;
+        switch(e) {
+            case 'Q':
+                int end = regex.indexOf("\\E", i);
+                end = (end < 0) ? regex.length() : end;
+                pos[0] = Math.min(regex.length(), end + 2);
+                return regex.substring(i, end);
+            case 't':
+                cp = '\t';
+                break;
+            case 'n':
+                cp = '\n';
+                break;
+            case 'r':
+                cp = '\r';
+                break;
+            case 'f':
+                cp = '\f';
+                break;
+            case 'a':
+                cp = 0x07;
+                break;
+            case 'e':
+                cp = 0x1b;
+                break;
+            case 'c':
+                if(i >= regex.length()) {
+                    return null;
+                }
+                cp = regex.charAt(i++) ^ 64;
+                break;
+            case '0':
+                //
+                // \0n, \0nn or \0mnn with m at most 3
+                //
+                int max = ((i < regex.length()) && (regex.charAt(i) <= '3')) ? 3 : 2;
+                int start = i;
+                cp = 0;
+                while((i - start < max) && (i < regex.length()) &&
+                      (regex.charAt(i) >= '0') && (regex.charAt(i) <= '7')) {
+                    cp = cp * 8 + (regex.charAt(i++) - '0');
+                }
+                if(i == start) {
+                    return null;
+                }
+                break;
+            case 'x':
+                if((i < regex.length()) && (regex.charAt(i) == '{')) {
+                    int close = regex.indexOf('}', i);
+                    if(close < 0) {
+                        return null;
+                    }
+                    cp = hex(regex, i + 1, close);
+                    i = close + 1;
+                } else {
+                    cp = hex(regex, i, Math.min(regex.length(), i + 2));
+                    i += 2;
+                }
+                break;
+            case 'u':
+                cp = hex(regex, i, Math.min(regex.length(), i + 4));
+                i += 4;
+                if((cp >= 0) && Character.isSurrogate((char) cp)) {
+                    //
+                    // Half of a surrogate pair, possibly combined with the next escape
+                    //
+                    pos[0] = i;
+                    return "";
+                }
+                break;
+            case 'p':
+            case 'P':
+            case 'N':
+            case 'k':
+            case 'b':
+                //
+                // \p{Name}, \pL, \N{NAME}, \k<name>, \b{g}: skip the argument
+                //
+                char open = (e == 'k') ? '<' : '{';
+                if(regex.startsWith(String.valueOf(open), i)) {
+                    int close = regex.indexOf((open == '{') ? '}' : '>', i);
+                    if(close < 0) {
+                        return null;
+                    }
+                    i = close + 1;
+                } else if(((e == 'p') || (e == 'P')) && (i < regex.length())) {
+                    i++;
+                }
+                pos[0] = i;
+                return "";
+            default:
+                if(CLASS_ESCAPES.indexOf(e) >= 0) {
+                    pos[0] = i;
+                    return "";
+                }
+                if((e >= '1') && (e <= '9')) {
+                    //
+                    // Back reference
+                    //
+                    while((i < regex.length()) && Character.isDigit(regex.charAt(i))) {
+                        i++;
+                    }
+                    pos[0] = i;
+                    return "";
+                }
+                if(Character.isLetterOrDigit(e)) {
+                    return null;
+                }
+                cp = e;
+        }
+        if((cp < 0) || !Character.isValidCodePoint(cp)) {
+            return null;
+        }
+        pos[0] = i;
+        return new String(Character.toChars(cp));
+    }
+
+    /**
+     * Parse hexadecimal digits
+     * @param regex the regular expression
+     * @param start position of the first digit
+     * @param end position after the last digit
+     * @return the value, -1 if there are no digits, too many or other characters
+     */
+    private static int hex(String regex, int start, int end) {
+        if((end <= start) || (end - start > 8)) {
+            return -1;
+        }
+        long v = 0;
+        for(int i = start; i < end; i++) {
+            int d = Character.digit(regex.charAt(i), 16);
+            if(d < 0) {
+                return -1;
+            }
+            v = v * 16 + d;
+        }
+        return (v > Integer.MAX_VALUE) ? -1 : (int) v;
+    }
+
+    /**
+     * Find the end of an escape sequence, also of a quoted string
+     * @param regex the regular expression
+     * @param start position of the backslash
+     * @return position after the escape sequence
+     */
+    private static int skipEscape(String regex, int start) {
+        if(regex.startsWith("Q", start + 1)) {
+            int end = regex.indexOf("\\E", start + 2);
+            return (end < 0) ? regex.length() : end + 2;
+        }
+        return start + 2;
+    }
+
+    /**
+     * Find the end of a character class
+     * @param regex the regular expression
+     * @param start position of the opening bracket
+     * @return position after the closing bracket
+     */
+    private static int skipClass(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while(i < regex.length()) {
+            char c = regex.charAt(i);
+            if(c == '\\') {
+                i = skipEscape(regex, i);
+                continue;
+            }
+            if(c == '[') {
+                depth++;
+                if((i + 1 < regex.length()) && (regex.charAt(i + 1) == '^')) {
+                    i++;
+                }
+                if((i + 1 < regex.length()) && (regex.charAt(i + 1) == ']')) {
+                    i++;
+                }
+            } else if((c == ']') && (--depth == 0)) {
+                return i + 1;
+            }
+            i++;
+        }
+        return regex.length();
+    }
+
+    /**
+     * Find the end of a group
+     * @param regex the regular expression
+     * @param start position of the opening parenthesis
+     * @return position after the closing parenthesis, -1 if there is none
+     */
+    private static int skipGroup(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while(i < regex.length()) {
+            char c = regex.charAt(i);
+            if(c == '\\') {
+                i = skipEscape(regex, i);
+                continue;
+            }
+            if(c == '[') {
+                i = skipClass(regex, i);
+                continue;
+            }
+            if(c == '(') {
+                depth++;
+            } else if((c == ')') && (--depth == 0)) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Read the postings of a trigram
+     * @param gram the trigram
+     * @return document numbers containing the trigram, ascending
+     * @throws IOException when the index could not be read
+     */
+    private int[] postings(int gram) throws IOException {
+        int lo = 0;
+        int hi = _ngrams - 1;
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int v = _table.getInt(mid * 12);
+            if(v < gram) {
+                lo = mid + 1;
+            } else if(v > gram) {
+                hi = mid - 1;
+            } else {
+                long start = _table.getLong(mid * 12 + 4);
+                long end = (mid + 1 < _ngrams) ? _table.getLong((mid + 1) * 12 + 4) : _names_ofs;
+                ByteBuffer buf = read(start, (int) (end - start));
+                InputStream in = new ByteArrayInputStream(buf.array(), 0, buf.limit());
+                int[] docs = new int[(int) TrigramIndexWriter.readVarint(in)];
+                int doc = 0;
+                for(int i = 0; i < docs.length; i++) {
+                    doc += (int) TrigramIndexWriter.readVarint(in);
+                    docs[i] = doc;
+                }
+                return docs;
+            }
+        }
+        return new int[0];
+    }
+
+    /**
+     * Read a part of the index file
+     * @param pos offset in the file
+     * @param len number of bytes to read
+     * @return buffer with the bytes, positioned at the start
+     * @throws IOException when the file could not be read
+     */
+    private ByteBuffer read(long pos, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while(buf.hasRemaining()) {
+            if(_ch.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("unexpected end of trigram index");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Intersect two ascending lists
+     * @param a first list
+     * @param b second list
+     * @return elements in both lists, ascending
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] res = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while((i < a.length) && (j < b.length)) {
+            if(a[i] < b[j]) {
+                i++;
+            } else if(a[i] > b[j]) {
+                j++;
+            } else {
+                res[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(res, n);
+    }
+
+    /**
+     * Fold a byte the way the index does
+     * @param b the byte
+     * @return the byte as unsigned value, ASCII letters in lower case
+     */
+    private static int fold(byte b) {
+        int v = b & 0xff;
+        return ((v >= 'A') && (v <= 'Z')) ? v + ('a' - 'A') : v;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _ch.close();
+    }
+
+    /**
+     * Search all indexed bodies in an output directory
+     * <p>
+     * Candidates are read back with {@link DeltaReader}, so compressed and delta bodies are
+     * searched as well. Candidates that cannot be read back, e.g. bodies inside ZIP or TAR
+     * archives or deltas whose base is missing, are listed as unverified instead.
+     * @param dir output directory with one or more "{@value TrigramIndexWriter#SUFFIX}" files
+     * @param pattern string or regular expression to look for
+     * @param literal <code>true</code> if the pattern is a string, not a regular expression
+     * @param ignore_case <code>true</code> to ignore the case of ASCII letters
+     * @param unverified receives the names of the candidates that could not be read, with the reason
+     *                   after a tab
+     * @return names of the bodies that contain the pattern, relative to the output directory
+     * @throws IOException when an index could not be read
+     */
+    public static List<String> search(Path dir, String pattern, boolean literal, boolean ignore_case,
+                                      List<String> unverified)
+        throws IOException {
+        Pattern regex = Pattern.compile(pattern, (literal ? Pattern.LITERAL : 0) |
+                                        (ignore_case ? Pattern.CASE_INSENSITIVE : 0));
+        DeltaReader reader = new DeltaReader(dir);
+        List<String> res = new ArrayList<String>();
+        for(Path file : indexes(dir)) {
+            try(TrigramIndex index = new TrigramIndex(file)) {
+                BitSet docs = literal ? index.candidates(pattern) : index.candidates(regex);
+                for(int doc = docs.nextSetBit(0); doc >= 0; doc = docs.nextSetBit(doc + 1)) {
+                    String name = index.getName(doc);
+                    byte[] body;
+                    try {
+                        body = reader.read(index.isGzip(doc) ?
+                                           name.substring(0, name.length() - GzipSink.SUFFIX.length()) : name);
+                    } catch (IOException ioe) {
+                        unverified.add(name + "\t" + ioe.getMessage());
+                        continue;
+                    }
+                    Matcher m = regex.matcher(new String(body, StandardCharsets.UTF_8));
+                    if(m.find()) {
+                        res.add(name);
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Find the trigram indexes in an output directory
+     * @param dir output directory
+     * @return index files, sorted by name
+     * @throws IOException when the directory could not be read
+     */
+    private static List<Path> indexes(Path dir) throws IOException {
+        List<Path> res = new ArrayList<Path>();
+        try(DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + TrigramIndexWriter.SUFFIX)) {
+            for(Path p : ds) {
+                res.add(p);
+            }
+        }
+        res.sort(null);
+        return res;
+    }
+
+    /**
+     * Command line entry point
+     * @param args options, output directory and pattern
+     * @throws IOException when an index or a candidate could not be read
+     */
+    public static void main(String[] args) throws IOException {
+        boolean literal = false;
+        boolean ignore_case = false;
+        boolean only_candidates = false;
+        int i = 0;
+        while((i < args.length) && args[i].startsWith("-")) {
+            if("-F".equals(args[i])) {
+                literal = true;
+            } else if("-i".equals(args[i])) {
+                ignore_case = true;
+            } else if("--candidates".equals(args[i])) {
+                only_candidates = true;
+            } else {
+                break;
+            }
+            i++;
+        }
+        if(args.length - i != 2) {
+            System.err.println("usage: TrigramIndex [-F] [-i] [--candidates] <output directory> <pattern>\n" +
+                               "  -F               the pattern is a string, not a regular expression\n" +
+                               "  -i               ignore the case of ASCII letters\n" +
+                               "  --candidates     only list the bodies the index cannot rule out, without reading them");
+            System.exit(2);
+        }
+        Path dir = Paths.get(args[i]);
+        String pattern = args[i + 1];
+        if(!only_candidates) {
+            List<String> unverified = new ArrayList<String>();
+            for(String name : search(dir, pattern, literal, ignore_case, unverified)) {
+                System.out.println(name);
+            }
+            for(String name : unverified) {
+                System.err.println("not verified: " + name);
+            }
+            return;
+        }
+        Pattern regex = Pattern.compile(pattern, literal ? Pattern.LITERAL : 0);
+        for(Path file : indexes(dir)) {
+            try(TrigramIndex index = new TrigramIndex(file)) {
+                BitSet docs = literal ? index.candidates(pattern) : index.candidates(regex);
+                for(int doc = docs.nextSetBit(0); doc >= 0; doc = docs.nextSetBit(doc + 1)) {
+                    System.out.println(index.getName(doc));
+                }
+            }
+        }
+    }
+}
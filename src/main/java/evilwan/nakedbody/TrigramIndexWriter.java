@@ -0,0 +1,642 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Builds the trigram index of an export, so that {@link TrigramIndex} can tell which saved
+ * bodies may contain a string without reading all of them.
+ * <p>
+ * Every saved body is fed through a {@link Document}, which collects the distinct
+ * trigrams (three consecutive bytes, ASCII letters folded to lower case) of the body while
+ * computing its checksum. Completed documents are turned into (trigram, document) pairs in a
+ * buffer; when the buffer is full it is sorted and spilled to a temporary file next to the
+ * index, so memory use does not depend on the size of the export. Closing the writer merges
+ * the spilled runs into the index file.
+ * </p>
+ * <p>
+ * Bodies with more than {@link #MAX_TRIGRAMS} distinct trigrams are mostly compressed or
+ * binary data: they are listed as not indexed and every query returns them as a candidate.
+ * </p>
+ * <p>
+ * Layout of the index file, all numbers big endian or unsigned LEB128 varints:
+ * </p>
+ * <pre>
+ *     "NBT1"
+ *     postings       per trigram: varint number of documents, varint document number deltas
+ *     names          per document: varint flags (1 = not indexed, 2 = gzip), varint length, UTF-8 name
+ *     table          per trigram, ascending: int trigram, long offset of its postings
+ *     footer         long offset of names, long offset of table, int documents, int trigrams, "NBT1"
+ * </pre>
+ */
+public class TrigramIndexWriter implements Closeable {
+    /**
+     * File name suffix for trigram indexes
+     */
+    public final static String SUFFIX = ".trigrams";
+    /**
+     * First and last bytes of every index file
+     */
+    final static byte[] MAGIC = { 'N', 'B', 'T', '1' };
+    /**
+     * Number of bytes in the footer
+     */
+    final static int FOOTER_SIZE = 8 + 8 + 4 + 4 + 4;
+    /**
+     * Flag for documents that are not indexed
+     */
+    final static int NOT_INDEXED = 1;
+    /**
+     * Flag for documents that were saved with gzip compression by {@link GzipSink}
+     */
+    final static int GZIP = 2;
+    /**
+     * Maximum number of distinct trigrams of an indexed body
+     */
+    final static int MAX_TRIGRAMS = 1 << 18;
+    /**
+     * Number of (trigram, document) pairs buffered before they are spilled
+     */
+    private final static int MAX_PAIRS = 1 << 22;
+
+    /**
+     * Collects the trigrams of one body.
+     * <p>
+     * Fed through a {@link BodyDigest} together with the checksum of the saved bytes. Not
+     * thread safe, one document belongs to one worker thread.
+     * </p>
+     */
+    public static class Document {
+        /**
+         * Open addressing set of the trigrams seen, stored plus one so zero means empty
+         */
+        private int[] _set = new int[1024];
+        /**
+         * Number of trigrams in {@link #_set}
+         */
+        private int _count = 0;
+        /**
+         * Last two (folded) bytes seen
+         */
+        private int _last = 0;
+        /**
+         * Number of bytes seen, up to 2
+         */
+        private int _seen = 0;
+        /**
+         * <code>true</code> once the body has too many distinct trigrams to be indexed
+         */
+        private boolean _overflow = false;
+
+        /**
+         * Account for the next byte of the body
+         * @param b the byte, in the low 8 bits
+         */
+        public void update(int b) {
+            add(b);
+        }
+
+        /**
+         * Account for the next bytes of the body
+         * @param bar contains the bytes
+         * @param ofs zero based offset of the first byte
+         * @param len number of bytes
+         */
+        public void update(byte[] bar, int ofs, int len) {
+            if(_overflow) {
+                return;
+            }
+            int end = ofs + len;
+            for(int i = ofs; i < end; i++) {
+                add(bar[i]);
+            }
+        }
+
+        /**
+         * Account for the next bytes of the body
+         * @param buf the bytes between position and limit, consumed
+         */
+        public void update(ByteBuffer buf) {
+            if(_overflow) {
+                buf.position(buf.limit());
+                return;
+            }
+            while(buf.hasRemaining()) {
+                add(buf.get());
+            }
+        }
+
+        /**
+         * Forget all bytes seen, to start over with the same body
+         */
+        public void reset() {
+            _set = new int[1024];
+            _count = 0;
+            _last = 0;
+            _seen = 0;
+            _overflow = false;
+        }
+
+        /**
+         * Account for the next byte of the body
+         * @param b the byte
+         */
+        private void add(int b) {
+            b &= 0xff;
+            if((b >= 'A') && (b <= 'Z')) {
+                b += 'a' - 'A';
+            }
+            int gram = (_last << 8) | b;
+            _last = gram & 0xffff;
+            if(_seen < 2) {
+                _seen++;
+                return;
+            }
+            if(_overflow) {
+                return;
+            }
+            //
+            // Fibonacci hashing into a power of two table, linear probing
+            //
+            int mask = _set.length - 1;
+            int slot = ((gram + 1) * 0x9e3779b1) >>> (32 - Integer.numberOfTrailingZeros(_set.length));
+            while(_set[slot] != 0) {
+                if(_set[slot] == gram + 1) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            _set[slot] = gram + 1;
+            if(++_count > MAX_TRIGRAMS) {
+                _overflow = true;
+                _set = null;
+            } else if(_count * 2 > _set.length) {
+                grow();
+            }
+        }
+
+        /**
+         * Double the size of the trigram set
+         */
+        private void grow() {
+            int[] old = _set;
+            _set = new int[old.length * 2];
+            int mask = _set.length - 1;
+            int shift = 32 - Integer.numberOfTrailingZeros(_set.length);
+            for(int v : old) {
+                if(v != 0) {
+                    int slot = (v * 0x9e3779b1) >>> shift;
+                    while(_set[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    _set[slot] = v;
+                }
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the body has too many distinct trigrams to be indexed
+         */
+        public boolean isOverflow() {
+            return _overflow;
+        }
+
+        /**
+         * @return distinct trigrams of the body, in ascending order
+         */
+        int[] trigrams() {
+            if(_overflow) {
+                return new int[0];
+            }
+            int[] res = new int[_count];
+            int n = 0;
+            for(int v : _set) {
+                if(v != 0) {
+                    res[n++] = v - 1;
+                }
+            }
+            Arrays.sort(res);
+            return res;
+        }
+    }
+
+    /**
+     * Sorted stream of (trigram, document) pairs
+     */
+    private interface PairSource extends Closeable {
+        /**
+         * @return next pair, trigram in the high and document in the low 32 bits, -1 at the end
+         * @throws IOException when reading the pairs failed
+         */
+        long next() throws IOException;
+    }
+
+    /**
+     * The index file
+     */
+    private final Path _file;
+    /**
+     * Names of all documents so far, in document number order
+     */
+    private final List<String> _names = new ArrayList<String>();
+    /**
+     * Flags of all documents so far
+     */
+    private byte[] _flags = new byte[1024];
+    /**
+     * Buffered (trigram, document) pairs
+     */
+    private long[] _pairs = new long[1024];
+    /**
+     * Number of pairs in {@link #_pairs}
+     */
+    private int _npairs = 0;
+    /**
+     * Runs spilled so far
+     */
+    private final List<Path> _runs = new ArrayList<Path>();
+    /**
+     * <code>true</code> once closed
+     */
+    private boolean _closed = false;
+
+    /**
+     * Create writer
+     * @param file the index file to write when closed
+     */
+    public TrigramIndexWriter(Path file) {
+        _file = file;
+    }
+
+    /**
+     * @return new document, to be fed with the bytes of one body and then added with
+     *         {@link #add(String, boolean, Document)}
+     */
+    public Document newDocument() {
+        return new Document();
+    }
+
+    /**
+     * Add a saved body to the index
+     * @param name name of the saved file, relative to the output location
+     * @param gzip <code>true</code> if the file was compressed by {@link GzipSink}
+     * @param doc document that was fed with the (uncompressed) bytes of the body
+     * @throws IOException when spilling the buffered pairs failed
+     */
+    public synchronized void add(String name, boolean gzip, Document doc) throws IOException {
+        if(_closed) {
+            throw new IOException("trigram index " + _file + " is closed already");
+        }
+        long nr = _names.size();
+        _names.add(name);
+        if(_flags.length == nr) {
+            _flags = Arrays.copyOf(_flags, _flags.length * 2);
+        }
+        _flags[(int) nr] = (byte) ((doc.isOverflow() ? NOT_INDEXED : 0) | (gzip ? GZIP : 0));
+        for(int gram : doc.trigrams()) {
+            if(_npairs == _pairs.length) {
+                if(_pairs.length < MAX_PAIRS) {
+                    _pairs = Arrays.copyOf(_pairs, Math.min(MAX_PAIRS, _pairs.length * 2));
+                } else {
+                    spill();
+                }
+            }
+            _pairs[_npairs++] = ((long) gram << 32) | nr;
+        }
+    }
+
+    /**
+     * Sort the buffered pairs and write them to a new run
+     * @throws IOException when the run could not be written
+     */
+    private void spill() throws IOException {
+        Arrays.sort(_pairs, 0, _npairs);
+        Path run = Paths.get(_file.toString() + ".run" + _runs.size());
+        _runs.add(run);
+        try(OutputStream os = new BufferedOutputStream(Files.newOutputStream(run), 1 << 16)) {
+            long prev = 0;
+            for(int i = 0; i < _npairs; i++) {
+                writeVarint(os, _pairs[i] - prev);
+                prev = _pairs[i];
+            }
+        }
+        _npairs = 0;
+    }
+
+    /**
+     * Merge all pairs into the index file and remove the spilled runs
+     * @throws IOException when the index could not be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(_closed) {
+            return;
+        }
+        _closed = true;
+        final PairSource pairs;
+        if(_runs.isEmpty()) {
+            Arrays.sort(_pairs, 0, _npairs);
+            pairs = new PairSource() {
+                /**
+                 * Next pair to return
+                 */
+                private int _pos = 0;
+
+                @Override
+                public long next() {
+                    return (_pos < _npairs) ? _pairs[_pos++] : -1;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        } else {
+            if(_npairs > 0) {
+                spill();
+            }
+            _pairs = null;
+            pairs = merge();
+        }
+        try {
+            write(pairs);
+        } finally {
+            pairs.close();
+            for(Path run : _runs) {
+                Files.deleteIfExists(run);
+            }
+            _pairs = null;
+        }
+    }
+
+    /**
+     * Merge the spilled runs
+     * @return merged pairs
+     * @throws IOException when a run could not be opened
+     */
+    private PairSource merge() throws IOException {
+        final List<PairSource> runs = new ArrayList<PairSource>();
+        try {
+            for(Path run : _runs) {
+                final InputStream in = new BufferedInputStream(Files.newInputStream(run), 1 << 16);
+                runs.add(new PairSource() {
+                    /**
+                     * Last pair returned
+                     */
+                    private long _prev = 0;
+
+                    @Override
+                    public long next() throws IOException {
+                        long delta = readVarint(in);
+                        if(delta < 0) {
+                            return -1;
+                        }
+                        _prev += delta;
+                        return _prev;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        in.close();
+                    }
+                });
+            }
+        } catch (IOException ioe) {
+            for(PairSource run : runs) {
+                run.close();
+            }
+            throw ioe;
+        }
+        //
+        // Heads of the runs, ordered by pair, as { pair, run number }
+        //
+        final PriorityQueue<long[]> heads = new PriorityQueue<long[]>(runs.size(), (a, b) -> Long.compare(a[0], b[0]));
+        for(int i = 0; i < runs.size(); i++) {
+            long pair = runs.get(i).next();
+            if(pair >= 0) {
+                heads.add(new long[] { pair, i });
+            }
+        }
+        return new PairSource() {
+            @Override
+            public long next() throws IOException {
+                long[] head = heads.poll();
+                if(head == null) {
+                    return -1;
+                }
+                long res = head[0];
+                long pair = runs.get((int) head[1]).next();
+                if(pair >= 0) {
+                    head[0] = pair;
+                    heads.add(head);
+                }
+                return res;
+            }
+
+            @Override
+            public void close() throws IOException {
+                for(PairSource run : runs) {
+                    run.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Write the index file
+     * @param pairs all (trigram, document) pairs in ascending order
+     * @throws IOException when the file could not be written
+     */
+    private void write(PairSource pairs) throws IOException {
+        int[] grams = new int[1024];
+        long[] offsets = new long[1024];
+        int ngrams = 0;
+        try(CountingStream os = new CountingStream(Files.newOutputStream(_file))) {
+            os.write(MAGIC);
+            int[] docs = new int[1024];
+            int ndocs = 0;
+            long pair = pairs.next();
+            while(pair >= 0) {
+                int gram = (int) (pair >>> 32);
+                ndocs = 0;
+                while((pair >= 0) && ((int) (pair >>> 32) == gram)) {
+                    if(ndocs == docs.length) {
+                        docs = Arrays.copyOf(docs, ndocs * 2);
+                    }
+                    docs[ndocs++] = (int) pair;
+                    pair = pairs.next();
+                }
+                if(ngrams == grams.length) {
+                    grams = Arrays.copyOf(grams, ngrams * 2);
+                    offsets = Arrays.copyOf(offsets, ngrams * 2);
+                }
+                grams[ngrams] = gram;
+                offsets[ngrams++] = os.getCount();
+                writeVarint(os, ndocs);
+                int prev = 0;
+                for(int i = 0; i < ndocs; i++) {
+                    writeVarint(os, docs[i] - prev);
+                    prev = docs[i];
+                }
+            }
+            long names_ofs = os.getCount();
+            for(int i = 0; i < _names.size(); i++) {
+                byte[] name = _names.get(i).getBytes(StandardCharsets.UTF_8);
+                writeVarint(os, _flags[i]);
+                writeVarint(os, name.length);
+                os.write(name);
+            }
+            long table_ofs = os.getCount();
+            for(int i = 0; i < ngrams; i++) {
+                writeInt(os, grams[i]);
+                writeLong(os, offsets[i]);
+            }
+            writeLong(os, names_ofs);
+            writeLong(os, table_ofs);
+            writeInt(os, _names.size());
+            writeInt(os, ngrams);
+            os.write(MAGIC);
+        }
+    }
+
+    /**
+     * Buffered stream that counts the bytes written
+     */
+    private static class CountingStream extends BufferedOutputStream {
+        /**
+         * Number of bytes written
+         */
+        private long _total = 0;
+
+        /**
+         * Create stream
+         * @param os stream to write to
+         */
+        CountingStream(OutputStream os) {
+            super(os, 1 << 16);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            super.write(b);
+            _total++;
+        }
+
+        @Override
+        public void write(byte[] bar, int ofs, int len) throws IOException {
+            super.write(bar, ofs, len);
+            _total += len;
+        }
+
+        /**
+         * @return number of bytes written
+         */
+        long getCount() {
+            return _total;
+        }
+    }
+
+    /**
+     * Write an unsigned LEB128 varint
+     * @param os stream to write to
+     * @param v non-negative value
+     * @throws IOException when writing failed
+     */
+    static void writeVarint(OutputStream os, long v) throws IOException {
+        while((v & ~0x7fL) != 0) {
+            os.write((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        os.write((int) v);
+    }
+
+    /**
+     * Read an unsigned LEB128 varint
+     * @param in stream to read from
+     * @return the value, -1 at the end of the stream
+     * @throws IOException when reading failed or the stream ends within the varint
+     */
+    static long readVarint(InputStream in) throws IOException {
+        long v = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if(b < 0) {
+                if(shift == 0) {
+                    return -1;
+                }
+                throw new IOException("truncated varint");
+            }
+            v |= (long) (b & 0x7f) << shift;
+            if((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("varint too long");
+    }
+
+    /**
+     * Write a big endian int
+     * @param os stream to write to
+     * @param v the value
+     * @throws IOException when writing failed
+     */
+    private static void writeInt(OutputStream os, int v) throws IOException {
+        os.write(v >>> 24);
+        os.write(v >>> 16);
+        os.write(v >>> 8);
+        os.write(v);
+    }
+
+    /**
+     * Write a big endian long
+     * @param os stream to write to
+     * @param v the value
+     * @throws IOException when writing failed
+     */
+    private static void writeLong(OutputStream os, long v) throws IOException {
+        writeInt(os, (int) (v >>> 32));
+        writeInt(os, (int) v);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Checksum;
+
+/**
+ * Streaming decoder for URL encoded (application/x-www-form-urlencoded) bodies.
+ * <p>
+ * Decodes straight from the message byte array into a caller supplied buffer, which is
+ * flushed to the output channel whenever it fills up. With a reused direct buffer and a
+ * file channel, no intermediate arrays are allocated at all.
+ * </p>
+ * <p>
+ * "<code>+</code>" is decoded as a space and "<code>%XX</code>" as the byte with hexadecimal
+ * value XX. Malformed percent escapes are copied unchanged.
+ * </p>
+ */
+public class UrlDecoder {
+    /**
+     * Utility class, no instances
+     */
+    private UrlDecoder() {
+    }
+
+    /**
+     * Decode URL encoded bytes into a channel
+     * @param bar contains the encoded bytes
+     * @param ofs zero based offset of the first encoded byte
+     * @param len number of encoded bytes
+     * @param buf buffer to collect decoded bytes in, cleared before use
+     * @param out channel to write the decoded bytes to
+     * @param crc checksum to update with the decoded bytes, <code>null</code> if not needed
+     * @return number of decoded bytes written
+     * @throws IOException when writing to the channel fails
+     */
+    public static long decode(byte[] bar, int ofs, int len, ByteBuffer buf, WritableByteChannel out,
+                              Checksum crc) throws IOException {
+        long total = 0;
+        int end = ofs + len;
+        buf.clear();
+        int i = ofs;
+        while(i < end) {
+            if(!buf.hasRemaining()) {
+                total += flush(buf, out, crc);
+            }
+            byte b = bar[i];
+            if(b == '+') {
+                buf.put((byte) ' ');
+                i += 1;
+            } else if((b == '%') && (i + 2 < end) && (hex(bar[i + 1]) >= 0) && (hex(bar[i + 2]) >= 0)) {
+                buf.put((byte) ((hex(bar[i + 1]) << 4) | hex(bar[i + 2])));
+                i += 3;
+            } else {
+                buf.put(b);
+                i += 1;
+            }
+        }
+        total += flush(buf, out, crc);
+        return total;
+    }
+
+    /**
+     * Write buffer content to channel and clear the buffer
+     * @param buf buffer with bytes to write
+     * @param out channel to write to
+     * @param crc checksum to update, may be <code>null</code>
+     * @return number of bytes written
+     * @throws IOException when writing fails
+     */
+    private static int flush(ByteBuffer buf, WritableByteChannel out, Checksum crc) throws IOException {
+        buf.flip();
+        if(crc != null) {
+            crc.update(buf.duplicate());
+        }
+        int n = buf.remaining();
+        while(buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+        return n;
+    }
+
+    /**
+     * Value of a hexadecimal digit
+     * @param b character to convert
+     * @return value 0-15, or -1 if not a hexadecimal digit
+     */
+    private static int hex(byte b) {
+        if((b >= '0') && (b <= '9')) {
+            return b - '0';
+        }
+        if((b >= 'a') && (b <= 'f')) {
+            return b - 'a' + 10;
+        }
+        if((b >= 'A') && (b <= 'F')) {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+}
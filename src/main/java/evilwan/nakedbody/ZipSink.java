@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2021 Eddy Vanlerberghe.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of Eddy Vanlerberghe shall not be used to endorse or promote
+ *    products derived from this software without specific prior written
+ *    permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY EDDY VANLERBERGHE ''AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL EDDY VANLERBERGHE BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package evilwan.nakedbody;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes all bodies as entries of one ZIP archive.
+ * <p>
+ * Bodies that are known to be compressed already (images, video, archives, ...) are
+ * stored as-is, so no time is wasted on deflating them a second time.
+ */
+public class ZipSink implements BodySink {
+    /**
+     * Size of the write buffer in front of the archive file
+     */
+    private final static int BUFFER_SIZE = 1 << 16;
+    /**
+     * File extensions of bodies that are stored without compression
+     */
+    private final static Set<String> STORED_TYPES =
+        Set.of(".gif", ".png", ".jpg", ".ico", ".webp", ".woff", ".woff2", ".zip", ".epub",
+               ".gz", ".bz", ".bz2", ".mp3", ".mp4", ".mpg", ".webm", ".pdf");
+    /**
+     * Archive being written
+     */
+    private final ZipOutputStream _zip;
+    /**
+     * Counts the bytes written into the archive file
+     */
+    private final CountingOutputStream _count;
+    /**
+     * Serializes access to the archive: entries are written one at a time
+     */
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    /**
+     * Create new archive
+     * @param archive name of the archive file to create
+     * @throws IOException when the archive file could not be created
+     */
+    public ZipSink(Path archive) throws IOException {
+        OutputStream os = Channels.newOutputStream(FileChannel.open(archive,
+                                                                    StandardOpenOption.CREATE,
+                                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                                    StandardOpenOption.WRITE));
+        _count = new CountingOutputStream(new BufferedOutputStream(os, BUFFER_SIZE));
+        _zip = new ZipOutputStream(_count);
+    }
+
+    @Override
+    public long write(String name, byte[] bar, int ofs, int len) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        int dot = name.lastIndexOf('.');
+        if((dot >= 0) && STORED_TYPES.contains(name.substring(dot))) {
+            //
+            // Stored entries need size and checksum up front
+            //
+            CRC32 crc = new CRC32();
+            crc.update(bar, ofs, len);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(len);
+            entry.setCompressedSize(len);
+            entry.setCrc(crc.getValue());
+        }
+        _lock.lock();
+        try {
+            _zip.putNextEntry(entry);
+            //
+            // Local header has been written, entry data starts here
+            //
+            long pos = _count.getCount();
+            _zip.write(bar, ofs, len);
+            _zip.closeEntry();
+            return pos;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The archive stays locked for other writers until the returned stream is closed.
+     */
+    @Override
+    public OutputStream open(String name) throws IOException {
+        _lock.lock();
+        try {
+            _zip.putNextEntry(new ZipEntry(name));
+        } catch (IOException ioe) {
+            _lock.unlock();
+            throw ioe;
+        }
+        return new FilterOutputStream(_zip) {
+            /**
+             * Set once the entry has been closed
+             */
+            private boolean _closed = false;
+
+            @Override
+            public void write(byte[] bar, int ofs, int len) throws IOException {
+                _zip.write(bar, ofs, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if(_closed) {
+                    return;
+                }
+                _closed = true;
+                try {
+                    _zip.closeEntry();
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        _lock.lock();
+        try {
+            _zip.close();
+        } finally {
+            _lock.unlock();
+        }
+    }
+}